@@ -22,6 +22,9 @@ package com.tracqi.fsensor.filter;
 public class LowPassFilter extends SensorFilter {
     private static final String tag = LowPassFilter.class.getSimpleName();
 
+    private long timestamp;
+    private boolean initialized;
+
     public LowPassFilter() {}
 
     public LowPassFilter(float timeConstant) {
@@ -33,20 +36,21 @@ public class LowPassFilter extends SensorFilter {
      *
      * @param values The acceleration data. A 1x3 matrix containing the data from the X, Y and Z axis of the sensor
      *               noting that order is arbitrary.
+     * @param timestamp The time of the sample in nanoseconds.
      * @return Returns the output of the fusedOrientation.
      */
-    public float[] filter(float[] values) {
-        // Initialize the start time.
-        if (startTime == 0) {
-            startTime = System.nanoTime();
+    public float[] filter(float[] values, long timestamp) {
+        if (!initialized || timestamp < this.timestamp) {
+            // The first sample is the output.
+            initialized = true;
+            this.timestamp = timestamp;
+            System.arraycopy(values, 0, output, 0, output.length);
+            return output;
         }
 
-        // Find the sample period (between updates) and convert from
-        // nanoseconds to seconds. Note that the sensor delivery rates can
-        // individually vary by a relatively large time frame, so we use an
-        // averaging technique with the number of sensor updates to
-        // determine the delivery rate.
-        float dt = 1 / (count++ / ((System.nanoTime() - startTime) / 1000000000.0f));
+        // The sample period (between this and the previous sample) in seconds.
+        float dt = (timestamp - this.timestamp) * NS2S;
+        this.timestamp = timestamp;
 
         float alpha = timeConstant / (timeConstant + dt);
         float oneMinusAlpha = 1 - alpha;
@@ -57,4 +61,53 @@ public class LowPassFilter extends SensorFilter {
 
         return output;
     }
+
+    @Override
+    public void filter(float[] input, int inputOffset, int inputStride, long[] timestamps, int timestampOffset,
+                       float[] output, int outputOffset, int outputStride, int count) {
+        // The state lives in locals for the loop.
+        float timeConstant = this.timeConstant;
+        boolean initialized = this.initialized;
+        long previous = this.timestamp;
+        float x = this.output[0];
+        float y = this.output[1];
+        float z = this.output[2];
+
+        for (int i = 0; i < count; i++) {
+            int in = inputOffset + i * inputStride;
+            long timestamp = timestamps[timestampOffset + i];
+
+            if (!initialized || timestamp < previous) {
+                initialized = true;
+                x = input[in];
+                y = input[in + 1];
+                z = input[in + 2];
+            } else {
+                float dt = (timestamp - previous) * NS2S;
+                float alpha = timeConstant / (timeConstant + dt);
+                float oneMinusAlpha = 1 - alpha;
+
+                x = alpha * x + oneMinusAlpha * input[in];
+                y = alpha * y + oneMinusAlpha * input[in + 1];
+                z = alpha * z + oneMinusAlpha * input[in + 2];
+            }
+            previous = timestamp;
+
+            int out = outputOffset + i * outputStride;
+            output[out] = x;
+            output[out + 1] = y;
+            output[out + 2] = z;
+        }
+
+        this.initialized = initialized;
+        this.timestamp = previous;
+        this.output[0] = x;
+        this.output[1] = y;
+        this.output[2] = z;
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+    }
 }
@@ -1,9 +1,5 @@
 package com.tracqi.fsensor.filter;
 
-import android.util.Log;
-
-import java.util.ArrayDeque;
-import java.util.Arrays;
 
 /*
  * Copyright 2024, Tracqi Technology, LLC
@@ -23,12 +19,29 @@ import java.util.Arrays;
 
 /**
  * Implements a mean filter designed to smooth the data points based on a time constant.
+ * The output is the mean of the samples of the last timeConstant seconds.
+ * <p>
+ * The window is kept in a flat ring buffer with a running sum per axis, so
+ * each sample costs O(1) regardless of the window length and does not
+ * allocate. The running sums are compensated (Kahan-Babuska) so adding and
+ * evicting samples for hours does not accumulate rounding error.
  */
 public class MeanFilter extends SensorFilter {
 
     private static final String tag = MeanFilter.class.getSimpleName();
 
-    private final ArrayDeque<float[]> values = new ArrayDeque<>();
+    private static final int AXES = 3;
+    private static final int INITIAL_CAPACITY = 32;
+
+    private final TimeWindow window = new TimeWindow();
+
+    // Samples of the window, oldest at head, AXES floats per sample.
+    private float[] values = new float[INITIAL_CAPACITY * AXES];
+    private int head;
+    private int size;
+
+    private final double[] sum = new double[AXES];
+    private final double[] compensation = new double[AXES];
 
     /**
      * Initialize a new MeanFilter object.
@@ -45,58 +58,104 @@ public class MeanFilter extends SensorFilter {
      * Filter the data.
      *
      * @param data contains input the data.
+     * @param timestamp the time of the sample in nanoseconds.
      * @return the filtered output data.
      */
-    public float[] filter(float[] data) {
+    public float[] filter(float[] data, long timestamp) {
+        filterSample(data, 0, timestamp, output, 0);
+        return output;
+    }
 
-        if (startTime == 0) {
-            startTime = System.nanoTime();
+    @Override
+    public void filter(float[] input, int inputOffset, int inputStride, long[] timestamps, int timestampOffset,
+                       float[] output, int outputOffset, int outputStride, int count) {
+        for (int i = 0; i < count; i++) {
+            filterSample(input, inputOffset + i * inputStride, timestamps[timestampOffset + i],
+                    output, outputOffset + i * outputStride);
         }
 
-        // Find the sample period (between updates) and convert from
-        // nanoseconds to seconds. Note that the sensor delivery rates can
-        // individually vary by a relatively large time frame, so we use an
-        // averaging technique with the number of sensor updates to
-        // determine the delivery rate.
-        float hz = (count++ / ((System.nanoTime() - startTime) / 1000000000.0f));
-
-        int filterWindow = (int) Math.ceil(hz * timeConstant);
+        if (count > 0) {
+            System.arraycopy(output, outputOffset + (count - 1) * outputStride, this.output, 0, AXES);
+        }
+    }
 
-        values.addLast(Arrays.copyOf(data, data.length));
+    @Override
+    public void reset() {
+        window.clear();
+        while (size > 0) {
+            removeFirst();
+        }
+    }
 
-        while (values.size() > filterWindow) {
-            values.removeFirst();
+    private void filterSample(float[] data, int offset, long timestamp, float[] output, int outputOffset) {
+        if (window.size() > 0 && timestamp < window.newest()) {
+            reset();
         }
 
-        if(!values.isEmpty()) {
-            float[] mean = getMean(values);
-            System.arraycopy(mean, 0, output, 0, output.length);
-        } else {
-            System.arraycopy(data, 0, output, 0, data.length);
+        add(data, offset);
+        window.add(timestamp);
+
+        long duration = (long) (timeConstant * 1000000000.0f);
+        while (window.isOldestExpired(timestamp, duration)) {
+            window.removeOldest();
+            removeFirst();
         }
 
-        return output;
+        for (int i = 0; i < AXES; i++) {
+            output[outputOffset + i] = (float) ((sum[i] + compensation[i]) / size);
+        }
     }
 
-    /**
-     * Get the mean of the data set.
-     *
-     * @param data the data set.
-     * @return the mean of the data set.
-     */
-    private float[] getMean(ArrayDeque<float[]> data) {
-        float[] mean = new float[data.getFirst().length];
+    private void add(float[] data, int offset) {
+        int capacity = values.length / AXES;
+        if (size == capacity) {
+            // The window only grows until it holds timeConstant seconds of samples.
+            float[] grown = new float[values.length * 2];
+            int first = (capacity - head) * AXES;
+            System.arraycopy(values, head * AXES, grown, 0, first);
+            System.arraycopy(values, 0, grown, first, head * AXES);
+            values = grown;
+            head = 0;
+            capacity *= 2;
+        }
 
-        for (float[] axis : data) {
-            for (int i = 0; i < axis.length; i++) {
-                mean[i] += axis[i];
-            }
+        int tail = (head + size) % capacity * AXES;
+        for (int i = 0; i < AXES; i++) {
+            values[tail + i] = data[offset + i];
+            accumulate(i, data[offset + i]);
         }
+        size++;
+    }
 
-        for (int i = 0; i < mean.length; i++) {
-            mean[i] /= data.size();
+    private void removeFirst() {
+        int offset = head * AXES;
+        for (int i = 0; i < AXES; i++) {
+            accumulate(i, -values[offset + i]);
         }
+        head = (head + 1) % (values.length / AXES);
+        size--;
+
+        if (size == 0) {
+            // Start over exactly, instead of from a residue of rounding errors.
+            head = 0;
+            for (int i = 0; i < AXES; i++) {
+                sum[i] = 0;
+                compensation[i] = 0;
+            }
+        }
+    }
 
-        return mean;
+    /**
+     * Adds value to the running sum of an axis with Kahan-Babuska compensation.
+     */
+    private void accumulate(int axis, double value) {
+        double s = sum[axis];
+        double t = s + value;
+        if (Math.abs(s) >= Math.abs(value)) {
+            compensation[axis] += (s - t) + value;
+        } else {
+            compensation[axis] += (value - t) + s;
+        }
+        sum[axis] = t;
     }
 }
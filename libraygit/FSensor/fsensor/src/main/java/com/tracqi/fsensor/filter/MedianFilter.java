@@ -1,9 +1,5 @@
 package com.tracqi.fsensor.filter;
 
-import org.apache.commons.math3.stat.StatUtils;
-
-import java.util.ArrayDeque;
-import java.util.Arrays;
 
 /*
  * Copyright 2024, Tracqi Technology, LLC
@@ -23,13 +19,18 @@ import java.util.Arrays;
 
 /**
  * Implements a median filter designed to smooth the data points based on a time constant.
+ * The output is the median of the samples of the last timeConstant seconds.
+ * <p>
+ * Each axis keeps a {@link SlidingMedian}, so a sample costs O(log w) for a
+ * window of w samples instead of selecting over a copy of the whole window.
  */
 public class MedianFilter extends SensorFilter {
 
     private static final String tag = MedianFilter.class
             .getSimpleName();
 
-    private final ArrayDeque<float[]> values = new ArrayDeque<>();;
+    private final TimeWindow window = new TimeWindow();
+    private final SlidingMedian[] medians = {new SlidingMedian(), new SlidingMedian(), new SlidingMedian()};
 
     /**
      * Initialize a new MeanFilter object.
@@ -46,62 +47,55 @@ public class MedianFilter extends SensorFilter {
      * Filter the data.
      *
      * @param data contains input the data.
+     * @param timestamp the time of the sample in nanoseconds.
      * @return the filtered output data.
      */
-    public float[] filter(float[] data) {
+    public float[] filter(float[] data, long timestamp) {
+        filterSample(data, 0, timestamp, output, 0);
+        return output;
+    }
 
-        if (startTime == 0) {
-            startTime = System.nanoTime();
+    @Override
+    public void filter(float[] input, int inputOffset, int inputStride, long[] timestamps, int timestampOffset,
+                       float[] output, int outputOffset, int outputStride, int count) {
+        for (int i = 0; i < count; i++) {
+            filterSample(input, inputOffset + i * inputStride, timestamps[timestampOffset + i],
+                    output, outputOffset + i * outputStride);
         }
 
-        // Find the sample period (between updates) and convert from
-        // nanoseconds to seconds. Note that the sensor delivery rates can
-        // individually vary by a relatively large time frame, so we use an
-        // averaging technique with the number of sensor updates to
-        // determine the delivery rate.
-        float hz = (count++ / ((System.nanoTime() - startTime) / 1000000000.0f));
-
-        int filterWindow = (int) Math.ceil(hz * timeConstant);
-
-        values.addLast(Arrays.copyOf(data, data.length));
-
-        while (values.size() > filterWindow) {
-            values.removeFirst();
+        if (count > 0) {
+            System.arraycopy(output, outputOffset + (count - 1) * outputStride, this.output, 0, medians.length);
         }
+    }
 
-        if(!values.isEmpty()) {
-            float[] median = getMedian(values);
-            System.arraycopy(median, 0, output, 0, output.length);
-        } else {
-            System.arraycopy(data, 0, output, 0, data.length);
+    @Override
+    public void reset() {
+        window.clear();
+        for (SlidingMedian median : medians) {
+            median.clear();
         }
-
-        return output;
     }
 
-    /**
-     * Get the mean of the data set.
-     *
-     * @param data the data set.
-     * @return the mean of the data set.
-     */
-    private float[] getMedian(ArrayDeque<float[]> data) {
-        float[] mean = new float[data.getFirst().length];
+    private void filterSample(float[] data, int offset, long timestamp, float[] output, int outputOffset) {
+        if (window.size() > 0 && timestamp < window.newest()) {
+            reset();
+        }
 
-        double[][] values = new double[data.getFirst().length][data.size()];
-        int index = 0;
+        window.add(timestamp);
+        for (int i = 0; i < medians.length; i++) {
+            medians[i].add(data[offset + i]);
+        }
 
-        for (float[] axis : data) {
-            for (int i = 0; i < axis.length; i++) {
-                values[i][index] = axis[i];
+        long duration = (long) (timeConstant * 1000000000.0f);
+        while (window.isOldestExpired(timestamp, duration)) {
+            window.removeOldest();
+            for (SlidingMedian median : medians) {
+                median.removeOldest();
             }
-            index++;
         }
 
-        for (int i = 0; i < mean.length; i++) {
-            mean[i] = (float) StatUtils.percentile(values[i], 50);
+        for (int i = 0; i < medians.length; i++) {
+            output[outputOffset + i] = (float) medians[i].median();
         }
-
-        return mean;
     }
-}
\ No newline at end of file
+}
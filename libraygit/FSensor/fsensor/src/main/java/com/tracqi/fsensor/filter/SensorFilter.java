@@ -1,5 +1,8 @@
 package com.tracqi.fsensor.filter;
 
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+
 /*
  * Copyright 2024, Tracqi Technology, LLC
  *
@@ -18,14 +21,24 @@ package com.tracqi.fsensor.filter;
 
 /**
  * A base implementation of a sensor filter.
+ * <p>
+ * Filters are driven by the timestamps of the samples, such as
+ * {@link com.tracqi.fsensor.sensor.FSensorEvent#timestamp()}, rather than by
+ * the time the samples happen to be delivered. Batched, bursty or replayed
+ * samples are therefore filtered the same as live ones.
+ * <p>
+ * Recorded traces can be filtered a block at a time with
+ * {@link #filter(float[], int, int, long[], int, float[], int, int, int)}. The
+ * results are exactly the ones of filtering the samples one by one.
  */
 public abstract class SensorFilter {
     public static float DEFAULT_TIME_CONSTANT = 0.18f;
 
+    // Nano-second to second conversion
+    protected static final float NS2S = 1.0f / 1000000000.0f;
+
     protected float timeConstant = DEFAULT_TIME_CONSTANT;
-    protected long startTime;
 
-    protected int count;
     protected final float[] output = new float[3];
 
     public SensorFilter() {}
@@ -38,5 +51,94 @@ public abstract class SensorFilter {
         this.timeConstant = timeConstant;
     }
 
-    public abstract float[] filter(float[] data);
+    /**
+     * Filter a sample.
+     *
+     * @param data      the sample.
+     * @param timestamp the time of the sample in nanoseconds. A timestamp before the previous one
+     *                  restarts the filter.
+     * @return the filtered output data, owned by the filter and overwritten by the next call.
+     */
+    public abstract float[] filter(float[] data, long timestamp);
+
+    /**
+     * Filter a sample stamped with the time it is delivered.
+     *
+     * @deprecated delivery time is not sample time when events are batched, use
+     * {@link #filter(float[], long)} with the sensor event timestamp.
+     */
+    @Deprecated
+    public float[] filter(float[] data) {
+        return filter(data, System.nanoTime());
+    }
+
+    /**
+     * Filter count samples, the same as calling {@link #filter(float[], long)} for each of them.
+     * <p>
+     * Sample i is read from input at inputOffset + i * inputStride and its result is written to
+     * output at outputOffset + i * outputStride, three floats each. output may be input, samples
+     * are read before their result is written.
+     *
+     * @param timestamps the time of sample i in nanoseconds at timestampOffset + i.
+     */
+    public void filter(float[] input, int inputOffset, int inputStride, long[] timestamps, int timestampOffset,
+                       float[] output, int outputOffset, int outputStride, int count) {
+        float[] sample = new float[3];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(input, inputOffset + i * inputStride, sample, 0, 3);
+            float[] result = filter(sample, timestamps[timestampOffset + i]);
+            System.arraycopy(result, 0, output, outputOffset + i * outputStride, 3);
+        }
+    }
+
+    /**
+     * Filter consecutive x, y, z samples, one per timestamp.
+     *
+     * @param output receives the results, may be input.
+     */
+    public void filter(float[] input, long[] timestamps, float[] output) {
+        filter(input, 0, 3, timestamps, 0, output, 0, 3, timestamps.length);
+    }
+
+    /**
+     * Filter consecutive x, y, z samples, one per remaining timestamp. The buffers are
+     * read and written from their positions, which are advanced past the samples.
+     *
+     * @param output receives the results, may be input.
+     */
+    public void filter(FloatBuffer input, LongBuffer timestamps, FloatBuffer output) {
+        int count = timestamps.remaining();
+        if (input.remaining() < 3 * count || output.remaining() < 3 * count) {
+            throw new IllegalArgumentException("The buffers must hold 3 floats per timestamp");
+        }
+
+        int in = input.position();
+        int time = timestamps.position();
+        int out = output.position();
+        if (input.hasArray() && timestamps.hasArray() && output.hasArray() && !output.isReadOnly()) {
+            filter(input.array(), input.arrayOffset() + in, 3, timestamps.array(), timestamps.arrayOffset() + time,
+                    output.array(), output.arrayOffset() + out, 3, count);
+        } else {
+            // Absolute access, so input and output can be the same buffer.
+            float[] sample = new float[3];
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < 3; j++) {
+                    sample[j] = input.get(in + 3 * i + j);
+                }
+                float[] result = filter(sample, timestamps.get(time + i));
+                for (int j = 0; j < 3; j++) {
+                    output.put(out + 3 * i + j, result[j]);
+                }
+            }
+        }
+
+        input.position(in + 3 * count);
+        timestamps.position(time + count);
+        output.position(out + 3 * count);
+    }
+
+    /**
+     * Forget all samples.
+     */
+    public abstract void reset();
 }
@@ -0,0 +1,231 @@
+package com.tracqi.fsensor.filter;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The median of a sliding window of values, updated in O(log w) per sample.
+ * <p>
+ * Values live in a FIFO ring of slots. The lower half of the window is kept in
+ * a max-heap and the upper half in a min-heap of slot indices, and every slot
+ * remembers its position in its heap, so the oldest value can be evicted
+ * without searching. Storage is primitive and only grows with the window.
+ * <p>
+ * The median is the one of StatUtils.percentile(values, 50): the middle value,
+ * or the midpoint of the two middle values for an even count.
+ */
+public class SlidingMedian {
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private float[] values;
+    // Per slot: true if in the lower heap, and its index in that heap.
+    private boolean[] inLower;
+    private int[] heapIndex;
+
+    private int[] lower;
+    private int[] upper;
+    private int lowerSize;
+    private int upperSize;
+
+    private int head;
+    private int size;
+
+    public SlidingMedian() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public SlidingMedian(int capacity) {
+        allocate(Math.max(1, capacity));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Add the newest value to the window.
+     */
+    public void add(float value) {
+        if (size == values.length) {
+            grow();
+        }
+
+        int slot = (head + size) % values.length;
+        values[slot] = value;
+        size++;
+
+        if (lowerSize == 0 || value <= values[lower[0]]) {
+            inLower[slot] = true;
+            lower[lowerSize] = slot;
+            heapIndex[slot] = lowerSize++;
+            siftUp(lower, heapIndex[slot], true);
+        } else {
+            inLower[slot] = false;
+            upper[upperSize] = slot;
+            heapIndex[slot] = upperSize++;
+            siftUp(upper, heapIndex[slot], false);
+        }
+        rebalance();
+    }
+
+    /**
+     * Evict the oldest value from the window.
+     */
+    public void removeOldest() {
+        if (size == 0) {
+            throw new IllegalStateException("The window is empty");
+        }
+
+        int slot = head;
+        head = (head + 1) % values.length;
+        size--;
+
+        if (inLower[slot]) {
+            removeAt(lower, --lowerSize, heapIndex[slot], true);
+        } else {
+            removeAt(upper, --upperSize, heapIndex[slot], false);
+        }
+        rebalance();
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+        lowerSize = 0;
+        upperSize = 0;
+    }
+
+    /**
+     * @return the median of the window, NaN if it is empty.
+     */
+    public double median() {
+        if (size == 0) {
+            return Double.NaN;
+        }
+        double low = values[lower[0]];
+        if (lowerSize > upperSize) {
+            return low;
+        }
+        double high = values[upper[0]];
+        return low + 0.5 * (high - low);
+    }
+
+    private void rebalance() {
+        if (lowerSize > upperSize + 1) {
+            int slot = lower[0];
+            removeAt(lower, --lowerSize, 0, true);
+            inLower[slot] = false;
+            upper[upperSize] = slot;
+            heapIndex[slot] = upperSize++;
+            siftUp(upper, heapIndex[slot], false);
+        } else if (upperSize > lowerSize) {
+            int slot = upper[0];
+            removeAt(upper, --upperSize, 0, false);
+            inLower[slot] = true;
+            lower[lowerSize] = slot;
+            heapIndex[slot] = lowerSize++;
+            siftUp(lower, heapIndex[slot], true);
+        }
+    }
+
+    /**
+     * Remove the entry at index i by moving the last entry (at index last,
+     * already excluded from the heap size) into its place.
+     */
+    private void removeAt(int[] heap, int last, int i, boolean max) {
+        if (i == last) {
+            return;
+        }
+        heap[i] = heap[last];
+        heapIndex[heap[i]] = i;
+        siftDown(heap, last, i, max);
+        siftUp(heap, i, max);
+    }
+
+    private boolean before(int a, int b, boolean max) {
+        return max ? values[a] > values[b] : values[a] < values[b];
+    }
+
+    private void siftUp(int[] heap, int i, boolean max) {
+        int slot = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(slot, heap[parent], max)) {
+                break;
+            }
+            heap[i] = heap[parent];
+            heapIndex[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = slot;
+        heapIndex[slot] = i;
+    }
+
+    private void siftDown(int[] heap, int size, int i, boolean max) {
+        int slot = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(heap[child + 1], heap[child], max)) {
+                child++;
+            }
+            if (!before(heap[child], slot, max)) {
+                break;
+            }
+            heap[i] = heap[child];
+            heapIndex[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = slot;
+        heapIndex[slot] = i;
+    }
+
+    private void allocate(int capacity) {
+        values = new float[capacity];
+        inLower = new boolean[capacity];
+        heapIndex = new int[capacity];
+        lower = new int[capacity];
+        upper = new int[capacity];
+    }
+
+    private void grow() {
+        int capacity = values.length;
+        float[] oldValues = values;
+        boolean[] oldInLower = inLower;
+        int[] oldHeapIndex = heapIndex;
+        int[] oldLower = lower;
+        int[] oldUpper = upper;
+        allocate(capacity * 2);
+
+        // Renumber the slots so the window starts at slot 0, heaps keep their shape.
+        for (int i = 0; i < size; i++) {
+            int slot = (head + i) % capacity;
+            values[i] = oldValues[slot];
+            inLower[i] = oldInLower[slot];
+            heapIndex[i] = oldHeapIndex[slot];
+        }
+        for (int i = 0; i < lowerSize; i++) {
+            lower[i] = (oldLower[i] - head + capacity) % capacity;
+        }
+        for (int i = 0; i < upperSize; i++) {
+            upper[i] = (oldUpper[i] - head + capacity) % capacity;
+        }
+        head = 0;
+    }
+}
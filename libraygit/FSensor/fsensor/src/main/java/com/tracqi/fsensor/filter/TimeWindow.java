@@ -0,0 +1,72 @@
+package com.tracqi.fsensor.filter;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The timestamps of the samples in a sliding time window, oldest first.
+ */
+class TimeWindow {
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private int head;
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    long oldest() {
+        return timestamps[head];
+    }
+
+    long newest() {
+        return timestamps[(head + size - 1) % timestamps.length];
+    }
+
+    void add(long timestamp) {
+        if (size == timestamps.length) {
+            long[] grown = new long[timestamps.length * 2];
+            int first = timestamps.length - head;
+            System.arraycopy(timestamps, head, grown, 0, first);
+            System.arraycopy(timestamps, 0, grown, first, head);
+            timestamps = grown;
+            head = 0;
+        }
+        timestamps[(head + size) % timestamps.length] = timestamp;
+        size++;
+    }
+
+    void removeOldest() {
+        head = (head + 1) % timestamps.length;
+        size--;
+    }
+
+    /**
+     * @return true if the oldest sample is older than duration nanoseconds
+     * before timestamp. The newest sample never expires.
+     */
+    boolean isOldestExpired(long timestamp, long duration) {
+        return size > 1 && timestamp - timestamps[head] >= duration;
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+}
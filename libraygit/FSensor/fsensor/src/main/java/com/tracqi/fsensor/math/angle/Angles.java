@@ -2,6 +2,8 @@ package com.tracqi.fsensor.math.angle;
 
 import android.util.Log;
 
+import com.tracqi.fsensor.math.rotation.MutableQuaternion;
+
 /*
  * Copyright 2024, Tracqi Technology, LLC
  *
@@ -55,6 +57,16 @@ public class Angles {
      * @return
      */
     public static float[] getAngles(double w, double z, double x, double y) {
+        float[] angles = new float[3];
+        getAngles(w, z, x, y, angles);
+        return angles;
+    }
+
+    /**
+     * Same as {@link #getAngles(double, double, double, double)}, but writes
+     * the angles into the given array of length 3 instead of allocating one.
+     */
+    public static float[] getAngles(double w, double z, double x, double y, float[] angles) {
         double heading;
         double pitch;
         double roll;
@@ -65,22 +77,44 @@ public class Angles {
             pitch = -Math.PI/2;
             roll = 0;
             Log.e(TAG, "singularity at north pole");
-            return new float[]{(float)heading, (float)pitch, (float)roll};
-        }
-        if (test < -0.499) { // singularity at south pole
+        } else if (test < -0.499) { // singularity at south pole
             heading = -2 * Math.atan2(x,w);
             pitch = Math.PI/2;
             roll = 0;
             Log.e(TAG, "singularity at south pole");
-            return new float[]{(float)heading, (float)pitch, (float)roll};
+        } else {
+            double sqx = x*x;
+            double sqy = y*y;
+            double sqz = z*z;
+            heading = -Math.atan2(2*y*w-2*x*z , 1 - 2*sqy - 2*sqz);
+            pitch = -Math.asin(2*test);
+            roll = -Math.atan2(2*x*w-2*y*z , 1 - 2*sqx - 2*sqz);
         }
-        double sqx = x*x;
-        double sqy = y*y;
-        double sqz = z*z;
-        heading = -Math.atan2(2*y*w-2*x*z , 1 - 2*sqy - 2*sqz);
-        pitch = -Math.asin(2*test);
-        roll = -Math.atan2(2*x*w-2*y*z , 1 - 2*sqx - 2*sqz);
 
-        return new float[]{(float) heading, (float) pitch, (float) roll};
+        angles[0] = (float) heading;
+        angles[1] = (float) pitch;
+        angles[2] = (float) roll;
+        return angles;
+    }
+
+    /**
+     * The inverse of {@link #getAngles(double, double, double, double, float[])}, the unit quaternion of an azimuth,
+     * pitch and roll.
+     *
+     * @param angles the azimuth, pitch and roll in radians.
+     * @param out    the quaternion.
+     * @return out
+     */
+    public static MutableQuaternion getQuaternion(float[] angles, MutableQuaternion out) {
+        // The heading, attitude and bank of getAngles() are negated.
+        double c1 = Math.cos(-angles[0] / 2), s1 = Math.sin(-angles[0] / 2);
+        double c2 = Math.cos(-angles[1] / 2), s2 = Math.sin(-angles[1] / 2);
+        double c3 = Math.cos(-angles[2] / 2), s3 = Math.sin(-angles[2] / 2);
+
+        // The heading is about y, the attitude about z and the bank about x of getAngles(w, z, x, y).
+        return out.set(c1 * c2 * c3 - s1 * s2 * s3,
+                c1 * s2 * c3 - s1 * c2 * s3,
+                s1 * s2 * c3 + c1 * c2 * s3,
+                s1 * c2 * c3 + c1 * s2 * s3);
     }
 }
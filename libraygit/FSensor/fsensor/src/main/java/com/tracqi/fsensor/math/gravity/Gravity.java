@@ -28,8 +28,17 @@ public class Gravity {
      * @return The gravity components of the orientation.
      */
     public static float[] getGravityFromOrientation(float[] orientation) {
-        float[] components = new float[3];
+        return getGravityFromOrientation(orientation, new float[3]);
+    }
 
+    /**
+     * Same as {@link #getGravityFromOrientation(float[])}, but writes the
+     * components into the given array of length 3 instead of allocating one.
+     * @param orientation The orientation.
+     * @param components Receives the gravity components, may be orientation.
+     * @return components
+     */
+    public static float[] getGravityFromOrientation(float[] orientation, float[] components) {
         float pitch = orientation[1];
         float roll = orientation[2];
 
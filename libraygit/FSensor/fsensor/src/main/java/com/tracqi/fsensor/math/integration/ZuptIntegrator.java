@@ -0,0 +1,205 @@
+package com.tracqi.fsensor.math.integration;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Integrates linear acceleration in the east, north, up frame to velocity and
+ * displacement, aided by zero velocity updates (ZUPT).
+ * <p>
+ * Integrated acceleration drifts within seconds: a bias of 0.05 m/s^2 is a
+ * meter after 6 s. But a device at rest is known to have no velocity. While it
+ * is at rest, the velocity is reset to zero and the mean of the acceleration,
+ * which is then only its bias, is learned and removed from the acceleration
+ * while it moves. The displacement accumulates across rests, so the drift is
+ * bounded by the duration of a motion instead of the whole recording. This
+ * suits motions with regular rests, like the stance phases of a foot or a
+ * device that is picked up and put down.
+ * <p>
+ * The device is at rest when the linear acceleration and the rate of rotation
+ * stayed below their thresholds for the rest time, or when the caller says so
+ * with its own detector. The integration is trapezoidal, an update costs a few
+ * dozen floating point operations and does not allocate.
+ */
+public class ZuptIntegrator {
+
+    /**
+     * The default largest linear acceleration of a device at rest in m/s^2.
+     */
+    public static final float DEFAULT_ACCELERATION_THRESHOLD = 0.3f;
+
+    /**
+     * The default largest rate of rotation of a device at rest in rad/s.
+     */
+    public static final float DEFAULT_ROTATION_THRESHOLD = 0.1f;
+
+    /**
+     * The default time in seconds the thresholds must hold before the device is at rest.
+     */
+    public static final float DEFAULT_REST_TIME = 0.1f;
+
+    // The time constant of the bias in seconds.
+    private static final float BIAS_TIME_CONSTANT = 2;
+
+    private static final float NS2S = 1.0f / 1000000000.0f;
+
+    private final float accelerationThreshold;
+    private final float rotationThreshold;
+    private final float restTime;
+
+    private final float[] bias = new float[3];
+    private final float[] acceleration = new float[3];
+    private final double[] velocity = new double[3];
+    private final double[] displacement = new double[3];
+
+    private long timestamp;
+    private float belowThresholdTime;
+    private long restSamples;
+    private boolean rest;
+
+    public ZuptIntegrator() {
+        this(DEFAULT_ACCELERATION_THRESHOLD, DEFAULT_ROTATION_THRESHOLD, DEFAULT_REST_TIME);
+    }
+
+    /**
+     * @param accelerationThreshold the largest linear acceleration of a device at rest in m/s^2.
+     * @param rotationThreshold     the largest rate of rotation of a device at rest in rad/s.
+     * @param restTime              the time in seconds both must hold before the device is at rest.
+     */
+    public ZuptIntegrator(float accelerationThreshold, float rotationThreshold, float restTime) {
+        this.accelerationThreshold = accelerationThreshold;
+        this.rotationThreshold = rotationThreshold;
+        this.restTime = restTime;
+    }
+
+    /**
+     * Forget the velocity, the displacement and the bias.
+     */
+    public void reset() {
+        for (int i = 0; i < 3; i++) {
+            bias[i] = 0;
+            acceleration[i] = 0;
+            velocity[i] = 0;
+            displacement[i] = 0;
+        }
+        timestamp = 0;
+        belowThresholdTime = 0;
+        restSamples = 0;
+        rest = false;
+    }
+
+    /**
+     * Start the displacement over from the current position.
+     */
+    public void resetDisplacement() {
+        displacement[0] = displacement[1] = displacement[2] = 0;
+    }
+
+    /**
+     * Integrate a sample, detecting rests from the sample itself.
+     *
+     * @param timestamp    the time of the sample in nanoseconds.
+     * @param acceleration the linear acceleration in the east, north, up frame in m/s^2.
+     * @param gyroscope    the rate of rotation in rad/s, in any frame.
+     */
+    public void update(long timestamp, float[] acceleration, float[] gyroscope) {
+        final float dt = getDt(timestamp);
+
+        final float a = norm(acceleration[0] - bias[0], acceleration[1] - bias[1], acceleration[2] - bias[2]);
+        final float w = norm(gyroscope[0], gyroscope[1], gyroscope[2]);
+        if (a < accelerationThreshold && w < rotationThreshold) {
+            belowThresholdTime += dt;
+        } else {
+            belowThresholdTime = 0;
+        }
+
+        integrate(acceleration, dt, belowThresholdTime >= restTime);
+    }
+
+    /**
+     * Integrate a sample with rests from another detector, for example the stance phases of a step detector.
+     *
+     * @param timestamp    the time of the sample in nanoseconds.
+     * @param acceleration the linear acceleration in the east, north, up frame in m/s^2.
+     * @param rest         true if the device is known to be at rest.
+     */
+    public void update(long timestamp, float[] acceleration, boolean rest) {
+        integrate(acceleration, getDt(timestamp), rest);
+    }
+
+    /**
+     * @return true if the device was at rest at the last sample.
+     */
+    public boolean isAtRest() {
+        return rest;
+    }
+
+    /**
+     * Copies the velocity in the east, north, up frame in m/s into out.
+     */
+    public void getVelocity(float[] out) {
+        out[0] = (float) velocity[0];
+        out[1] = (float) velocity[1];
+        out[2] = (float) velocity[2];
+    }
+
+    /**
+     * Copies the displacement since the first sample or the last reset in the east, north, up frame in m into out.
+     */
+    public void getDisplacement(float[] out) {
+        out[0] = (float) displacement[0];
+        out[1] = (float) displacement[1];
+        out[2] = (float) displacement[2];
+    }
+
+    /**
+     * Copies the learned bias of the linear acceleration in m/s^2 into out.
+     */
+    public void getBias(float[] out) {
+        System.arraycopy(bias, 0, out, 0, 3);
+    }
+
+    private float getDt(long timestamp) {
+        final float dt = this.timestamp != 0 && timestamp > this.timestamp ? (timestamp - this.timestamp) * NS2S : 0;
+        this.timestamp = timestamp;
+        return dt;
+    }
+
+    private void integrate(float[] acceleration, float dt, boolean rest) {
+        this.rest = rest;
+
+        if (rest) {
+            restSamples++;
+            // The mean of the rest samples, until it is older than the time constant.
+            final float k = Math.max(1.0f / restSamples, dt / (BIAS_TIME_CONSTANT + dt));
+            for (int i = 0; i < 3; i++) {
+                bias[i] += k * (acceleration[i] - bias[i]);
+            }
+        }
+
+        for (int i = 0; i < 3; i++) {
+            final float a = acceleration[i] - bias[i];
+            final double v = rest ? 0 : velocity[i] + 0.5 * (this.acceleration[i] + a) * dt;
+            displacement[i] += 0.5 * (velocity[i] + v) * dt;
+            velocity[i] = v;
+            this.acceleration[i] = a;
+        }
+    }
+
+    private static float norm(float x, float y, float z) {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+}
@@ -3,6 +3,9 @@ package com.tracqi.fsensor.math.magnetic.declination;
 import android.hardware.GeomagneticField;
 import android.location.Location;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /*
  * Copyright 2024, Tracqi Technology, LLC
  *
@@ -21,10 +24,75 @@ import android.location.Location;
 
 /**
  * Compensate for magnetic declination based on a location.
+ * <p>
+ * Evaluating the geomagnetic model is expensive, and the declination changes
+ * by a fraction of a degree over tens of kilometers or over months. So it is
+ * only evaluated once per cell of {@link #CELL_DEGREES} of latitude and
+ * longitude and {@link #PERIOD_DAYS} days, at the center of the cell, and
+ * memoized for all instances. A new location closer than the refresh distance
+ * to the one of the last evaluation is ignored altogether, so
+ * {@link #setGeomagneticField(Location)} can be called with every fix.
+ * <p>
+ * Compensating an azimuth is then an addition.
  */
 public class Declination {
 
-    private GeomagneticField geoMagField;
+    /**
+     * The size of a cell of the memoized declinations in degrees.
+     */
+    public static final float CELL_DEGREES = 0.5f;
+
+    /**
+     * The period of the memoized declinations in days.
+     */
+    public static final int PERIOD_DAYS = 30;
+
+    /**
+     * The default distance to move before the declination is looked up again, in meters.
+     */
+    public static final float DEFAULT_REFRESH_DISTANCE = 1000;
+
+    private static final long PERIOD_MS = PERIOD_DAYS * 24 * 60 * 60 * 1000L;
+    private static final int CACHE_SIZE = 64;
+    private static final double EARTH_RADIUS = 6371000;
+
+    /**
+     * Evaluates the declination in degrees, replaced in tests.
+     */
+    interface Model {
+        float getDeclination(float latitude, float longitude, long timeMillis);
+    }
+
+    static Model model = new Model() {
+        @Override
+        public float getDeclination(float latitude, float longitude, long timeMillis) {
+            // Altitude changes the declination much less than a cell does.
+            return new GeomagneticField(latitude, longitude, 0, timeMillis).getDeclination();
+        }
+    };
+
+    // Declinations in degrees by cell, least recently used first.
+    private static final Map<Long, Float> cache = new LinkedHashMap<Long, Float>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Float> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private volatile float declination;
+
+    private float refreshDistance = DEFAULT_REFRESH_DISTANCE;
+
+    private boolean hasLocation;
+    private double latitude;
+    private double longitude;
+    private long period;
+
+    /**
+     * Create a Declination of 0 until a location is set.
+     */
+    public Declination() {
+    }
 
     /**
      * Default constructor.
@@ -40,16 +108,123 @@ public class Declination {
      * @return the azimuth compensated for magnetic declination.
      */
     public float compenstateDeclination(float azimuth) {
-        return (azimuth + geoMagField.getDeclination()) % 360;
+        return normalize(azimuth + declination);
     }
 
     /**
-     * Set the GeomagneticField based on a Location. Note that this should only be called when there has been a significant change in location.
-     * @param location The location to use for the compensation.
+     * Compensate azimuths in place with the magnetic declination.
+     * @param azimuths The azimuths in units of degrees with the range: 0 < range <= 360
+     * @param offset the index of the first azimuth.
+     * @param count the number of azimuths.
+     */
+    public void compensateDeclination(float[] azimuths, int offset, int count) {
+        final float declination = this.declination;
+        for (int i = offset; i < offset + count; i++) {
+            azimuths[i] = normalize(azimuths[i] + declination);
+        }
+    }
+
+    /**
+     * @return the magnetic declination in degrees, positive east of true north.
+     */
+    public float getDeclination() {
+        return declination;
+    }
+
+    /**
+     * @param refreshDistance the distance in meters to move before the declination is looked up again.
+     */
+    public void setRefreshDistance(float refreshDistance) {
+        this.refreshDistance = refreshDistance;
+    }
+
+    /**
+     * Set the GeomagneticField based on a Location. The declination is only looked up again when the location moved
+     * further than the refresh distance or a new period began, so this can be called with every location update.
+     * Without a fix the last declination, 0 before any, is kept.
+     * @param location The location to use for the compensation, may be null.
      */
     public void setGeomagneticField(Location location) {
-        geoMagField = new GeomagneticField((float) location.getLatitude(),
-                (float) location.getLongitude(),
-                (float) location.getAltitude(), System.currentTimeMillis());
+        if (location == null) {
+            return;
+        }
+        setGeomagneticField(location.getLatitude(), location.getLongitude(), System.currentTimeMillis());
+    }
+
+    /**
+     * Set the GeomagneticField based on a position and time.
+     * @param latitude the latitude in degrees.
+     * @param longitude the longitude in degrees.
+     * @param timeMillis the time in milliseconds since the epoch.
+     */
+    public synchronized void setGeomagneticField(double latitude, double longitude, long timeMillis) {
+        long period = timeMillis / PERIOD_MS;
+        if (hasLocation && period == this.period && distance(this.latitude, this.longitude, latitude, longitude) < refreshDistance) {
+            return;
+        }
+
+        hasLocation = true;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.period = period;
+
+        declination = getDeclination(latitude, longitude, period);
+    }
+
+    /**
+     * The memoized declination of the cell containing the position.
+     */
+    private static float getDeclination(double latitude, double longitude, long period) {
+        int row = (int) Math.floor(Math.max(-90, Math.min(90, latitude)) / CELL_DEGREES);
+        int column = (int) Math.floor(normalizeLongitude(longitude) / CELL_DEGREES);
+
+        // 10 bits of row, 10 bits of column and the rest for the period.
+        long key = (period << 20) | ((long) (column & 0x3ff) << 10) | (row & 0x3ff);
+
+        synchronized (cache) {
+            Float declination = cache.get(key);
+            if (declination == null) {
+                float cellLatitude = Math.min(90, (row + 0.5f) * CELL_DEGREES);
+                float cellLongitude = (column + 0.5f) * CELL_DEGREES;
+                long cellTime = period * PERIOD_MS + PERIOD_MS / 2;
+
+                declination = model.getDeclination(cellLatitude, cellLongitude, cellTime);
+                cache.put(key, declination);
+            }
+            return declination;
+        }
+    }
+
+    static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * The distance in meters between two positions, by the equirectangular approximation. It is exact enough for
+     * the distances of a refresh.
+     */
+    private static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double dLongitude = Math.toRadians(normalizeLongitude(longitude2 - longitude1 + 180) - 180);
+        double x = dLongitude * Math.cos(Math.toRadians((latitude1 + latitude2) / 2));
+        double y = Math.toRadians(latitude2 - latitude1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS;
+    }
+
+    /**
+     * @return the longitude in the range 0 <= range < 360.
+     */
+    private static double normalizeLongitude(double longitude) {
+        double normalized = longitude % 360;
+        return normalized < 0 ? normalized + 360 : normalized;
+    }
+
+    /**
+     * @return the azimuth in the range 0 <= range < 360.
+     */
+    private static float normalize(float azimuth) {
+        float normalized = azimuth % 360;
+        return normalized < 0 ? normalized + 360 : normalized;
     }
 }
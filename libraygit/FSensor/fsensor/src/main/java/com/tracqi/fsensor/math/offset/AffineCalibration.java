@@ -0,0 +1,95 @@
+package com.tracqi.fsensor.math.offset;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A {@link Calibration} flattened into primitives, to correct samples on the
+ * sensor path.
+ * <p>
+ * A sample v is corrected to scalar * (v - offset), the same as
+ * {@link CalibrationUtil#calibrate(float[], Calibration)}, with nine
+ * multiplications and no allocation. Instances are immutable, so they can be
+ * handed to the sensor thread at any time.
+ */
+public final class AffineCalibration {
+
+    private final float m00, m01, m02;
+    private final float m10, m11, m12;
+    private final float m20, m21, m22;
+    private final float o0, o1, o2;
+
+    public AffineCalibration(Calibration calibration) {
+        this(toArray(calibration), new float[]{
+                (float) calibration.offset.getEntry(0),
+                (float) calibration.offset.getEntry(1),
+                (float) calibration.offset.getEntry(2)});
+    }
+
+    /**
+     * @param scalar the row-major 3x3 matrix.
+     * @param offset the offset, subtracted before the matrix is applied.
+     */
+    public AffineCalibration(float[] scalar, float[] offset) {
+        m00 = scalar[0];
+        m01 = scalar[1];
+        m02 = scalar[2];
+        m10 = scalar[3];
+        m11 = scalar[4];
+        m12 = scalar[5];
+        m20 = scalar[6];
+        m21 = scalar[7];
+        m22 = scalar[8];
+        o0 = offset[0];
+        o1 = offset[1];
+        o2 = offset[2];
+    }
+
+    /**
+     * Correct a sample in place.
+     *
+     * @return values
+     */
+    public float[] apply(float[] values) {
+        apply(values, 0, 1);
+        return values;
+    }
+
+    /**
+     * Correct count samples in place, stored as consecutive x, y, z from offset.
+     */
+    public void apply(float[] values, int offset, int count) {
+        int end = offset + 3 * count;
+        for (int i = offset; i < end; i += 3) {
+            float x = values[i] - o0;
+            float y = values[i + 1] - o1;
+            float z = values[i + 2] - o2;
+            values[i] = m00 * x + m01 * y + m02 * z;
+            values[i + 1] = m10 * x + m11 * y + m12 * z;
+            values[i + 2] = m20 * x + m21 * y + m22 * z;
+        }
+    }
+
+    private static float[] toArray(Calibration calibration) {
+        float[] scalar = new float[9];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                scalar[i * 3 + j] = (float) calibration.scalar.getEntry(i, j);
+            }
+        }
+        return scalar;
+    }
+}
@@ -3,9 +3,7 @@ package com.tracqi.fsensor.math.offset;
 import android.util.Log;
 
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
-import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.RealVector;
 
 /*
  * Copyright 2024, Tracqi Technology, LLC
@@ -89,19 +87,18 @@ public class CalibrationUtil {
      * @param vector      the vector to be compensated.
      * @param calibration the calibration to be applied
      * @return the compensated vector
+     * @see AffineCalibration for repeated corrections
      */
     public static float[] calibrate(float[] vector, Calibration calibration) {
-        RealVector point = new ArrayRealVector(3);
-
-        point.setEntry(0, vector[0]);
-        point.setEntry(1, vector[1]);
-        point.setEntry(2, vector[2]);
-
-        point = calibration.scalar.operate((point.subtract(calibration.offset)));
-
-        vector[0] = (float) point.getEntry(0);
-        vector[1] = (float) point.getEntry(1);
-        vector[2] = (float) point.getEntry(2);
+        // scalar * (vector - offset), without the intermediate vectors.
+        double x = vector[0] - calibration.offset.getEntry(0);
+        double y = vector[1] - calibration.offset.getEntry(1);
+        double z = vector[2] - calibration.offset.getEntry(2);
+
+        RealMatrix scalar = calibration.scalar;
+        vector[0] = (float) (scalar.getEntry(0, 0) * x + scalar.getEntry(0, 1) * y + scalar.getEntry(0, 2) * z);
+        vector[1] = (float) (scalar.getEntry(1, 0) * x + scalar.getEntry(1, 1) * y + scalar.getEntry(1, 2) * z);
+        vector[2] = (float) (scalar.getEntry(2, 0) * x + scalar.getEntry(2, 1) * y + scalar.getEntry(2, 2) * z);
 
         return vector;
     }
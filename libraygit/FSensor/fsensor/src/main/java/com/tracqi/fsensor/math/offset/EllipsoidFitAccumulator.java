@@ -0,0 +1,158 @@
+package com.tracqi.fsensor.math.offset;
+
+import java.util.Arrays;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The normal equations of the ellipsoid fit of {@link FitPoints}, accumulated
+ * one point at a time.
+ * <p>
+ * Every point adds its row d = [x^2, y^2, z^2, 2xy, 2xz, 2yz, 2x, 2y, 2z] of
+ * the design matrix D to the sums D'D and D'1. Memory is constant and the
+ * polynomial can be solved at any time, without keeping the points.
+ */
+public class EllipsoidFitAccumulator {
+
+    public static final int N = 9;
+
+    // Row-major, only the upper triangle is accumulated.
+    private final double[] dtd = new double[N * N];
+    private final double[] dtOnes = new double[N];
+    private long count;
+
+    private final double[] row = new double[N];
+
+    public long getCount() {
+        return count;
+    }
+
+    public void add(double x, double y, double z) {
+        row[0] = x * x;
+        row[1] = y * y;
+        row[2] = z * z;
+        row[3] = 2 * x * y;
+        row[4] = 2 * x * z;
+        row[5] = 2 * y * z;
+        row[6] = 2 * x;
+        row[7] = 2 * y;
+        row[8] = 2 * z;
+
+        for (int i = 0; i < N; i++) {
+            double di = row[i];
+            for (int j = i; j < N; j++) {
+                dtd[i * N + j] += di * row[j];
+            }
+            dtOnes[i] += di;
+        }
+        count++;
+    }
+
+    public void clear() {
+        Arrays.fill(dtd, 0);
+        Arrays.fill(dtOnes, 0);
+        count = 0;
+    }
+
+    /**
+     * Copies the sums, so they can be solved elsewhere.
+     *
+     * @param dtd    receives the full, symmetric D'D, length 81.
+     * @param dtOnes receives D'1, length 9.
+     * @return the number of points.
+     */
+    public long get(double[] dtd, double[] dtOnes) {
+        for (int i = 0; i < N; i++) {
+            for (int j = i; j < N; j++) {
+                dtd[i * N + j] = this.dtd[i * N + j];
+                dtd[j * N + i] = this.dtd[i * N + j];
+            }
+        }
+        System.arraycopy(this.dtOnes, 0, dtOnes, 0, N);
+        return count;
+    }
+
+    /**
+     * Solves D'D v = D'1 by Cholesky decomposition.
+     *
+     * @param dtd    the full D'D, overwritten by its decomposition.
+     * @param dtOnes D'1.
+     * @param v      receives the polynomial, length 9.
+     * @return false if D'D is not positive definite, the points do not span an ellipsoid.
+     */
+    public static boolean solve(double[] dtd, double[] dtOnes, double[] v) {
+        // dtd = L * L', L in the lower triangle.
+        for (int j = 0; j < N; j++) {
+            double diagonal = dtd[j * N + j];
+            for (int k = 0; k < j; k++) {
+                diagonal -= dtd[j * N + k] * dtd[j * N + k];
+            }
+            if (!(diagonal > 1e-12 * Math.abs(dtd[j * N + j]))) {
+                return false;
+            }
+            diagonal = Math.sqrt(diagonal);
+            dtd[j * N + j] = diagonal;
+
+            for (int i = j + 1; i < N; i++) {
+                double sum = dtd[i * N + j];
+                for (int k = 0; k < j; k++) {
+                    sum -= dtd[i * N + k] * dtd[j * N + k];
+                }
+                dtd[i * N + j] = sum / diagonal;
+            }
+        }
+
+        // L * y = dtOnes
+        for (int i = 0; i < N; i++) {
+            double sum = dtOnes[i];
+            for (int k = 0; k < i; k++) {
+                sum -= dtd[i * N + k] * v[k];
+            }
+            v[i] = sum / dtd[i * N + i];
+        }
+
+        // L' * v = y
+        for (int i = N - 1; i >= 0; i--) {
+            double sum = v[i];
+            for (int k = i + 1; k < N; k++) {
+                sum -= dtd[k * N + i] * v[k];
+            }
+            v[i] = sum / dtd[i * N + i];
+        }
+        return true;
+    }
+
+    /**
+     * The root mean square of the algebraic residuals d * v - 1 of the points,
+     * computed from the sums as sqrt((v'D'Dv - 2v'D'1 + n) / n).
+     *
+     * @param dtd    the full D'D, as returned by {@link #get(double[], double[])}.
+     */
+    public static double getResidual(double[] dtd, double[] dtOnes, long count, double[] v) {
+        double vDtDv = 0;
+        double vDtOnes = 0;
+        for (int i = 0; i < N; i++) {
+            double dtdv = 0;
+            for (int j = 0; j < N; j++) {
+                dtdv += dtd[i * N + j] * v[j];
+            }
+            vDtDv += v[i] * dtdv;
+            vDtOnes += v[i] * dtOnes[i];
+        }
+        return Math.sqrt(Math.max(0, (vDtDv - 2 * vDtOnes + count) / count));
+    }
+}
@@ -67,8 +67,16 @@ public class FitPoints {
         // Fit the points to Ax^2 + By^2 + Cz^2 + 2Dxy + 2Exz
         // + 2Fyz + 2Gx + 2Hy + 2Iz = 1 and solve the system.
         // v = (( d' * d )^-1) * ( d' * ones.mapAddToSelf(1));
-        RealVector v = solveSystem(points);
+        this(solveSystem(points));
+    }
 
+    /**
+     * Determine the offset and radii of the ellipsoid of a solved polynomial
+     * expression, for example from an {@link EllipsoidFitAccumulator}.
+     *
+     * @param v the polynomial [A, B, C, D, E, F, G, H, I].
+     */
+    public FitPoints(RealVector v) {
         // Form the algebraic form of the ellipsoid.
         RealMatrix a = formAlgebraicMatrix(v);
 
@@ -110,50 +118,27 @@ public class FitPoints {
      * @param points the points that will be fit to the polynomial expression.
      * @return the solution vector to the polynomial expression.
      */
-    private RealVector solveSystem(ArrayList<ThreeSpacePoint> points) {
-        // determine the number of points
-        int numPoints = points.size();
-
-        // the design matrix
-        // size: numPoints x 9
-        RealMatrix d = new Array2DRowRealMatrix(numPoints, 9);
-
-        // Fit the ellipsoid in the form of
-        // Ax^2 + By^2 + Cz^2 + 2Dxy + 2Exz + 2Fyz + 2Gx + 2Hy + 2Iz
-        for (int i = 0; i < d.getRowDimension(); i++) {
-            double xx = Math.pow(points.get(i).x, 2);
-            double yy = Math.pow(points.get(i).y, 2);
-            double zz = Math.pow(points.get(i).z, 2);
-            double xy = 2 * (points.get(i).x * points.get(i).y);
-            double xz = 2 * (points.get(i).x * points.get(i).z);
-            double yz = 2 * (points.get(i).y * points.get(i).z);
-            double x = 2 * points.get(i).x;
-            double y = 2 * points.get(i).y;
-            double z = 2 * points.get(i).z;
-
-            d.setEntry(i, 0, xx);
-            d.setEntry(i, 1, yy);
-            d.setEntry(i, 2, zz);
-            d.setEntry(i, 3, xy);
-            d.setEntry(i, 4, xz);
-            d.setEntry(i, 5, yz);
-            d.setEntry(i, 6, x);
-            d.setEntry(i, 7, y);
-            d.setEntry(i, 8, z);
+    private static RealVector solveSystem(ArrayList<ThreeSpacePoint> points) {
+        // Accumulate d' * d and d' * ones instead of forming the
+        // numPoints x 9 design matrix d.
+        EllipsoidFitAccumulator accumulator = new EllipsoidFitAccumulator();
+        for (ThreeSpacePoint point : points) {
+            accumulator.add(point.x, point.y, point.z);
         }
 
+        double[] dtdData = new double[EllipsoidFitAccumulator.N * EllipsoidFitAccumulator.N];
+        double[] dtOnesData = new double[EllipsoidFitAccumulator.N];
+        accumulator.get(dtdData, dtOnesData);
+
         // solve the normal system of equations
         // v = (( d' * d )^-1) * ( d' * ones.mapAddToSelf(1));
-
-        // Multiply: d' * d
-        RealMatrix dtd = d.transpose().multiply(d);
-
-        // Create a vector of ones.
-        RealVector ones = new ArrayRealVector(numPoints);
-        ones.mapAddToSelf(1);
-
-        // Multiply: d' * ones.mapAddToSelf(1)
-        RealVector dtOnes = d.transpose().operate(ones);
+        RealMatrix dtd = new Array2DRowRealMatrix(EllipsoidFitAccumulator.N, EllipsoidFitAccumulator.N);
+        for (int i = 0; i < EllipsoidFitAccumulator.N; i++) {
+            for (int j = 0; j < EllipsoidFitAccumulator.N; j++) {
+                dtd.setEntry(i, j, dtdData[i * EllipsoidFitAccumulator.N + j]);
+            }
+        }
+        RealVector dtOnes = new ArrayRealVector(dtOnesData, false);
 
         // Find ( d' * d )^-1
         DecompositionSolver solver = new SingularValueDecomposition(dtd)
@@ -0,0 +1,257 @@
+package com.tracqi.fsensor.math.offset;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Estimates the bias of a gyroscope while the device is still.
+ * <p>
+ * The device is still when the variances of the samples of the last window
+ * of time of the accelerometer and of the gyroscope are within the noise of
+ * the sensors, and the mean rate of rotation is small enough to be a bias.
+ * A slow constant turn has no variance, so the bound on the mean is all that
+ * tells it from a bias, and is kept tight. The variances are kept with running
+ * sums over ring buffers, so a sample costs O(1) and does not allocate once
+ * the buffers fit the window.
+ * <p>
+ * While still, the gyroscope measures only its bias. The estimate is the mean
+ * of the still samples at first and then follows them with a time constant,
+ * so it tracks the bias as it changes with temperature.
+ */
+public class GyroscopeBiasEstimator {
+
+    /**
+     * The default length of the windows in seconds.
+     */
+    public static final float DEFAULT_WINDOW_TIME = 1;
+
+    // The largest standard deviations of a still device, per axis.
+    private static final float ACCELERATION_DEVIATION = 0.1f;
+    private static final float GYROSCOPE_DEVIATION = 0.02f;
+
+    // The largest rate of rotation in rad/s that is taken for a bias, about 1 deg/s.
+    private static final float MAX_BIAS = 0.02f;
+
+    // The time constant of the estimate in seconds.
+    private static final float TIME_CONSTANT = 5;
+
+    private static final float NS2S = 1.0f / 1000000000.0f;
+
+    private final VarianceWindow acceleration;
+    private final VarianceWindow gyroscope;
+
+    private final float[] bias = new float[3];
+    private long stillSamples;
+    private long timestamp;
+    private boolean still;
+
+    public GyroscopeBiasEstimator() {
+        this(DEFAULT_WINDOW_TIME);
+    }
+
+    /**
+     * @param windowTime the time in seconds the variances of each sensor are calculated over.
+     */
+    public GyroscopeBiasEstimator(float windowTime) {
+        if (!(windowTime > 0)) {
+            throw new IllegalArgumentException("The window must be longer than 0 seconds");
+        }
+        long window = (long) (windowTime * 1000000000.0);
+        acceleration = new VarianceWindow(window);
+        gyroscope = new VarianceWindow(window);
+    }
+
+    /**
+     * Forget the samples and the estimate.
+     */
+    public void reset() {
+        acceleration.clear();
+        gyroscope.clear();
+        bias[0] = bias[1] = bias[2] = 0;
+        stillSamples = 0;
+        timestamp = 0;
+        still = false;
+    }
+
+    /**
+     * Add an accelerometer sample.
+     *
+     * @param timestamp the time of the sample in nanoseconds.
+     * @param values    the acceleration in m/s^2.
+     */
+    public void addAcceleration(long timestamp, float[] values) {
+        acceleration.add(timestamp, values);
+    }
+
+    /**
+     * Add a gyroscope sample, and update the estimate if the device is still.
+     *
+     * @param timestamp the time of the sample in nanoseconds.
+     * @param values    the rate of rotation in rad/s.
+     */
+    public void addGyroscope(long timestamp, float[] values) {
+        gyroscope.add(timestamp, values);
+
+        final float dt = this.timestamp != 0 && timestamp > this.timestamp ? (timestamp - this.timestamp) * NS2S : 0;
+        this.timestamp = timestamp;
+
+        still = acceleration.isComplete() && gyroscope.isComplete()
+                && acceleration.variance() < 3 * ACCELERATION_DEVIATION * ACCELERATION_DEVIATION
+                && gyroscope.variance() < 3 * GYROSCOPE_DEVIATION * GYROSCOPE_DEVIATION
+                && gyroscope.meanNorm() < MAX_BIAS;
+
+        if (still) {
+            stillSamples++;
+            // The mean of the still samples, until it is older than the time constant.
+            final float k = Math.max(1.0f / stillSamples, dt / (TIME_CONSTANT + dt));
+            for (int i = 0; i < 3; i++) {
+                bias[i] += k * (values[i] - bias[i]);
+            }
+        }
+    }
+
+    /**
+     * @return true if the device was still at the last gyroscope sample.
+     */
+    public boolean isStill() {
+        return still;
+    }
+
+    /**
+     * @return true if the device has been still long enough for an estimate.
+     */
+    public boolean hasEstimate() {
+        return stillSamples > 0;
+    }
+
+    /**
+     * Copies the estimated bias in rad/s into out.
+     */
+    public void getBias(float[] out) {
+        System.arraycopy(bias, 0, out, 0, 3);
+    }
+
+    /**
+     * Subtracts the estimated bias from a rate of rotation.
+     *
+     * @param values the rate of rotation in rad/s.
+     * @param out    the corrected rate of rotation, may be values.
+     */
+    public void correct(float[] values, float[] out) {
+        out[0] = values[0] - bias[0];
+        out[1] = values[1] - bias[1];
+        out[2] = values[2] - bias[2];
+    }
+
+    /**
+     * The samples of the last window of time of a three axis sensor, with running
+     * sums of the values and their squares.
+     */
+    private static class VarianceWindow {
+        private static final int INITIAL_CAPACITY = 64;
+
+        private final long window;
+        private float[] values = new float[INITIAL_CAPACITY * 3];
+        private long[] timestamps = new long[INITIAL_CAPACITY];
+        private final double[] sum = new double[3];
+        private final double[] sumOfSquares = new double[3];
+        private int capacity = INITIAL_CAPACITY;
+        private int head;
+        private int size;
+        private long newest;
+
+        VarianceWindow(long window) {
+            this.window = window;
+        }
+
+        void add(long timestamp, float[] sample) {
+            if (size == capacity) {
+                grow();
+            }
+            int index = (head + size++) % capacity;
+            timestamps[index] = timestamp;
+            newest = timestamp;
+            int offset = index * 3;
+            for (int i = 0; i < 3; i++) {
+                float value = sample[i];
+                values[offset + i] = value;
+                sum[i] += value;
+                sumOfSquares[i] += (double) value * value;
+            }
+
+            // Drop the oldest sample while the next one still spans the window.
+            while (size > 1 && timestamp - timestamps[(head + 1) % capacity] >= window) {
+                offset = head * 3;
+                for (int i = 0; i < 3; i++) {
+                    float old = values[offset + i];
+                    sum[i] -= old;
+                    sumOfSquares[i] -= (double) old * old;
+                }
+                head = (head + 1) % capacity;
+                size--;
+            }
+        }
+
+        /**
+         * @return true if the samples span the whole window.
+         */
+        boolean isComplete() {
+            return size >= 2 && newest - timestamps[head] >= window;
+        }
+
+        /**
+         * @return the sum of the variances of the axes.
+         */
+        double variance() {
+            double variance = 0;
+            for (int i = 0; i < 3; i++) {
+                double mean = sum[i] / size;
+                variance += Math.max(0, sumOfSquares[i] / size - mean * mean);
+            }
+            return variance;
+        }
+
+        double meanNorm() {
+            double x = sum[0] / size, y = sum[1] / size, z = sum[2] / size;
+            return Math.sqrt(x * x + y * y + z * z);
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+            newest = 0;
+            for (int i = 0; i < 3; i++) {
+                sum[i] = 0;
+                sumOfSquares[i] = 0;
+            }
+        }
+
+        private void grow() {
+            int grown = capacity * 2;
+            float[] grownValues = new float[grown * 3];
+            long[] grownTimestamps = new long[grown];
+            for (int i = 0; i < size; i++) {
+                int index = (head + i) % capacity;
+                System.arraycopy(values, index * 3, grownValues, i * 3, 3);
+                grownTimestamps[i] = timestamps[index];
+            }
+            values = grownValues;
+            timestamps = grownTimestamps;
+            capacity = grown;
+            head = 0;
+        }
+    }
+}
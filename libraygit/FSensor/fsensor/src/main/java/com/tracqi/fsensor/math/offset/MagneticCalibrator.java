@@ -0,0 +1,310 @@
+package com.tracqi.fsensor.math.offset;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Calibrates the magnetometer online, while samples stream in.
+ * <p>
+ * Samples go through a spatial filter: the space is divided in cubic buckets
+ * and only the first sample of every bucket is used, so holding the device
+ * still does not pile up redundant points that outweigh the rest of the
+ * ellipsoid. The used samples are accumulated in an
+ * {@link EllipsoidFitAccumulator}, so memory is constant. The buckets are
+ * never evicted, since the sums cannot forget a point: after 3072 buckets,
+ * about 60% of the surface of a 50 uT sphere, the calibrator stops taking
+ * samples and keeps its calibration until {@link #reset()}.
+ * <p>
+ * Every few new points, the fit is solved on a background executor. A new
+ * {@link Calibration} is published when the fit is a plausible ellipsoid and
+ * its error, the RMS distance of the points from the ellipsoid relative to
+ * its radius, is lower than the one of the published calibration on the same
+ * points. The published calibration is scored again at every solve, since a
+ * fit of the first points may match them well and the rest of the sphere
+ * badly.
+ * <p>
+ * {@link #add(float[])} is meant to be called from the sensor thread and does
+ * not allocate. It must be given uncalibrated samples, registered with
+ * {@link com.tracqi.fsensor.sensor.SensorHub#registerRawListener}. To
+ * calibrate all rotations, hand the result to
+ * {@link com.tracqi.fsensor.sensor.SensorHub#setCalibration(int, AffineCalibration)}.
+ */
+public class MagneticCalibrator {
+
+    public interface Listener {
+        /**
+         * Called on the background executor when the calibration improved.
+         */
+        void onCalibration(Calibration calibration);
+    }
+
+    // Default bucket size in micro Tesla.
+    private static final float DEFAULT_BUCKET_SIZE = 2.5f;
+    // The minimum number of points to solve the fit.
+    private static final int MIN_POINTS = 50;
+    // The number of new points between solves.
+    private static final int SOLVE_INTERVAL = 10;
+    // The largest ratio of the longest to the shortest radius of a plausible
+    // ellipsoid. Soft iron distorts the field by far less.
+    private static final double MAX_AXIS_RATIO = 2;
+
+    private static final int BUCKET_CAPACITY = 4096;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private static ExecutorService defaultExecutor;
+
+    private final float bucketSize;
+    private final Executor executor;
+    private final Listener listener;
+
+    // Guarded by this.
+    private final EllipsoidFitAccumulator accumulator = new EllipsoidFitAccumulator();
+    private final long[] buckets = new long[BUCKET_CAPACITY];
+    private int bucketCount;
+    private int pointsSinceSolve;
+    private int resets;
+
+    private final AtomicBoolean solving = new AtomicBoolean();
+    private final Runnable solveTask = this::solve;
+
+    // Owned by the solve task.
+    private final double[] dtd = new double[EllipsoidFitAccumulator.N * EllipsoidFitAccumulator.N];
+    private final double[] decomposition = new double[EllipsoidFitAccumulator.N * EllipsoidFitAccumulator.N];
+    private final double[] dtOnes = new double[EllipsoidFitAccumulator.N];
+    private final double[] v = new double[EllipsoidFitAccumulator.N];
+    // The fit of the published calibration, rescored on the points of every solve.
+    private final double[] publishedV = new double[EllipsoidFitAccumulator.N];
+    private double publishedScale;
+
+    private volatile Calibration calibration;
+    private volatile double error = Double.POSITIVE_INFINITY;
+
+    public MagneticCalibrator(Listener listener) {
+        this(DEFAULT_BUCKET_SIZE, getDefaultExecutor(), listener);
+    }
+
+    /**
+     * @param bucketSize the edge length of the buckets in the unit of the samples.
+     * @param executor   runs the solves.
+     * @param listener   notified of new calibrations, may be null.
+     */
+    public MagneticCalibrator(float bucketSize, Executor executor, Listener listener) {
+        this.bucketSize = bucketSize;
+        this.executor = executor;
+        this.listener = listener;
+        Arrays.fill(buckets, EMPTY);
+    }
+
+    /**
+     * Add a magnetometer sample.
+     *
+     * @return true if the sample was used, false if its bucket already had one
+     * or all buckets are taken.
+     */
+    public boolean add(float[] magnetic) {
+        float x = magnetic[0], y = magnetic[1], z = magnetic[2];
+        if (!Float.isFinite(x) || !Float.isFinite(y) || !Float.isFinite(z)) {
+            return false;
+        }
+
+        boolean solve;
+        synchronized (this) {
+            if (!addBucket(bucket(x), bucket(y), bucket(z))) {
+                return false;
+            }
+            accumulator.add(x, y, z);
+
+            solve = ++pointsSinceSolve >= SOLVE_INTERVAL && accumulator.getCount() >= MIN_POINTS;
+            if (solve) {
+                pointsSinceSolve = 0;
+            }
+        }
+
+        if (solve && solving.compareAndSet(false, true)) {
+            executor.execute(solveTask);
+        }
+        return true;
+    }
+
+    /**
+     * @return the best calibration so far, null if there is none yet.
+     */
+    public Calibration getCalibration() {
+        return calibration;
+    }
+
+    /**
+     * @return the RMS distance of the points from the ellipsoid of the best
+     * calibration relative to its radius, infinite if there is none yet.
+     */
+    public double getError() {
+        return error;
+    }
+
+    public synchronized long getPointCount() {
+        return accumulator.getCount();
+    }
+
+    /**
+     * Drop all points and the calibration, for example after the magnetic environment changed.
+     */
+    public synchronized void reset() {
+        accumulator.clear();
+        Arrays.fill(buckets, EMPTY);
+        bucketCount = 0;
+        pointsSinceSolve = 0;
+        calibration = null;
+        error = Double.POSITIVE_INFINITY;
+        resets++;
+    }
+
+    private int bucket(float value) {
+        // 21 bits per axis
+        return (int) Math.floor(value / bucketSize) & 0x1FFFFF;
+    }
+
+    /**
+     * @return false if the bucket is taken, or if the buckets are full.
+     */
+    private boolean addBucket(int x, int y, int z) {
+        long key = ((long) x << 42) | ((long) y << 21) | z;
+        int mask = BUCKET_CAPACITY - 1;
+        int i = (int) (key ^ (key >>> 29) ^ (key >>> 47)) * 0x9E3779B9 & mask;
+        while (buckets[i] != EMPTY) {
+            if (buckets[i] == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+
+        // Keep the table sparse. Once it is, the sphere is well covered.
+        if (bucketCount >= BUCKET_CAPACITY * 3 / 4) {
+            return false;
+        }
+        buckets[i] = key;
+        bucketCount++;
+        return true;
+    }
+
+    private void solve() {
+        try {
+            long count;
+            int resets;
+            boolean published;
+            synchronized (this) {
+                count = accumulator.get(dtd, dtOnes);
+                resets = this.resets;
+                published = calibration != null;
+            }
+
+            System.arraycopy(dtd, 0, decomposition, 0, dtd.length);
+            if (!EllipsoidFitAccumulator.solve(decomposition, dtOnes, v)) {
+                return;
+            }
+
+            FitPoints fitPoints = new FitPoints(new ArrayRealVector(v));
+            double scale = getScale(v, fitPoints.center);
+            if (!(scale > 0) || !isPlausible(fitPoints)) {
+                return;
+            }
+
+            double error = EllipsoidFitAccumulator.getResidual(dtd, dtOnes, count, v) / (2 * scale);
+            double publishedError = published
+                    ? EllipsoidFitAccumulator.getResidual(dtd, dtOnes, count, publishedV) / (2 * publishedScale)
+                    : Double.POSITIVE_INFINITY;
+            boolean better = error < publishedError;
+
+            Calibration calibration = better ? CalibrationUtil.getCalibration(fitPoints) : null;
+            synchronized (this) {
+                if (resets != this.resets) {
+                    // Reset while solving
+                    return;
+                }
+                if (!better) {
+                    this.error = publishedError;
+                    return;
+                }
+                this.calibration = calibration;
+                this.error = error;
+            }
+            System.arraycopy(v, 0, publishedV, 0, v.length);
+            publishedScale = scale;
+
+            if (listener != null) {
+                listener.onCalibration(calibration);
+            }
+        } finally {
+            solving.set(false);
+        }
+    }
+
+    /**
+     * Centered on c, the polynomial is (x - c)'A(x - c) = s with s = 1 + c'Ac = 1 - g'c,
+     * g = [G, H, I]. A point (1 + e) times as far from c as the ellipsoid has the
+     * algebraic residual s * ((1 + e)^2 - 1), about 2 * s * e, so the RMS residual
+     * divided by 2 * s is the RMS distance relative to the radius, whatever the
+     * offset and the number of points.
+     * <p>
+     * The fit is an ellipsoid only if s is positive. A negative definite A with a
+     * negative s has positive eigenvalues too, and a meaningless error.
+     */
+    private static double getScale(double[] v, RealVector center) {
+        return 1 - v[6] * center.getEntry(0) - v[7] * center.getEntry(1) - v[8] * center.getEntry(2);
+    }
+
+    /**
+     * @return true if the radii of the fit are finite, positive and not too different.
+     */
+    private static boolean isPlausible(FitPoints fitPoints) {
+        for (double eval : fitPoints.evals) {
+            if (!(eval > 0)) {
+                // Not an ellipsoid
+                return false;
+            }
+        }
+        double min = Double.POSITIVE_INFINITY;
+        double max = 0;
+        for (int i = 0; i < 3; i++) {
+            double radius = fitPoints.radii.getEntry(i);
+            if (!(radius > 0) || Double.isInfinite(radius)) {
+                return false;
+            }
+            min = Math.min(min, radius);
+            max = Math.max(max, radius);
+        }
+        return max <= MAX_AXIS_RATIO * min;
+    }
+
+    private static synchronized Executor getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "FSensor calibration");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return defaultExecutor;
+    }
+}
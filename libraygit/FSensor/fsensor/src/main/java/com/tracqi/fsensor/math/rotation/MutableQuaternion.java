@@ -0,0 +1,105 @@
+package com.tracqi.fsensor.math.rotation;
+
+import org.apache.commons.math3.complex.Quaternion;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A mutable quaternion for the sensor rate fusion path.
+ * <p>
+ * Unlike {@link Quaternion}, operations write into an existing instance
+ * instead of returning a new one, so orientations can be integrated without
+ * producing garbage. The arithmetic is the same as {@link Quaternion}, so
+ * results are identical. Operations may alias their arguments.
+ */
+public class MutableQuaternion {
+
+    // Scalar part (q0) and vector part (q1, q2, q3).
+    public double w = 1;
+    public double x;
+    public double y;
+    public double z;
+
+    public MutableQuaternion set(double w, double x, double y, double z) {
+        this.w = w;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    public MutableQuaternion set(MutableQuaternion q) {
+        return set(q.w, q.x, q.y, q.z);
+    }
+
+    public MutableQuaternion set(Quaternion q) {
+        return set(q.getQ0(), q.getQ1(), q.getQ2(), q.getQ3());
+    }
+
+    public MutableQuaternion setIdentity() {
+        return set(1, 0, 0, 0);
+    }
+
+    /**
+     * Sets this to the Hamilton product a * b.
+     */
+    public MutableQuaternion multiply(MutableQuaternion a, MutableQuaternion b) {
+        final double w = a.w * b.w - a.x * b.x - a.y * b.y - a.z * b.z;
+        final double x = a.w * b.x + a.x * b.w + a.y * b.z - a.z * b.y;
+        final double y = a.w * b.y - a.x * b.z + a.y * b.w + a.z * b.x;
+        final double z = a.w * b.z + a.x * b.y - a.y * b.x + a.z * b.w;
+        return set(w, x, y, z);
+    }
+
+    /**
+     * Sets this to alpha * a + beta * b.
+     */
+    public MutableQuaternion scaleAdd(double alpha, MutableQuaternion a, double beta, MutableQuaternion b) {
+        return set(a.w * alpha + b.w * beta, a.x * alpha + b.x * beta,
+                a.y * alpha + b.y * beta, a.z * alpha + b.z * beta);
+    }
+
+    /**
+     * Sets this to q / |q|, or to the identity if q is zero.
+     */
+    public MutableQuaternion normalize(double w, double x, double y, double z) {
+        final double norm = Math.sqrt(w * w + x * x + y * y + z * z);
+        if (norm == 0) {
+            return setIdentity();
+        }
+        return set(w / norm, x / norm, y / norm, z / norm);
+    }
+
+    /**
+     * Rotates a vector by this unit quaternion, out = q * (0, v) * q'.
+     *
+     * @param out the rotated vector, may be v.
+     */
+    public void rotate(float[] v, float[] out) {
+        final double vx = v[0], vy = v[1], vz = v[2];
+        out[0] = (float) ((1 - 2 * (y * y + z * z)) * vx + 2 * (x * y - w * z) * vy + 2 * (x * z + w * y) * vz);
+        out[1] = (float) (2 * (x * y + w * z) * vx + (1 - 2 * (x * x + z * z)) * vy + 2 * (y * z - w * x) * vz);
+        out[2] = (float) (2 * (x * z - w * y) * vx + 2 * (y * z + w * x) * vy + (1 - 2 * (x * x + y * y)) * vz);
+    }
+
+    /**
+     * Returns an immutable copy.
+     */
+    public Quaternion toQuaternion() {
+        return new Quaternion(w, x, y, z);
+    }
+}
@@ -1,12 +1,7 @@
 package com.tracqi.fsensor.math.rotation;
 
-import android.hardware.SensorManager;
-import android.renderscript.Matrix3f;
-
 import org.apache.commons.math3.complex.Quaternion;
 
-import java.util.Arrays;
-
 /*
  * Copyright 2024, Tracqi Technology, LLC
  *
@@ -37,14 +32,34 @@ public class Rotation {
      * @return A Quaternion representing the orientation.
      */
     public static Quaternion integrateGyroscopeRotation(Quaternion previousRotationVector, float[] rateOfRotation, float dt, float epsilon) {
+        MutableQuaternion rotationVector = new MutableQuaternion().set(previousRotationVector);
+        integrateGyroscopeRotation(rotationVector, rateOfRotation, dt, epsilon, rotationVector);
+        return rotationVector.toQuaternion();
+    }
+
+    /**
+     * Calculates a rotation vector from the gyroscope angular speed values
+     * without allocating. rateOfRotation is left untouched.
+     *
+     * @param previousRotationVector the last known orientation to which the new rotation will be applied.
+     * @param rateOfRotation         the rotation measurement
+     * @param dt                     the period of time over which the rotation measurement took place in units of seconds
+     * @param epsilon                minimum rotation vector magnitude required to get the axis for normalization
+     * @param out                    receives the orientation, may be previousRotationVector.
+     */
+    public static void integrateGyroscopeRotation(MutableQuaternion previousRotationVector, float[] rateOfRotation, float dt, float epsilon, MutableQuaternion out) {
+        float axisX = rateOfRotation[0];
+        float axisY = rateOfRotation[1];
+        float axisZ = rateOfRotation[2];
+
         // Calculate the angular speed of the sample
-        float magnitude = (float) Math.sqrt(Math.pow(rateOfRotation[0], 2) + Math.pow(rateOfRotation[1], 2) + Math.pow(rateOfRotation[2], 2));
+        float magnitude = (float) Math.sqrt((double) axisX * axisX + (double) axisY * axisY + (double) axisZ * axisZ);
 
         // Normalize the rotation vector if it's big enough to get the axis
         if (magnitude > epsilon) {
-            rateOfRotation[0] /= magnitude;
-            rateOfRotation[1] /= magnitude;
-            rateOfRotation[2] /= magnitude;
+            axisX /= magnitude;
+            axisY /= magnitude;
+            axisZ /= magnitude;
         }
 
         // Integrate around this axis with the angular speed by the timestep
@@ -55,16 +70,18 @@ public class Rotation {
         float sinThetaOverTwo = (float) Math.sin(thetaOverTwo);
         float cosThetaOverTwo = (float) Math.cos(thetaOverTwo);
 
-        double[] deltaVector = new double[4];
-
-        deltaVector[0] = sinThetaOverTwo * rateOfRotation[0];
-        deltaVector[1] = sinThetaOverTwo * rateOfRotation[1];
-        deltaVector[2] = sinThetaOverTwo * rateOfRotation[2];
-        deltaVector[3] = cosThetaOverTwo;
+        double dw = cosThetaOverTwo;
+        double dx = sinThetaOverTwo * axisX;
+        double dy = sinThetaOverTwo * axisY;
+        double dz = sinThetaOverTwo * axisZ;
 
         // Since it is a unit quaternion, we can just multiply the old rotation
         // by the new rotation delta to integrate the rotation.
-        return previousRotationVector.multiply(new Quaternion(deltaVector[3], Arrays.copyOfRange(deltaVector, 0, 3)));
+        MutableQuaternion q = previousRotationVector;
+        out.set(q.w * dw - q.x * dx - q.y * dy - q.z * dz,
+                q.w * dx + q.x * dw + q.y * dz - q.z * dy,
+                q.w * dy - q.x * dz + q.y * dw + q.z * dx,
+                q.w * dz + q.x * dy - q.y * dx + q.z * dw);
     }
 
     /**
@@ -75,25 +92,128 @@ public class Rotation {
      * @return
      */
     public static Quaternion getOrientationVector(float[] acceleration, float[] magnetic) {
-        float[] rotationMatrix = new float[9];
-        if (SensorManager.getRotationMatrix(rotationMatrix, null, acceleration, magnetic)) {
-            float[] orientation = new float[3];
-            SensorManager.getOrientation(rotationMatrix, orientation);
-            double[] rotation = getQuaternion(new Matrix3f(rotationMatrix));
-            return new Quaternion(rotation[0], rotation[1], rotation[2], rotation[3]);
+        MutableQuaternion rotationVector = new MutableQuaternion();
+        if (getOrientationVector(acceleration, magnetic, new float[9], rotationVector)) {
+            return rotationVector.toQuaternion();
         }
 
         return null;
     }
 
-    private static double[] getQuaternion(Matrix3f m1) {
-        double w = Math.sqrt(1.0 + m1.get(0,0) + m1.get(1,1) + m1.get(2,2)) / 2.0;
-        double w4 = (4.0 * w);
-        double x = (m1.get(2,1) - m1.get(1,2)) / w4 ;
-        double y = (m1.get(0,2) - m1.get(2,0)) / w4 ;
-        double z = (m1.get(1,0) - m1.get(0,1)) / w4 ;
+    /**
+     * Calculates orientation vector from accelerometer and magnetometer output
+     * without allocating.
+     *
+     * @param acceleration   the acceleration measurement.
+     * @param magnetic       the magnetic measurement.
+     * @param rotationMatrix scratch array of length 9.
+     * @param out            receives the orientation.
+     * @return false if the device is in free fall or close to the magnetic pole, out is then left untouched.
+     */
+    public static boolean getOrientationVector(float[] acceleration, float[] magnetic, float[] rotationMatrix, MutableQuaternion out) {
+        if (!getRotationMatrix(rotationMatrix, acceleration, magnetic)) {
+            return false;
+        }
+
+        // Row-major 3x3 rotation matrix to quaternion. Divide by the largest component,
+        // w alone is close to zero for rotations of close to 180 degrees.
+        final float[] r = rotationMatrix;
+        double trace = r[0] + r[4] + r[8];
+        double w, x, y, z;
+        if (trace > 0) {
+            w = Math.sqrt(1.0 + trace) / 2.0;
+            double w4 = (4.0 * w);
+            x = (r[7] - r[5]) / w4;
+            y = (r[2] - r[6]) / w4;
+            z = (r[3] - r[1]) / w4;
+        } else if (r[0] > r[4] && r[0] > r[8]) {
+            x = Math.sqrt(1.0 + r[0] - r[4] - r[8]) / 2.0;
+            double x4 = (4.0 * x);
+            w = (r[7] - r[5]) / x4;
+            y = (r[1] + r[3]) / x4;
+            z = (r[2] + r[6]) / x4;
+        } else if (r[4] > r[8]) {
+            y = Math.sqrt(1.0 - r[0] + r[4] - r[8]) / 2.0;
+            double y4 = (4.0 * y);
+            w = (r[2] - r[6]) / y4;
+            x = (r[1] + r[3]) / y4;
+            z = (r[5] + r[7]) / y4;
+        } else {
+            z = Math.sqrt(1.0 - r[0] - r[4] + r[8]) / 2.0;
+            double z4 = (4.0 * z);
+            w = (r[3] - r[1]) / z4;
+            x = (r[2] + r[6]) / z4;
+            y = (r[5] + r[7]) / z4;
+        }
+
+        // Keep the scalar part positive, like the trace form.
+        if (w < 0) {
+            w = -w;
+            x = -x;
+            y = -y;
+            z = -z;
+        }
+
+        out.set(w, x, y, z);
+        return true;
+    }
+
+    /**
+     * The same as SensorManager.getRotationMatrix(R, null, gravity, geomagnetic), which is
+     * not available off-device.
+     *
+     * @param rotationMatrix receives the row-major 3x3 rotation matrix.
+     * @return false if the device is in free fall or close to the magnetic pole.
+     */
+    public static boolean getRotationMatrix(float[] rotationMatrix, float[] gravity, float[] geomagnetic) {
+        float ax = gravity[0];
+        float ay = gravity[1];
+        float az = gravity[2];
+
+        final float g = 9.81f;
+        final float freeFallGravitySquared = 0.01f * g * g;
+        if (ax * ax + ay * ay + az * az < freeFallGravitySquared) {
+            return false;
+        }
+
+        final float ex = geomagnetic[0];
+        final float ey = geomagnetic[1];
+        final float ez = geomagnetic[2];
+
+        // East, the cross product of the magnetic field and gravity.
+        float hx = ey * az - ez * ay;
+        float hy = ez * ax - ex * az;
+        float hz = ex * ay - ey * ax;
+        final float normH = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        if (normH < 0.1f) {
+            return false;
+        }
 
-        return new double[]{w,x,y,z};
+        final float invH = 1.0f / normH;
+        hx *= invH;
+        hy *= invH;
+        hz *= invH;
+
+        final float invA = 1.0f / (float) Math.sqrt(ax * ax + ay * ay + az * az);
+        ax *= invA;
+        ay *= invA;
+        az *= invA;
+
+        // North, the cross product of up and east.
+        final float mx = ay * hz - az * hy;
+        final float my = az * hx - ax * hz;
+        final float mz = ax * hy - ay * hx;
+
+        rotationMatrix[0] = hx;
+        rotationMatrix[1] = hy;
+        rotationMatrix[2] = hz;
+        rotationMatrix[3] = mx;
+        rotationMatrix[4] = my;
+        rotationMatrix[5] = mz;
+        rotationMatrix[6] = ax;
+        rotationMatrix[7] = ay;
+        rotationMatrix[8] = az;
+        return true;
     }
 
 }
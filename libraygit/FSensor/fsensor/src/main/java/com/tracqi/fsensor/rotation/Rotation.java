@@ -1,5 +1,7 @@
 package com.tracqi.fsensor.rotation;
 
+import com.tracqi.fsensor.math.angle.Angles;
+import com.tracqi.fsensor.math.rotation.MutableQuaternion;
 
 /*
  * Copyright 2024, Tracqi Technology, LLC
@@ -19,6 +21,34 @@ package com.tracqi.fsensor.rotation;
 
 public interface Rotation {
     void start(int sensorDelay);
+
+    /**
+     * Starts with the sensor events batched for up to maxReportLatencyUs, see
+     * {@link com.tracqi.fsensor.sensor.SensorSource#registerListener(com.tracqi.fsensor.sensor.SensorSampleListener, int, int, int)}.
+     * Rotations that do not batch start without it.
+     */
+    default void start(int sensorDelay, int maxReportLatencyUs) {
+        start(sensorDelay);
+    }
+
     void stop();
     float[] getOrientation();
+
+    /**
+     * Copies the orientation as a unit quaternion that rotates vectors from the device frame into the east, north,
+     * up frame, so vectors can be rotated without a round trip through Euler angles.
+     *
+     * Rotations relative to an arbitrary start pose return false. By default the quaternion is built from
+     * {@link #getOrientation()}, rotations that have one override it.
+     *
+     * @return false if there is no orientation yet, out is then unchanged.
+     */
+    default boolean getQuaternion(MutableQuaternion out) {
+        float[] orientation = getOrientation();
+        if (orientation == null) {
+            return false;
+        }
+        Angles.getQuaternion(orientation, out);
+        return true;
+    }
 }
@@ -0,0 +1,247 @@
+package com.tracqi.fsensor.rotation.fusion;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+
+import com.tracqi.fsensor.math.angle.Angles;
+import com.tracqi.fsensor.math.rotation.MutableQuaternion;
+import com.tracqi.fsensor.math.rotation.Rotation;
+import com.tracqi.fsensor.sensor.SensorHub;
+import com.tracqi.fsensor.sensor.SensorSampleListener;
+import com.tracqi.fsensor.sensor.SensorSource;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Base class of the attitude and heading reference system (AHRS) fusions.
+ * <p>
+ * The orientation quaternion is integrated at every gyroscope sample. The
+ * directions of gravity and of the magnetic field predicted by the
+ * orientation are compared with the acceleration and magnetic measurements,
+ * read at the gyroscope timestamp. The cross products of measured and
+ * predicted directions form an error vector in the device frame: the small
+ * rotation that would move the prediction onto the measurement.
+ * Implementations feed this error back into the rate of rotation before it is
+ * integrated.
+ * <p>
+ * The reference frame is the one of {@link SensorManager#getRotationMatrix},
+ * east, north and up, so the horizontal component of the magnetic field is
+ * kept on the y axis. An update takes a few dozen floating point operations
+ * and does not allocate. No matrices and no SensorManager calls are needed
+ * after the initial orientation.
+ */
+public abstract class AhrsRotation extends FusedRotation {
+
+    private final SensorSource sensorSource;
+    private final SensorSampleListener sensorSampleListener = new SensorListener();
+
+    // Acceleration and magnetic samples, read at the gyroscope timestamps.
+    private final SensorSampleBuffer accelerationBuffer = new SensorSampleBuffer();
+    private final SensorSampleBuffer magneticBuffer = new SensorSampleBuffer();
+
+    private final float[] acceleration = new float[3];
+    private final float[] magnetic = new float[3];
+    private final float[] rotationMatrix = new float[9];
+    private final MutableQuaternion rotationVectorAccelerationMagnetic = new MutableQuaternion();
+
+    private final float[] error = new float[3];
+    private final float[] rate = new float[3];
+
+    private final float[] output = new float[3];
+
+    private long timestamp;
+
+    public AhrsRotation(SensorManager sensorManager) {
+        this(SensorHub.getInstance(sensorManager));
+    }
+
+    public AhrsRotation(SensorSource sensorSource) {
+        this.sensorSource = sensorSource;
+    }
+
+    @Override
+    public void start(int sensorDelay) {
+        start(sensorDelay, 0);
+    }
+
+    @Override
+    public void start(int sensorDelay, int maxReportLatencyUs) {
+        accelerationBuffer.clear();
+        magneticBuffer.clear();
+        timestamp = 0;
+        reset();
+
+        sensorSource.registerListener(sensorSampleListener, Sensor.TYPE_ACCELEROMETER, sensorDelay, maxReportLatencyUs);
+        sensorSource.registerListener(sensorSampleListener, Sensor.TYPE_MAGNETIC_FIELD, sensorDelay, maxReportLatencyUs);
+        sensorSource.registerListener(sensorSampleListener, Sensor.TYPE_GYROSCOPE, sensorDelay, maxReportLatencyUs);
+    }
+
+    @Override
+    public void stop() {
+        sensorSource.unregisterListener(sensorSampleListener);
+    }
+
+    @Override
+    public float[] getOrientation() {
+        return output;
+    }
+
+    @Override
+    public boolean getQuaternion(MutableQuaternion out) {
+        if (!isBaseOrientationSet()) {
+            return false;
+        }
+        out.set(rotationVector);
+        return true;
+    }
+
+    /**
+     * Applies the orientation error to the rate of rotation.
+     *
+     * @param error the error vector in the device frame, zero if there was no measurement.
+     * @param dt    the sample period in seconds.
+     * @param rate  the rate of rotation in rad/s, to be corrected in place.
+     */
+    protected abstract void applyFeedback(float[] error, float dt, float[] rate);
+
+    /**
+     * Resets any feedback state, called on start.
+     */
+    protected void reset() {
+    }
+
+    private void calculateFusedOrientation(float[] gyroscope, long timestamp) {
+        if (this.timestamp != 0 && timestamp > this.timestamp) {
+            final float dt = (timestamp - this.timestamp) * NS2S;
+
+            accelerationBuffer.sample(timestamp, acceleration);
+            magneticBuffer.sample(timestamp, magnetic);
+
+            calculateError(rotationVector, acceleration, magnetic, error);
+
+            System.arraycopy(gyroscope, 0, rate, 0, rate.length);
+            applyFeedback(error, dt, rate);
+
+            integrate(rotationVector, rate, dt);
+
+            Angles.getAngles(rotationVector.w, rotationVector.x, rotationVector.y, rotationVector.z, output);
+        }
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * The error between the measured directions and the ones predicted by q. The
+     * magnetic field only contributes to the heading and is ignored without gravity.
+     */
+    private static void calculateError(MutableQuaternion q, float[] acceleration, float[] magnetic, float[] error) {
+        final double w = q.w, x = q.x, y = q.y, z = q.z;
+
+        double ex = 0, ey = 0, ez = 0;
+
+        double norm = Math.sqrt(acceleration[0] * acceleration[0] + acceleration[1] * acceleration[1] + acceleration[2] * acceleration[2]);
+        if (norm > 0) {
+            final double ax = acceleration[0] / norm;
+            final double ay = acceleration[1] / norm;
+            final double az = acceleration[2] / norm;
+
+            // Up in the device frame, the last row of the rotation matrix.
+            final double vx = 2 * (x * z - w * y);
+            final double vy = 2 * (y * z + w * x);
+            final double vz = 1 - 2 * (x * x + y * y);
+
+            ex = ay * vz - az * vy;
+            ey = az * vx - ax * vz;
+            ez = ax * vy - ay * vx;
+
+            norm = Math.sqrt(magnetic[0] * magnetic[0] + magnetic[1] * magnetic[1] + magnetic[2] * magnetic[2]);
+            if (norm > 0) {
+                final double mx = magnetic[0] / norm;
+                final double my = magnetic[1] / norm;
+                final double mz = magnetic[2] / norm;
+
+                // The field in the world frame, h = R * m.
+                final double hx = (1 - 2 * (y * y + z * z)) * mx + 2 * (x * y - w * z) * my + 2 * (x * z + w * y) * mz;
+                final double hy = 2 * (x * y + w * z) * mx + (1 - 2 * (x * x + z * z)) * my + 2 * (y * z - w * x) * mz;
+                final double hz = vx * mx + vy * my + vz * mz;
+
+                // The reference field points north and down, b = (0, by, bz).
+                final double by = Math.sqrt(hx * hx + hy * hy);
+                final double bz = hz;
+
+                // The reference field in the device frame, R' * b.
+                final double bx0 = 2 * (x * y + w * z) * by + vx * bz;
+                final double by0 = (1 - 2 * (x * x + z * z)) * by + vy * bz;
+                final double bz0 = 2 * (y * z - w * x) * by + vz * bz;
+
+                ex += my * bz0 - mz * by0;
+                ey += mz * bx0 - mx * bz0;
+                ez += mx * by0 - my * bx0;
+            }
+        }
+
+        error[0] = (float) ex;
+        error[1] = (float) ey;
+        error[2] = (float) ez;
+    }
+
+    /**
+     * q += 0.5 * q * (0, rate) * dt, normalized.
+     */
+    private static void integrate(MutableQuaternion q, float[] rate, float dt) {
+        final double w = q.w, x = q.x, y = q.y, z = q.z;
+        final double h = 0.5 * dt;
+        final double rx = rate[0] * h;
+        final double ry = rate[1] * h;
+        final double rz = rate[2] * h;
+
+        final double qw = w - x * rx - y * ry - z * rz;
+        final double qx = x + w * rx + y * rz - z * ry;
+        final double qy = y + w * ry - x * rz + z * rx;
+        final double qz = z + w * rz + x * ry - y * rx;
+
+        final double norm = Math.sqrt(qw * qw + qx * qx + qy * qy + qz * qz);
+        q.set(qw / norm, qx / norm, qy / norm, qz / norm);
+    }
+
+    /**
+     * Buffers the acceleration and magnetic samples and fuses at every gyroscope sample.
+     */
+    private class SensorListener implements SensorSampleListener {
+        @Override
+        public void onSensorChanged(int sensorType, int accuracy, long timestamp, float[] values) {
+            if (sensorType == Sensor.TYPE_ACCELEROMETER) {
+                accelerationBuffer.add(timestamp, values);
+            } else if (sensorType == Sensor.TYPE_MAGNETIC_FIELD) {
+                magneticBuffer.add(timestamp, values);
+            } else if (sensorType == Sensor.TYPE_GYROSCOPE) {
+                if (accelerationBuffer.isEmpty() || magneticBuffer.isEmpty()) {
+                    return;
+                }
+
+                if (!isBaseOrientationSet()) {
+                    accelerationBuffer.sample(timestamp, acceleration);
+                    magneticBuffer.sample(timestamp, magnetic);
+                    if (Rotation.getOrientationVector(acceleration, magnetic, rotationMatrix, rotationVectorAccelerationMagnetic)) {
+                        setBaseOrientation(rotationVectorAccelerationMagnetic);
+                    }
+                } else {
+                    calculateFusedOrientation(values, timestamp);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.tracqi.fsensor.rotation.fusion;
+
+import android.hardware.SensorManager;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Estimates per sample how far the acceleration and magnetic measurements can
+ * be trusted as references of gravity and of the magnetic field of the earth.
+ * <p>
+ * Linear acceleration, for example from walking, shows as an acceleration
+ * whose magnitude differs from gravity. A magnetic disturbance, for example
+ * from steel or electronics indoors, changes the magnitude of the field or its
+ * dip, the angle to gravity. Both are compared to a running reference that is
+ * learned while the field looks undisturbed. Rotation does not change either,
+ * so the references hold while the device turns.
+ * <p>
+ * A trust is 1 within the lower tolerance, 0 beyond the upper tolerance and
+ * linear in between. The device is stationary when the rate of rotation stayed
+ * small for a while, the acceleration is then known to be gravity.
+ * <p>
+ * An update is a few dozen floating point operations and does not allocate.
+ */
+public class DisturbanceDetector {
+
+    // Relative deviation of the acceleration magnitude from gravity.
+    private static final float ACCELERATION_LOWER = 0.05f;
+    private static final float ACCELERATION_UPPER = 0.15f;
+
+    // Relative deviation of the magnetic magnitude from the reference.
+    private static final float MAGNETIC_LOWER = 0.08f;
+    private static final float MAGNETIC_UPPER = 0.2f;
+
+    // Deviation of the dip from the reference in radians.
+    private static final float DIP_LOWER = (float) Math.toRadians(4);
+    private static final float DIP_UPPER = (float) Math.toRadians(12);
+
+    // The time constant of the magnetic reference in seconds.
+    private static final float REFERENCE_TIME_CONSTANT = 20;
+    // A fraction of the learning rate that is kept while disturbed, so a reference learned in a disturbance recovers.
+    private static final float MIN_LEARNING = 0.1f;
+
+    // The rate of rotation in rad/s below which the device may be stationary, and for how long in seconds.
+    private static final float STATIONARY_RATE = 0.05f;
+    private static final float STATIONARY_TIME = 0.5f;
+
+    /**
+     * The measurement weight of an undisturbed stationary device.
+     */
+    public static final float STATIONARY_GAIN = 4;
+
+    private float accelerationTrust = 1;
+    private float magneticTrust = 1;
+
+    private boolean hasReference;
+    private float referenceMagnitude;
+    private float referenceDip;
+
+    private float stationaryTime;
+
+    /**
+     * Forget the magnetic reference and the stationary time.
+     */
+    public void reset() {
+        accelerationTrust = 1;
+        magneticTrust = 1;
+        hasReference = false;
+        stationaryTime = 0;
+    }
+
+    /**
+     * Update the trusts with measurements at the same time.
+     *
+     * @param acceleration the acceleration in m/s^2.
+     * @param magnetic     the magnetic field in uT.
+     * @param gyroscope    the rate of rotation in rad/s.
+     * @param dt           the time since the previous update in seconds.
+     */
+    public void update(float[] acceleration, float[] magnetic, float[] gyroscope, float dt) {
+        final float accelerationNorm = norm(acceleration);
+        final float magneticNorm = norm(magnetic);
+
+        accelerationTrust = trust(Math.abs(accelerationNorm - SensorManager.GRAVITY_EARTH) / SensorManager.GRAVITY_EARTH,
+                ACCELERATION_LOWER, ACCELERATION_UPPER);
+
+        if (norm(gyroscope) < STATIONARY_RATE) {
+            stationaryTime += dt;
+        } else {
+            stationaryTime = 0;
+        }
+
+        if (accelerationNorm == 0 || magneticNorm == 0) {
+            magneticTrust = 0;
+            return;
+        }
+
+        final float dot = acceleration[0] * magnetic[0] + acceleration[1] * magnetic[1] + acceleration[2] * magnetic[2];
+        final float dip = (float) Math.asin(Math.max(-1, Math.min(1, dot / (accelerationNorm * magneticNorm))));
+
+        if (!hasReference) {
+            hasReference = true;
+            referenceMagnitude = magneticNorm;
+            referenceDip = dip;
+        }
+
+        float trust = trust(Math.abs(magneticNorm - referenceMagnitude) / referenceMagnitude, MAGNETIC_LOWER, MAGNETIC_UPPER);
+        // The dip needs gravity.
+        if (accelerationTrust > 0) {
+            trust = Math.min(trust, trust(Math.abs(dip - referenceDip), DIP_LOWER, DIP_UPPER));
+        }
+        magneticTrust = trust;
+
+        final float learning = dt / (REFERENCE_TIME_CONSTANT + dt) * Math.max(MIN_LEARNING, trust);
+        referenceMagnitude += learning * (magneticNorm - referenceMagnitude);
+        if (accelerationTrust > 0) {
+            referenceDip += learning * accelerationTrust * (dip - referenceDip);
+        }
+    }
+
+    /**
+     * @return how far the acceleration is gravity, from 0 to 1.
+     */
+    public float getAccelerationTrust() {
+        return accelerationTrust;
+    }
+
+    /**
+     * @return how far the magnetic field is the undisturbed field, from 0 to 1.
+     */
+    public float getMagneticTrust() {
+        return magneticTrust;
+    }
+
+    /**
+     * @return the weight of an orientation from the acceleration and magnetic measurements relative to the nominal
+     * weight. 0 while either is disturbed, 1 if neither is and {@link #STATIONARY_GAIN} if the device is also stationary.
+     */
+    public float getMeasurementWeight() {
+        float weight = accelerationTrust * magneticTrust;
+        return isStationary() ? weight * STATIONARY_GAIN : weight;
+    }
+
+    /**
+     * @return true if the device has not rotated for a while.
+     */
+    public boolean isStationary() {
+        return stationaryTime >= STATIONARY_TIME;
+    }
+
+    private static float trust(float deviation, float lower, float upper) {
+        if (deviation <= lower) {
+            return 1;
+        }
+        if (deviation >= upper) {
+            return 0;
+        }
+        return (upper - deviation) / (upper - lower);
+    }
+
+    private static float norm(float[] v) {
+        return (float) Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+    }
+}
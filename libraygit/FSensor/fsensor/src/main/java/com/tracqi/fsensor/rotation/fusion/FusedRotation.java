@@ -1,5 +1,6 @@
 package com.tracqi.fsensor.rotation.fusion;
 
+import com.tracqi.fsensor.math.rotation.MutableQuaternion;
 import com.tracqi.fsensor.rotation.Rotation;
 
 import org.apache.commons.math3.complex.Quaternion;
@@ -29,13 +30,23 @@ public abstract class FusedRotation implements Rotation {
     // Nano-second to second conversion
     protected static final float NS2S = 1.0f / 1000000000.0f;
 
-    protected Quaternion rotationVector;
+    // Updated in place on every sample.
+    protected final MutableQuaternion rotationVector = new MutableQuaternion();
+
+    private boolean baseOrientationSet;
 
     public boolean isBaseOrientationSet() {
-        return rotationVector != null;
+        return baseOrientationSet;
     }
 
     public void setBaseOrientation(Quaternion baseOrientation) {
-        rotationVector = baseOrientation;
+        if (baseOrientation != null) {
+            setBaseOrientation(rotationVector.set(baseOrientation));
+        }
+    }
+
+    public void setBaseOrientation(MutableQuaternion baseOrientation) {
+        rotationVector.set(baseOrientation);
+        baseOrientationSet = true;
     }
 }
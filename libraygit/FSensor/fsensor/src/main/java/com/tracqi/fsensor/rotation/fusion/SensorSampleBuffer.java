@@ -0,0 +1,122 @@
+package com.tracqi.fsensor.rotation.fusion;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The most recent samples of a three axis sensor, so they can be read at the
+ * timestamp of another sensor.
+ * <p>
+ * A sensor is sampled by linear interpolation between the two samples around
+ * the requested timestamp. Newer than the newest sample, the newest sample is
+ * held rather than extrapolated, since extrapolating noisy measurements
+ * amplifies the noise. Older than the oldest sample, the oldest one is used.
+ */
+public class SensorSampleBuffer {
+
+    private static final int DEFAULT_CAPACITY = 8;
+    private static final int AXES = 3;
+
+    private final long[] timestamps;
+    private final float[] values;
+    // The oldest sample
+    private int head;
+    private int size;
+
+    public SensorSampleBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SensorSampleBuffer(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("The capacity must be at least 2");
+        }
+        timestamps = new long[capacity];
+        values = new float[capacity * AXES];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the timestamp of the newest sample, 0 if there is none.
+     */
+    public long getNewestTimestamp() {
+        return size == 0 ? 0 : timestamps[slot(size - 1)];
+    }
+
+    /**
+     * Add the newest sample, evicting the oldest if the buffer is full. A sample
+     * older than the newest one means the sensor restarted, and clears the buffer.
+     */
+    public void add(long timestamp, float[] sample) {
+        if (size > 0 && timestamp < getNewestTimestamp()) {
+            clear();
+        }
+
+        if (size == timestamps.length) {
+            head = (head + 1) % timestamps.length;
+            size--;
+        }
+
+        int slot = slot(size++);
+        timestamps[slot] = timestamp;
+        System.arraycopy(sample, 0, values, slot * AXES, AXES);
+    }
+
+    /**
+     * Sample the sensor at timestamp.
+     *
+     * @return false if there are no samples.
+     */
+    public boolean sample(long timestamp, float[] out) {
+        if (size == 0) {
+            return false;
+        }
+
+        // Find the newest sample not newer than timestamp, searching from the newest.
+        int i = size - 1;
+        while (i > 0 && timestamps[slot(i)] > timestamp) {
+            i--;
+        }
+
+        int before = slot(i);
+        if (i == size - 1 || timestamps[before] > timestamp) {
+            // Newer than the newest or older than the oldest sample.
+            System.arraycopy(values, before * AXES, out, 0, AXES);
+            return true;
+        }
+
+        int after = slot(i + 1);
+        float fraction = (float) (timestamp - timestamps[before]) / (timestamps[after] - timestamps[before]);
+        for (int axis = 0; axis < AXES; axis++) {
+            float v0 = values[before * AXES + axis];
+            float v1 = values[after * AXES + axis];
+            out[axis] = v0 + fraction * (v1 - v0);
+        }
+        return true;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private int slot(int i) {
+        return (head + i) % timestamps.length;
+    }
+}
@@ -1,16 +1,18 @@
 package com.tracqi.fsensor.rotation.fusion.complementary;
 
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
 import com.tracqi.fsensor.math.gravity.Gravity;
+import com.tracqi.fsensor.rotation.fusion.DisturbanceDetector;
 import com.tracqi.fsensor.rotation.fusion.FusedRotation;
+import com.tracqi.fsensor.rotation.fusion.SensorSampleBuffer;
 import com.tracqi.fsensor.math.angle.Angles;
+import com.tracqi.fsensor.math.rotation.MutableQuaternion;
 import com.tracqi.fsensor.math.rotation.Rotation;
-
-import org.apache.commons.math3.complex.Quaternion;
+import com.tracqi.fsensor.sensor.SensorHub;
+import com.tracqi.fsensor.sensor.SensorSampleListener;
+import com.tracqi.fsensor.sensor.SensorSource;
 
 /*
  * Copyright 2024, Tracqi Technology, LLC
@@ -78,6 +80,11 @@ import org.apache.commons.math3.complex.Quaternion;
  * intervals. This is equivalent to low-pass filtering of the accelerometer and
  * magnetic field sensor signals and high-pass filtering of the gyroscope
  * signals.
+ * <p>
+ * The weight of the magnetometer/acceleration orientation adapts to every
+ * sample with a {@link DisturbanceDetector}. It is ignored during linear
+ * acceleration and magnetic disturbances, and weighs more while the device is
+ * stationary.
  *
  */
 public class ComplimentaryRotation extends FusedRotation {
@@ -86,16 +93,28 @@ public class ComplimentaryRotation extends FusedRotation {
 
     private static final float DEFAULT_TIME_CONSTANT = 0.18f;
 
-    private final SensorManager sensorManager;
-    private final SensorEventListener sensorEventListener = new SensorListener();
+    private final SensorSource sensorSource;
+    private final SensorSampleListener sensorSampleListener = new SensorListener();
+
+    // Acceleration and magnetic samples, read at the gyroscope timestamps.
+    private final SensorSampleBuffer accelerationBuffer = new SensorSampleBuffer();
+    private final SensorSampleBuffer magneticBuffer = new SensorSampleBuffer();
 
     private final float[] acceleration = new float[3];
     private final float[] magnetic = new float[3];
-    private final float[] rotation = new float[3];
 
     private final float[] output = new float[3];
 
-    private long rotationTimestamp;
+    // Scratch storage for calculateFusedOrientation().
+    private final float[] orientation = new float[3];
+    private final float[] gravity = new float[3];
+    private final float[] rotationMatrix = new float[9];
+    private final MutableQuaternion rotationVectorAccelerationMagnetic = new MutableQuaternion();
+    private final MutableQuaternion result = new MutableQuaternion();
+    private boolean hasResult;
+
+    private final DisturbanceDetector disturbanceDetector = new DisturbanceDetector();
+    private boolean adaptive = true;
 
     private long timestamp;
 
@@ -108,24 +127,43 @@ public class ComplimentaryRotation extends FusedRotation {
      * Initialize a singleton instance.
      */
     public ComplimentaryRotation(SensorManager sensorManager) {
-        this.sensorManager = sensorManager;
+        this(SensorHub.getInstance(sensorManager));
     }
 
     public ComplimentaryRotation(SensorManager sensorManager, float timeConstant) {
-        this.sensorManager = sensorManager;
+        this(SensorHub.getInstance(sensorManager), timeConstant);
+    }
+
+    public ComplimentaryRotation(SensorSource sensorSource) {
+        this(sensorSource, DEFAULT_TIME_CONSTANT);
+    }
+
+    public ComplimentaryRotation(SensorSource sensorSource, float timeConstant) {
+        this.sensorSource = sensorSource;
         this.timeConstant = timeConstant;
     }
 
     @Override
     public void start(int sensorDelay) {
-        sensorManager.registerListener(sensorEventListener, sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER), sensorDelay);
-        sensorManager.registerListener(sensorEventListener, sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD), sensorDelay);
-        sensorManager.registerListener(sensorEventListener, sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE), sensorDelay);
+        start(sensorDelay, 0);
+    }
+
+    @Override
+    public void start(int sensorDelay, int maxReportLatencyUs) {
+        accelerationBuffer.clear();
+        magneticBuffer.clear();
+        disturbanceDetector.reset();
+        timestamp = 0;
+        hasResult = false;
+
+        sensorSource.registerListener(sensorSampleListener, Sensor.TYPE_ACCELEROMETER, sensorDelay, maxReportLatencyUs);
+        sensorSource.registerListener(sensorSampleListener, Sensor.TYPE_MAGNETIC_FIELD, sensorDelay, maxReportLatencyUs);
+        sensorSource.registerListener(sensorSampleListener, Sensor.TYPE_GYROSCOPE, sensorDelay, maxReportLatencyUs);
     }
 
     @Override
     public void stop() {
-        sensorManager.unregisterListener(sensorEventListener);
+        sensorSource.unregisterListener(sensorSampleListener);
     }
 
     @Override
@@ -133,19 +171,23 @@ public class ComplimentaryRotation extends FusedRotation {
         return this.output;
     }
 
-    private void copyAcceleration(float[] rawAcceleration) {
-        System.arraycopy(rawAcceleration, 0, this.acceleration, 0, this.acceleration.length);
-    }
-
-    private void copyMagnetic(float[] magnetic) {
-        System.arraycopy(magnetic, 0, this.magnetic, 0, this.magnetic.length);
+    @Override
+    public boolean getQuaternion(MutableQuaternion out) {
+        if (!hasResult) {
+            return false;
+        }
+        out.set(result);
+        return true;
     }
 
-    private void copyRotation(float[] rotation) {
-        System.arraycopy(rotation, 0, this.rotation, 0, this.rotation.length);
+    /**
+     * Adapt the weight of the acceleration and magnetic orientation to disturbances, true by default. Otherwise it
+     * only depends on the time constant.
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
     }
 
-
     /**
      * Calculate the fused orientation of the device.
      * <p>
@@ -160,23 +202,35 @@ public class ComplimentaryRotation extends FusedRotation {
      * [1]Y points north and is tangential to the ground.
      * [2]Z points towards the sky and is perpendicular to the ground.
      *
+     * The orientation is calculated at every gyroscope sample, with the acceleration and magnetic
+     * measurements at its timestamp.
+     *
      * @param gyroscope the gyroscope measurements.
      * @param timestamp the gyroscope timestamp
      * @return An orientation vector -> @link SensorManager#getOrientation(float[], float[])}
      */
-    private void calculateFusedOrientation(float[] gyroscope, long timestamp, float[] acceleration, float[] magnetic) {
+    private void calculateFusedOrientation(float[] gyroscope, long timestamp) {
         if (isBaseOrientationSet()) {
-            if (this.timestamp != 0) {
+            if (this.timestamp != 0 && timestamp > this.timestamp) {
                 final float dT = (timestamp - this.timestamp) * NS2S;
 
+                accelerationBuffer.sample(timestamp, acceleration);
+                magneticBuffer.sample(timestamp, magnetic);
+
                 float alpha = timeConstant / (timeConstant + dT);
                 float oneMinusAlpha = (1.0f - alpha);
 
+                if (adaptive) {
+                    disturbanceDetector.update(acceleration, magnetic, gyroscope, dT);
+                    oneMinusAlpha = Math.min(1, oneMinusAlpha * disturbanceDetector.getMeasurementWeight());
+                    alpha = 1 - oneMinusAlpha;
+                }
+
                 // Get last known orientation
-                float[] orientation = Angles.getAngles(rotationVector.getQ0(), rotationVector.getQ1(), rotationVector.getQ2(), rotationVector.getQ3());
+                Angles.getAngles(rotationVector.w, rotationVector.x, rotationVector.y, rotationVector.z, orientation);
 
                 // Calculate the gravity vector from the orientation
-                float[] gravity = Gravity.getGravityFromOrientation(orientation);
+                Gravity.getGravityFromOrientation(orientation, gravity);
 
                 for(int i = 0; i < gravity.length; i++) {
                     // Apply acceleration sensor
@@ -185,25 +239,31 @@ public class ComplimentaryRotation extends FusedRotation {
                 }
 
                 // Get orientation from acceleration and magnetic
-                Quaternion rotationVectorAccelerationMagnetic = Rotation.getOrientationVector(gravity, magnetic);
+                boolean hasAccelerationMagnetic = Rotation.getOrientationVector(gravity, magnetic, rotationMatrix, rotationVectorAccelerationMagnetic);
 
-                if (rotationVectorAccelerationMagnetic != null) {
+                // The gyroscope is integrated at its full rate.
+                Rotation.integrateGyroscopeRotation(rotationVector, gyroscope, dT, EPSILON, rotationVector);
 
-                    rotationVector = Rotation.integrateGyroscopeRotation(rotationVector, gyroscope, dT, EPSILON);
+                if (hasAccelerationMagnetic) {
+                    // q and -q are the same rotation, blend the one on the side of the gyroscope.
+                    MutableQuaternion q = rotationVectorAccelerationMagnetic;
+                    if (rotationVector.w * q.w + rotationVector.x * q.x + rotationVector.y * q.y + rotationVector.z * q.z < 0) {
+                        oneMinusAlpha = -oneMinusAlpha;
+                    }
 
-                    // Apply the complementary fusedOrientation. // We multiply each rotation by their
-                    // coefficients (scalar matrices)...
-                    Quaternion scaledRotationVectorAccelerationMagnetic = rotationVectorAccelerationMagnetic.multiply(oneMinusAlpha);
-
-                    // Scale our quaternion for the gyroscope
-                    Quaternion scaledRotationVectorGyroscope = rotationVector.multiply(alpha);
-
-                    //...and then add the two quaternions together.
+                    // Apply the complementary fusedOrientation. We scale the rotation of the
+                    // gyroscope and of acceleration/magnetic by their coefficients and add them.
                     // output[0] = alpha * output[0] + (1 - alpha) * input[0];
-                    Quaternion result = scaledRotationVectorGyroscope.add(scaledRotationVectorAccelerationMagnetic);
+                    result.scaleAdd(alpha, rotationVector, oneMinusAlpha, rotationVectorAccelerationMagnetic);
+                    // The blend of two unit quaternions is shorter than one.
+                    result.normalize(result.w, result.x, result.y, result.z);
+                    hasResult = true;
 
-                    float[] angles = Angles.getAngles(result.getQ0(), result.getQ1(), result.getQ2(), result.getQ3());
-                    System.arraycopy(angles, 0, this.output, 0, angles.length);
+                    // The fused rotation is the state the next gyroscope sample is integrated from,
+                    // so the acceleration/magnetic rotation corrects the drift of the gyroscope.
+                    rotationVector.set(result);
+
+                    Angles.getAngles(result.w, result.x, result.y, result.z, this.output);
                 }
             }
 
@@ -213,40 +273,31 @@ public class ComplimentaryRotation extends FusedRotation {
         }
     }
 
-    private class SensorListener implements SensorEventListener {
-        private boolean hasAcceleration = false;
-        private boolean hasRotation = false;
-        private boolean hasMagnetic = false;
-
+    /**
+     * Buffers the acceleration and magnetic samples and fuses at every gyroscope sample.
+     */
+    private class SensorListener implements SensorSampleListener {
         @Override
-        public void onSensorChanged(SensorEvent event) {
-            if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-                copyAcceleration(event.values);
-                hasAcceleration = true;
-            } else if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-                copyMagnetic(event.values);
-                hasMagnetic = true;
-            } else if (event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
-                copyRotation(event.values);
-                rotationTimestamp = event.timestamp;
-                hasRotation = true;
-            }
-
-            if (hasAcceleration && hasRotation && hasMagnetic) {
-                hasAcceleration = false;
-                hasRotation = false;
-                hasMagnetic = false;
+        public void onSensorChanged(int sensorType, int accuracy, long timestamp, float[] values) {
+            if (sensorType == Sensor.TYPE_ACCELEROMETER) {
+                accelerationBuffer.add(timestamp, values);
+            } else if (sensorType == Sensor.TYPE_MAGNETIC_FIELD) {
+                magneticBuffer.add(timestamp, values);
+            } else if (sensorType == Sensor.TYPE_GYROSCOPE) {
+                if (accelerationBuffer.isEmpty() || magneticBuffer.isEmpty()) {
+                    return;
+                }
 
                 if (!isBaseOrientationSet()) {
-                    setBaseOrientation(Rotation.getOrientationVector(acceleration, magnetic));
+                    accelerationBuffer.sample(timestamp, acceleration);
+                    magneticBuffer.sample(timestamp, magnetic);
+                    if (Rotation.getOrientationVector(acceleration, magnetic, rotationMatrix, rotationVectorAccelerationMagnetic)) {
+                        setBaseOrientation(rotationVectorAccelerationMagnetic);
+                    }
                 } else {
-                    calculateFusedOrientation(rotation, rotationTimestamp, acceleration, magnetic);
+                    calculateFusedOrientation(values, timestamp);
                 }
             }
         }
-
-        @Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {
-        }
     }
 }
@@ -1,25 +1,25 @@
 package com.tracqi.fsensor.rotation.fusion.kalman;
 
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
-import com.tracqi.fsensor.math.gravity.Gravity;
+import com.tracqi.fsensor.rotation.fusion.DisturbanceDetector;
 import com.tracqi.fsensor.rotation.fusion.FusedRotation;
+import com.tracqi.fsensor.rotation.fusion.SensorSampleBuffer;
 import com.tracqi.fsensor.rotation.fusion.complementary.ComplimentaryRotation;
-import com.tracqi.fsensor.rotation.fusion.kalman.filter.KalmanFilter;
+import com.tracqi.fsensor.rotation.fusion.kalman.filter.QuaternionKalmanFilter;
 import com.tracqi.fsensor.rotation.fusion.kalman.filter.RotationProcessModel;
 import com.tracqi.fsensor.rotation.fusion.kalman.filter.RotationMeasurementModel;
 import com.tracqi.fsensor.math.angle.Angles;
+import com.tracqi.fsensor.math.rotation.MutableQuaternion;
 import com.tracqi.fsensor.math.rotation.Rotation;
+import com.tracqi.fsensor.sensor.SensorHub;
+import com.tracqi.fsensor.sensor.SensorSampleListener;
+import com.tracqi.fsensor.sensor.SensorSource;
 
-import org.apache.commons.math3.complex.Quaternion;
 import org.apache.commons.math3.filter.MeasurementModel;
 import org.apache.commons.math3.filter.ProcessModel;
 
-import java.util.Arrays;
-
 /*
  * Copyright 2018, Kircher Electronics, LLC
  *
@@ -59,54 +59,90 @@ import java.util.Arrays;
  * ideal method because quaternions are not subject to many of the singularties
  * of rotation matrices, such as gimbal lock.
  * <p>
+ * The measurement noise adapts to every sample with a {@link DisturbanceDetector}.
+ * It grows during linear acceleration and magnetic disturbances, and shrinks
+ * while the device is stationary. The process noise grows with the time between
+ * gyroscope samples, and the estimate is the rotation the gyroscope integrates
+ * from, so the gyroscope does not drift away from it.
  */
 
 public class KalmanRotation extends FusedRotation {
 
     private static final String TAG = ComplimentaryRotation.class.getSimpleName();
 
-    private final SensorManager sensorManager;
-    private final SensorEventListener sensorEventListener = new SensorListener();
+    // The measurement noise grows at most by the inverse while disturbed.
+    private static final float MIN_MEASUREMENT_WEIGHT = 0.0001f;
+    // The process noise of the model is the uncertainty of this many seconds of gyroscope integration.
+    private static final float PROCESS_NOISE_TIME = 10;
+
+    private final SensorSource sensorSource;
+    private final SensorSampleListener sensorSampleListener = new SensorListener();
 
-    private final KalmanFilter kalmanFilter;
+    private final QuaternionKalmanFilter kalmanFilter;
 
     private volatile float dT;
 
+    // Acceleration and magnetic samples, read at the gyroscope timestamps.
+    private final SensorSampleBuffer accelerationBuffer = new SensorSampleBuffer();
+    private final SensorSampleBuffer magneticBuffer = new SensorSampleBuffer();
+
     private final float[] magnetic = new float[3];
     private final float[] acceleration = new float[3];
-    private final float[] rotation = new float[3];
 
     private final float[] output = new float[3];
 
-    private long rotationTimestamp;
-
     private long timestamp;
 
-    private volatile Quaternion rotationVectorAccelerationMagnetic;
+    // Scratch storage for calculateFusedOrientation().
+    private final float[] rotationMatrix = new float[9];
+    private final MutableQuaternion rotationVectorAccelerationMagnetic = new MutableQuaternion();
     private final double[] vectorGyroscope = new double[4];
     private final double[] vectorAccelerationMagnetic = new double[4];
+    private final double[] stateEstimation = new double[4];
+    private boolean hasStateEstimation;
+
+    private final DisturbanceDetector disturbanceDetector = new DisturbanceDetector();
+    private boolean adaptive = true;
 
 
     public KalmanRotation(SensorManager sensorManager) {
-        this.sensorManager = sensorManager;
-        this.kalmanFilter = new KalmanFilter(new RotationProcessModel(), new RotationMeasurementModel());
+        this(SensorHub.getInstance(sensorManager));
     }
 
     public KalmanRotation(SensorManager sensorManager, ProcessModel processModel, MeasurementModel measurementModel) {
-        this.sensorManager = sensorManager;
-        this.kalmanFilter = new KalmanFilter(processModel, measurementModel);
+        this(SensorHub.getInstance(sensorManager), processModel, measurementModel);
+    }
+
+    public KalmanRotation(SensorSource sensorSource) {
+        this(sensorSource, new RotationProcessModel(), new RotationMeasurementModel());
+    }
+
+    public KalmanRotation(SensorSource sensorSource, ProcessModel processModel, MeasurementModel measurementModel) {
+        this.sensorSource = sensorSource;
+        this.kalmanFilter = new QuaternionKalmanFilter(processModel, measurementModel);
     }
 
     @Override
     public void start(int sensorDelay) {
-        sensorManager.registerListener(sensorEventListener, sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER), sensorDelay);
-        sensorManager.registerListener(sensorEventListener, sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD), sensorDelay);
-        sensorManager.registerListener(sensorEventListener, sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE), sensorDelay);
+        start(sensorDelay, 0);
+    }
+
+    @Override
+    public void start(int sensorDelay, int maxReportLatencyUs) {
+        accelerationBuffer.clear();
+        magneticBuffer.clear();
+        disturbanceDetector.reset();
+        timestamp = 0;
+        hasStateEstimation = false;
+
+        sensorSource.registerListener(sensorSampleListener, Sensor.TYPE_ACCELEROMETER, sensorDelay, maxReportLatencyUs);
+        sensorSource.registerListener(sensorSampleListener, Sensor.TYPE_MAGNETIC_FIELD, sensorDelay, maxReportLatencyUs);
+        sensorSource.registerListener(sensorSampleListener, Sensor.TYPE_GYROSCOPE, sensorDelay, maxReportLatencyUs);
     }
 
     @Override
     public void stop() {
-        sensorManager.unregisterListener(sensorEventListener);
+        sensorSource.unregisterListener(sensorSampleListener);
     }
 
     @Override
@@ -114,62 +150,71 @@ public class KalmanRotation extends FusedRotation {
         return output;
     }
 
-
-    private void copyAcceleration(float[] rawAcceleration) {
-        System.arraycopy(rawAcceleration, 0, this.acceleration, 0, this.acceleration.length);
+    @Override
+    public boolean getQuaternion(MutableQuaternion out) {
+        if (!hasStateEstimation) {
+            return false;
+        }
+        // The state is x, y, z, w.
+        out.normalize(stateEstimation[3], stateEstimation[0], stateEstimation[1], stateEstimation[2]);
+        return true;
     }
 
-    private void copyMagnetic(float[] magnetic) {
-        System.arraycopy(magnetic, 0, this.magnetic, 0, this.magnetic.length);
-    }
 
-    private void copyRotation(float[] rotation) {
-        System.arraycopy(rotation, 0, this.rotation, 0, this.rotation.length);
+    /**
+     * Adapt the measurement noise to disturbances, true by default. Otherwise it is the noise of the measurement model.
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        kalmanFilter.setNoiseScale(1, 1);
     }
 
     /**
-     * Calculate the fused orientation of the device.
+     * Calculate the fused orientation of the device at a gyroscope sample.
      *
-     * @param gyroscope    the gyroscope measurements.
-     * @param timestamp    the gyroscope timestamp
-     * @param acceleration the acceleration measurements
-     * @param magnetic     the magnetic measurements
-     * @return the fused orientation estimation.
+     * @param gyroscope the gyroscope measurements.
+     * @param timestamp the gyroscope timestamp
      */
-    private void calculateFusedOrientation(float[] gyroscope, long timestamp, float[] acceleration, float[] magnetic) {
+    private void calculateFusedOrientation(float[] gyroscope, long timestamp) {
         if (isBaseOrientationSet()) {
-            if (this.timestamp != 0) {
+            if (this.timestamp != 0 && timestamp > this.timestamp) {
                 dT = (timestamp - this.timestamp) * NS2S;
-                float timeConstant = 0.075f;
-                float alpha = timeConstant / (timeConstant + dT);
-                float oneMinusAlpha = (1.0f - alpha);
 
-                // Get last known orientation
-                float[] orientation = Angles.getAngles(rotationVector.getQ0(), rotationVector.getQ1(), rotationVector.getQ2(), rotationVector.getQ3());
+                // Acceleration and magnetic at the gyroscope timestamp
+                accelerationBuffer.sample(timestamp, acceleration);
+                magneticBuffer.sample(timestamp, magnetic);
+
+                // The filter smooths the acceleration/magnetic rotation, it is not low-passed before.
+                boolean hasAccelerationMagnetic = Rotation.getOrientationVector(acceleration, magnetic, rotationMatrix, rotationVectorAccelerationMagnetic);
 
-                // Calculate the gravity vector from the orientation
-                float[] gravity = Gravity.getGravityFromOrientation(orientation);
+                // The gyroscope is integrated at its full rate.
+                Rotation.integrateGyroscopeRotation(rotationVector, gyroscope, dT, EPSILON, rotationVector);
 
-                for(int i = 0; i < gravity.length; i++) {
-                    // Apply acceleration sensor
-                    // output[0] = alpha * output[0] + (1 - alpha) * input[0];
-                    gravity[i] = alpha * gravity[i] + oneMinusAlpha * acceleration[i];
+                float weight = 1;
+                if (adaptive) {
+                    disturbanceDetector.update(acceleration, magnetic, gyroscope, dT);
+                    weight = Math.max(MIN_MEASUREMENT_WEIGHT, disturbanceDetector.getMeasurementWeight());
                 }
 
-                rotationVectorAccelerationMagnetic = Rotation.getOrientationVector(gravity, magnetic);
+                if (hasAccelerationMagnetic) {
+                    MutableQuaternion q = rotationVectorAccelerationMagnetic;
+                    // q and -q are the same rotation, correct with the one on the side of the gyroscope.
+                    double sign = rotationVector.w * q.w + rotationVector.x * q.x + rotationVector.y * q.y + rotationVector.z * q.z < 0 ? -1 : 1;
 
-                if(rotationVectorAccelerationMagnetic != null) {
-                    rotationVector = Rotation.integrateGyroscopeRotation(rotationVector, gyroscope, dT, EPSILON);
+                    // The state is x, y, z, w.
+                    vectorGyroscope[0] = rotationVector.x;
+                    vectorGyroscope[1] = rotationVector.y;
+                    vectorGyroscope[2] = rotationVector.z;
+                    vectorGyroscope[3] = rotationVector.w;
 
-                    vectorGyroscope[0] = (float) rotationVector.getVectorPart()[0];
-                    vectorGyroscope[1] = (float) rotationVector.getVectorPart()[1];
-                    vectorGyroscope[2] = (float) rotationVector.getVectorPart()[2];
-                    vectorGyroscope[3] = (float) rotationVector.getScalarPart();
+                    vectorAccelerationMagnetic[0] = sign * q.x;
+                    vectorAccelerationMagnetic[1] = sign * q.y;
+                    vectorAccelerationMagnetic[2] = sign * q.z;
+                    vectorAccelerationMagnetic[3] = sign * q.w;
 
-                    vectorAccelerationMagnetic[0] = (float) rotationVectorAccelerationMagnetic.getVectorPart()[0];
-                    vectorAccelerationMagnetic[1] = (float) rotationVectorAccelerationMagnetic.getVectorPart()[1];
-                    vectorAccelerationMagnetic[2] = (float) rotationVectorAccelerationMagnetic.getVectorPart()[2];
-                    vectorAccelerationMagnetic[3] = (float) rotationVectorAccelerationMagnetic.getScalarPart();
+                    // The gyroscope is uncertain by the time it integrated, the acceleration/magnetic
+                    // rotation by its disturbances.
+                    kalmanFilter.setNoiseScale(dT / PROCESS_NOISE_TIME, 1 / weight);
 
                     // Apply the Kalman fusedOrientation... Note that the prediction and correction
                     // inputs could be swapped, but the fusedOrientation is much more stable in this
@@ -178,11 +223,14 @@ public class KalmanRotation extends FusedRotation {
                     kalmanFilter.correct(vectorAccelerationMagnetic);
 
                     // rotation estimation.
-                    Quaternion result = new Quaternion(kalmanFilter.getStateEstimation()[3], Arrays.copyOfRange(kalmanFilter.getStateEstimation(), 0, 3));
+                    kalmanFilter.getStateEstimation(stateEstimation);
+                    hasStateEstimation = true;
 
-                    float[] angles = Angles.getAngles(result.getQ0(), result.getQ1(), result.getQ2(), result.getQ3());
+                    // The estimate is the state the next gyroscope sample is integrated from,
+                    // so the acceleration/magnetic rotation corrects the drift of the gyroscope.
+                    rotationVector.normalize(stateEstimation[3], stateEstimation[0], stateEstimation[1], stateEstimation[2]);
 
-                    System.arraycopy(angles, 0, this.output, 0, angles.length);
+                    Angles.getAngles(rotationVector.w, rotationVector.x, rotationVector.y, rotationVector.z, this.output);
                 }
             }
             this.timestamp = timestamp;
@@ -191,41 +239,31 @@ public class KalmanRotation extends FusedRotation {
         }
     }
 
-    private class SensorListener implements SensorEventListener {
-        private boolean hasAcceleration = false;
-        private boolean hasRotation = false;
-        private boolean hasMagnetic = false;
-
+    /**
+     * Buffers the acceleration and magnetic samples and fuses at every gyroscope sample.
+     */
+    private class SensorListener implements SensorSampleListener {
         @Override
-        public void onSensorChanged(SensorEvent event) {
-            if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-                copyAcceleration(event.values);
-                hasAcceleration = true;
-            } else if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-                copyMagnetic(event.values);
-                hasMagnetic = true;
-            } else if (event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
-                copyRotation(event.values);
-                rotationTimestamp = event.timestamp;
-                hasRotation = true;
-            }
-
-            if (hasAcceleration && hasRotation && hasMagnetic) {
-                hasAcceleration = false;
-                hasRotation = false;
-                hasMagnetic = false;
+        public void onSensorChanged(int sensorType, int accuracy, long timestamp, float[] values) {
+            if (sensorType == Sensor.TYPE_ACCELEROMETER) {
+                accelerationBuffer.add(timestamp, values);
+            } else if (sensorType == Sensor.TYPE_MAGNETIC_FIELD) {
+                magneticBuffer.add(timestamp, values);
+            } else if (sensorType == Sensor.TYPE_GYROSCOPE) {
+                if (accelerationBuffer.isEmpty() || magneticBuffer.isEmpty()) {
+                    return;
+                }
 
                 if (!isBaseOrientationSet()) {
-                    setBaseOrientation(Rotation.getOrientationVector(acceleration, magnetic));
+                    accelerationBuffer.sample(timestamp, acceleration);
+                    magneticBuffer.sample(timestamp, magnetic);
+                    if (Rotation.getOrientationVector(acceleration, magnetic, rotationMatrix, rotationVectorAccelerationMagnetic)) {
+                        setBaseOrientation(rotationVectorAccelerationMagnetic);
+                    }
                 } else {
-                    calculateFusedOrientation(rotation, rotationTimestamp, acceleration, magnetic);
+                    calculateFusedOrientation(values, timestamp);
                 }
             }
         }
-
-        @Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {
-        }
     }
 }
-
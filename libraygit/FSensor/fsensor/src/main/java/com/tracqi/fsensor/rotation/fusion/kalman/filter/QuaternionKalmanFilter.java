@@ -0,0 +1,312 @@
+package com.tracqi.fsensor.rotation.fusion.kalman.filter;
+
+import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.filter.MeasurementModel;
+import org.apache.commons.math3.filter.ProcessModel;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.linear.SingularMatrixException;
+import org.apache.commons.math3.util.MathUtils;
+
+/*
+ * Copyright 2018, Kircher Electronics, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A Kalman filter specialized for the four element quaternion state of
+ * {@link com.tracqi.fsensor.rotation.fusion.kalman.KalmanRotation}.
+ * <p>
+ * It computes exactly what {@link KalmanFilter} computes, but on preallocated
+ * row-major double[16] matrices with fixed 4x4 loops, and it inverts the
+ * innovation covariance S = H * P * H' + R in closed form instead of running a
+ * Cholesky decomposition. predict() and correct() do not allocate, so the
+ * filter can run at gyroscope rate without producing garbage.
+ * <p>
+ * The process and measurement noise are read from the models on every call,
+ * like {@link KalmanFilter} does, so models may change them over time.
+ */
+public class QuaternionKalmanFilter {
+
+    private static final int N = 4;
+
+    private final ProcessModel processModel;
+    private final MeasurementModel measurementModel;
+
+    // A, A', H and H'
+    private final double[] transition = new double[N * N];
+    private final double[] transitionT = new double[N * N];
+    private final double[] measurement = new double[N * N];
+    private final double[] measurementT = new double[N * N];
+
+    private final double[] state = new double[N];
+    private final double[] errorCovariance = new double[N * N];
+
+    // Scratch storage, reused by every call.
+    private final double[] noise = new double[N * N];
+    private final double[] tmp = new double[N * N];
+    private final double[] s = new double[N * N];
+    private final double[] sInverse = new double[N * N];
+    private final double[] gain = new double[N * N];
+    private final double[] innovation = new double[N];
+
+    private double processNoiseScale = 1;
+    private double measurementNoiseScale = 1;
+
+    public QuaternionKalmanFilter() {
+        this(new RotationProcessModel(), new RotationMeasurementModel());
+    }
+
+    public QuaternionKalmanFilter(ProcessModel processModel, MeasurementModel measurementModel) {
+        MathUtils.checkNotNull(processModel);
+        MathUtils.checkNotNull(measurementModel);
+
+        this.processModel = processModel;
+        this.measurementModel = measurementModel;
+
+        load(processModel.getStateTransitionMatrix(), transition);
+        transpose(transition, transitionT);
+        load(measurementModel.getMeasurementMatrix(), measurement);
+        transpose(measurement, measurementT);
+
+        // Fail early on models of the wrong size.
+        load(processModel.getProcessNoise(), noise);
+        load(measurementModel.getMeasurementNoise(), noise);
+
+        RealVector initialState = processModel.getInitialStateEstimate();
+        if (initialState != null) {
+            if (initialState.getDimension() != N) {
+                throw new DimensionMismatchException(initialState.getDimension(), N);
+            }
+            for (int i = 0; i < N; i++) {
+                state[i] = initialState.getEntry(i);
+            }
+        }
+
+        // initialize the error covariance to the process noise if it is not
+        // available from the process model
+        RealMatrix initialCovariance = processModel.getInitialErrorCovariance();
+        load(initialCovariance != null ? initialCovariance : processModel.getProcessNoise(), errorCovariance);
+    }
+
+    public int getStateDimension() {
+        return N;
+    }
+
+    public int getMeasurementDimension() {
+        return N;
+    }
+
+    /**
+     * Copies the state estimation into the given array of length 4.
+     */
+    public void getStateEstimation(double[] out) {
+        System.arraycopy(state, 0, out, 0, N);
+    }
+
+    /**
+     * Returns a copy of the state estimation, as {@link KalmanFilter} does.
+     */
+    public double[] getStateEstimation() {
+        return state.clone();
+    }
+
+    /**
+     * Copies the row-major error covariance into the given array of length 16.
+     */
+    public void getErrorCovariance(double[] out) {
+        System.arraycopy(errorCovariance, 0, out, 0, N * N);
+    }
+
+    /**
+     * Scales the noise of the models for the following predictions and corrections, so the noise can follow the
+     * conditions of every sample without changing the models.
+     *
+     * @param processNoiseScale     the factor of the process noise Q.
+     * @param measurementNoiseScale the factor of the measurement noise R.
+     */
+    public void setNoiseScale(double processNoiseScale, double measurementNoiseScale) {
+        this.processNoiseScale = processNoiseScale;
+        this.measurementNoiseScale = measurementNoiseScale;
+    }
+
+    /**
+     * Predict the internal state estimation one time step ahead. Like
+     * {@link KalmanFilter#predict(double[])}, the control vector u is taken as
+     * the a priori state.
+     *
+     * @param u the a priori state, or null to keep the current state.
+     */
+    public void predict(double[] u) {
+        if (u != null) {
+            checkDimension(u.length);
+            System.arraycopy(u, 0, state, 0, N);
+        }
+
+        // P(k)- = A * P(k-1) * A' + Q
+        multiply(transition, errorCovariance, tmp);
+        multiply(tmp, transitionT, errorCovariance);
+        load(processModel.getProcessNoise(), noise);
+        for (int i = 0; i < N * N; i++) {
+            errorCovariance[i] += processNoiseScale * noise[i];
+        }
+    }
+
+    /**
+     * Correct the current state estimate with an actual measurement.
+     *
+     * @param z the measurement vector.
+     * @throws SingularMatrixException if the innovation covariance is singular.
+     */
+    public void correct(double[] z) {
+        MathUtils.checkNotNull(z);
+        checkDimension(z.length);
+
+        // S = H * P(k) * H' + R
+        multiply(measurement, errorCovariance, tmp);
+        multiply(tmp, measurementT, s);
+        load(measurementModel.getMeasurementNoise(), noise);
+        for (int i = 0; i < N * N; i++) {
+            s[i] += measurementNoiseScale * noise[i];
+        }
+
+        // Inn = z(k) - H * xHat(k)-
+        for (int r = 0; r < N; r++) {
+            int row = r * N;
+            innovation[r] = z[r] - (measurement[row] * state[0] + measurement[row + 1] * state[1]
+                    + measurement[row + 2] * state[2] + measurement[row + 3] * state[3]);
+        }
+
+        // K(k) = P(k)- * H' * S^-1
+        invertSymmetric(s, sInverse);
+        multiply(errorCovariance, measurementT, tmp);
+        multiply(tmp, sInverse, gain);
+
+        // xHat(k) = xHat(k)- + K * Inn
+        for (int r = 0; r < N; r++) {
+            int row = r * N;
+            state[r] += gain[row] * innovation[0] + gain[row + 1] * innovation[1]
+                    + gain[row + 2] * innovation[2] + gain[row + 3] * innovation[3];
+        }
+
+        // P(k) = (I - K * H) * P(k)-
+        multiply(gain, measurement, tmp);
+        for (int i = 0; i < N * N; i++) {
+            tmp[i] = (i % (N + 1) == 0 ? 1 : 0) - tmp[i];
+        }
+        multiply(tmp, errorCovariance, s);
+        System.arraycopy(s, 0, errorCovariance, 0, N * N);
+    }
+
+    private static void checkDimension(int length) {
+        if (length != N) {
+            throw new DimensionMismatchException(length, N);
+        }
+    }
+
+    private static void load(RealMatrix matrix, double[] out) {
+        MathUtils.checkNotNull(matrix);
+        if (matrix.getRowDimension() != N || matrix.getColumnDimension() != N) {
+            throw new DimensionMismatchException(matrix.getRowDimension() * matrix.getColumnDimension(), N * N);
+        }
+        for (int r = 0; r < N; r++) {
+            for (int c = 0; c < N; c++) {
+                out[r * N + c] = matrix.getEntry(r, c);
+            }
+        }
+    }
+
+    private static void transpose(double[] m, double[] out) {
+        for (int r = 0; r < N; r++) {
+            for (int c = 0; c < N; c++) {
+                out[c * N + r] = m[r * N + c];
+            }
+        }
+    }
+
+    /**
+     * out = a * b for row-major 4x4 matrices. out must not alias a or b.
+     */
+    private static void multiply(double[] a, double[] b, double[] out) {
+        for (int r = 0; r < N * N; r += N) {
+            double a0 = a[r], a1 = a[r + 1], a2 = a[r + 2], a3 = a[r + 3];
+            out[r] = a0 * b[0] + a1 * b[4] + a2 * b[8] + a3 * b[12];
+            out[r + 1] = a0 * b[1] + a1 * b[5] + a2 * b[9] + a3 * b[13];
+            out[r + 2] = a0 * b[2] + a1 * b[6] + a2 * b[10] + a3 * b[14];
+            out[r + 3] = a0 * b[3] + a1 * b[7] + a2 * b[11] + a3 * b[15];
+        }
+    }
+
+    /**
+     * Inverts a symmetric 4x4 matrix from its 2x2 sub-determinants. Only the
+     * upper triangle is computed and mirrored, so the result is exactly
+     * symmetric.
+     */
+    private static void invertSymmetric(double[] m, double[] out) {
+        double a = m[0], b = m[1], c = m[2], d = m[3];
+        double e = m[5], f = m[6], g = m[7];
+        double h = m[10], i = m[11];
+        double j = m[15];
+
+        // 2x2 minors of the first two rows and of the last two rows.
+        double s0 = a * e - b * b;
+        double s1 = a * f - c * b;
+        double s2 = a * g - d * b;
+        double s3 = b * f - c * e;
+        double s4 = b * g - d * e;
+        double s5 = c * g - d * f;
+
+        // The lower rows are (c, f, h, i) and (d, g, i, j).
+        double c0 = c * g - d * f;
+        double c1 = c * i - d * h;
+        double c2 = c * j - d * i;
+        double c3 = f * i - g * h;
+        double c4 = f * j - g * i;
+        double c5 = h * j - i * i;
+
+        double det = s0 * c5 - s1 * c4 + s2 * c3 + s3 * c2 - s4 * c1 + s5 * c0;
+        if (det == 0 || Double.isNaN(det)) {
+            throw new SingularMatrixException();
+        }
+        double invDet = 1 / det;
+
+        double o00 = (e * c5 - f * c4 + g * c3) * invDet;
+        double o01 = (-b * c5 + c * c4 - d * c3) * invDet;
+        double o02 = (g * s5 - i * s4 + j * s3) * invDet;
+        double o03 = (-f * s5 + h * s4 - i * s3) * invDet;
+        double o11 = (a * c5 - c * c2 + d * c1) * invDet;
+        double o12 = (-d * s5 + i * s2 - j * s1) * invDet;
+        double o13 = (c * s5 - h * s2 + i * s1) * invDet;
+        double o22 = (d * s4 - g * s2 + j * s0) * invDet;
+        double o23 = (-c * s4 + f * s2 - i * s0) * invDet;
+        double o33 = (c * s3 - f * s1 + h * s0) * invDet;
+
+        out[0] = o00;
+        out[1] = o01;
+        out[2] = o02;
+        out[3] = o03;
+        out[4] = o01;
+        out[5] = o11;
+        out[6] = o12;
+        out[7] = o13;
+        out[8] = o02;
+        out[9] = o12;
+        out[10] = o22;
+        out[11] = o23;
+        out[12] = o03;
+        out[13] = o13;
+        out[14] = o23;
+        out[15] = o33;
+    }
+}
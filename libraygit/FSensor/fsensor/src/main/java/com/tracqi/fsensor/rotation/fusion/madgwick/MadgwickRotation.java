@@ -0,0 +1,73 @@
+package com.tracqi.fsensor.rotation.fusion.madgwick;
+
+import android.hardware.SensorManager;
+
+import com.tracqi.fsensor.rotation.fusion.AhrsRotation;
+import com.tracqi.fsensor.sensor.SensorHub;
+import com.tracqi.fsensor.sensor.SensorSource;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Madgwick's gradient descent orientation filter.
+ * <p>
+ * Every gyroscope sample, the orientation takes one normalized gradient
+ * descent step of size beta towards the orientation that best explains the
+ * acceleration and magnetic measurements. The gradient of the objective
+ * function is evaluated in the device frame, where it is the error vector of
+ * {@link AhrsRotation}, so the step is a rotation rate of 2 * beta along it.
+ * <p>
+ * Beta is the expected gyroscope error in rad/s. Larger values converge faster
+ * and follow the accelerometer more, smaller values trust the gyroscope.
+ * <p>
+ * S. Madgwick, An efficient orientation filter for inertial and
+ * inertial/magnetic sensor arrays, 2010.
+ */
+public class MadgwickRotation extends AhrsRotation {
+
+    private static final float DEFAULT_BETA = 0.1f;
+
+    private final float beta;
+
+    public MadgwickRotation(SensorManager sensorManager) {
+        this(sensorManager, DEFAULT_BETA);
+    }
+
+    public MadgwickRotation(SensorManager sensorManager, float beta) {
+        this(SensorHub.getInstance(sensorManager), beta);
+    }
+
+    public MadgwickRotation(SensorSource sensorSource) {
+        this(sensorSource, DEFAULT_BETA);
+    }
+
+    public MadgwickRotation(SensorSource sensorSource, float beta) {
+        super(sensorSource);
+        this.beta = beta;
+    }
+
+    @Override
+    protected void applyFeedback(float[] error, float dt, float[] rate) {
+        float norm = (float) Math.sqrt(error[0] * error[0] + error[1] * error[1] + error[2] * error[2]);
+        if (norm > 0) {
+            float gain = 2 * beta / norm;
+            rate[0] += gain * error[0];
+            rate[1] += gain * error[1];
+            rate[2] += gain * error[2];
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.tracqi.fsensor.rotation.fusion.mahony;
+
+import android.hardware.SensorManager;
+
+import com.tracqi.fsensor.rotation.fusion.AhrsRotation;
+import com.tracqi.fsensor.sensor.SensorHub;
+import com.tracqi.fsensor.sensor.SensorSource;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Mahony's nonlinear complementary filter.
+ * <p>
+ * The error vector of {@link AhrsRotation} is fed back into the rate of
+ * rotation by a proportional-integral controller. The proportional gain kp
+ * sets how fast the orientation follows the accelerometer and magnetometer.
+ * The integral gain ki slowly learns the gyroscope bias, zero disables it.
+ * <p>
+ * R. Mahony, T. Hamel, J.-M. Pflimlin, Nonlinear complementary filters on the
+ * special orthogonal group, 2008.
+ */
+public class MahonyRotation extends AhrsRotation {
+
+    private static final float DEFAULT_KP = 0.5f;
+    private static final float DEFAULT_KI = 0.05f;
+
+    private final float kp;
+    private final float ki;
+
+    // The integral of the error, the gyroscope bias estimate in rad/s.
+    private final float[] integral = new float[3];
+
+    public MahonyRotation(SensorManager sensorManager) {
+        this(sensorManager, DEFAULT_KP, DEFAULT_KI);
+    }
+
+    public MahonyRotation(SensorManager sensorManager, float kp, float ki) {
+        this(SensorHub.getInstance(sensorManager), kp, ki);
+    }
+
+    public MahonyRotation(SensorSource sensorSource) {
+        this(sensorSource, DEFAULT_KP, DEFAULT_KI);
+    }
+
+    public MahonyRotation(SensorSource sensorSource, float kp, float ki) {
+        super(sensorSource);
+        this.kp = kp;
+        this.ki = ki;
+    }
+
+    @Override
+    protected void applyFeedback(float[] error, float dt, float[] rate) {
+        for (int i = 0; i < rate.length; i++) {
+            if (ki > 0) {
+                integral[i] += ki * error[i] * dt;
+            }
+            rate[i] += kp * error[i] + integral[i];
+        }
+    }
+
+    @Override
+    protected void reset() {
+        integral[0] = 0;
+        integral[1] = 0;
+        integral[2] = 0;
+    }
+}
@@ -1,13 +1,15 @@
 package com.tracqi.fsensor.rotation.raw;
 
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
 import com.tracqi.fsensor.filter.LowPassFilter;
 import com.tracqi.fsensor.rotation.Rotation;
 import com.tracqi.fsensor.math.gravity.Gravity;
+import com.tracqi.fsensor.math.rotation.MutableQuaternion;
+import com.tracqi.fsensor.sensor.SensorHub;
+import com.tracqi.fsensor.sensor.SensorSampleListener;
+import com.tracqi.fsensor.sensor.SensorSource;
 
 /*
  * Copyright 2024, Tracqi Technology, LLC
@@ -79,26 +81,38 @@ import com.tracqi.fsensor.math.gravity.Gravity;
  */
 public class AccelerationRotation implements Rotation {
     private final float[] rotation = new float[3];
-    private final SensorEventListener sensorEventListener = new SensorListener();
-    private final SensorManager sensorManager;
+    // The filtered acceleration, gravity in the device frame.
+    private final float[] gravity = new float[3];
+    private boolean hasGravity;
+    private final SensorSampleListener sensorSampleListener = new SensorListener();
+    private final SensorSource sensorSource;
     private final LowPassFilter lowPassFilter;
 
     /**
      * Initialize a singleton instance.
      */
     public AccelerationRotation(SensorManager sensorManager, LowPassFilter lowPassFilter) {
-        this.sensorManager = sensorManager;
+        this(SensorHub.getInstance(sensorManager), lowPassFilter);
+    }
+
+    public AccelerationRotation(SensorSource sensorSource, LowPassFilter lowPassFilter) {
+        this.sensorSource = sensorSource;
         this.lowPassFilter = lowPassFilter;
     }
 
     @Override
     public void start(int sensorDelay) {
-        sensorManager.registerListener(sensorEventListener, sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER), sensorDelay);
+        start(sensorDelay, 0);
+    }
+
+    @Override
+    public void start(int sensorDelay, int maxReportLatencyUs) {
+        sensorSource.registerListener(sensorSampleListener, Sensor.TYPE_ACCELEROMETER, sensorDelay, maxReportLatencyUs);
     }
 
     @Override
     public void stop() {
-        sensorManager.unregisterListener(sensorEventListener);
+        sensorSource.unregisterListener(sensorSampleListener);
     }
 
     @Override
@@ -106,19 +120,44 @@ public class AccelerationRotation implements Rotation {
         return rotation;
     }
 
-    private class SensorListener implements SensorEventListener {
+    /**
+     * Copies the shortest rotation of gravity onto the up axis. Without a magnetometer the heading is arbitrary,
+     * east and north are only known to be horizontal.
+     */
+    @Override
+    public boolean getQuaternion(MutableQuaternion out) {
+        if (!hasGravity) {
+            return false;
+        }
+        final double norm = Math.sqrt(gravity[0] * gravity[0] + gravity[1] * gravity[1] + gravity[2] * gravity[2]);
+        if (norm == 0) {
+            return false;
+        }
+        final double gx = gravity[0] / norm, gy = gravity[1] / norm, gz = gravity[2] / norm;
+        if (gz < -0.9999) {
+            // Upside down, any horizontal axis will do.
+            out.set(0, 1, 0, 0);
+        } else {
+            // The half-way quaternion of g and up, (1 + g.up, g x up).
+            out.normalize(1 + gz, gy, -gx, 0);
+        }
+        return true;
+    }
+
+    private class SensorListener implements SensorSampleListener {
 
         @Override
-        public void onSensorChanged(SensorEvent event) {
-            if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-               float[] rotation = Gravity.getOrientationFromGravity(lowPassFilter.filter(event.values));
+        public void onSensorChanged(int sensorType, int accuracy, long timestamp, float[] values) {
+            if (sensorType == Sensor.TYPE_ACCELEROMETER) {
+                float[] filtered = lowPassFilter.filter(values, timestamp);
+                System.arraycopy(filtered, 0, gravity, 0, 3);
+                hasGravity = true;
+
+                float[] rotation = Gravity.getOrientationFromGravity(filtered);
                 AccelerationRotation.this.rotation[0] = rotation[0];
                 AccelerationRotation.this.rotation[1] = rotation[1];
                 AccelerationRotation.this.rotation[2] = rotation[2];
             }
         }
-
-        @Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {}
     }
 }
@@ -1,12 +1,14 @@
 package com.tracqi.fsensor.rotation.raw;
 
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
 import com.tracqi.fsensor.rotation.Rotation;
 import com.tracqi.fsensor.math.angle.Angles;
+import com.tracqi.fsensor.math.rotation.MutableQuaternion;
+import com.tracqi.fsensor.sensor.SensorHub;
+import com.tracqi.fsensor.sensor.SensorSampleListener;
+import com.tracqi.fsensor.sensor.SensorSource;
 
 import org.apache.commons.math3.complex.Quaternion;
 
@@ -81,27 +83,37 @@ import org.apache.commons.math3.complex.Quaternion;
 public class GyroscopeRotation implements Rotation {
     private static final float NS2S = 1.0f / 1000000000.0f;
     private static final float EPSILON = 0.000000001f;
-    private Quaternion rotationQuaternion = Quaternion.IDENTITY;
+    private final MutableQuaternion rotationQuaternion = new MutableQuaternion();
     private final float[] rotation = new float[3];
-    private final SensorEventListener sensorEventListener = new SensorListener();
+    private final SensorSampleListener sensorSampleListener = new SensorListener();
     private long timestamp = 0;
-    private final SensorManager sensorManager;
+    private boolean hasBaseOrientation;
+    private final SensorSource sensorSource;
 
     /**
      * Initialize a singleton instance.
      */
     public GyroscopeRotation(SensorManager sensorManager) {
-        this.sensorManager = sensorManager;
+        this(SensorHub.getInstance(sensorManager));
+    }
+
+    public GyroscopeRotation(SensorSource sensorSource) {
+        this.sensorSource = sensorSource;
     }
 
     @Override
     public void start(int sensorDelay) {
-        sensorManager.registerListener(sensorEventListener, sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE), sensorDelay);
+        start(sensorDelay, 0);
+    }
+
+    @Override
+    public void start(int sensorDelay, int maxReportLatencyUs) {
+        sensorSource.registerListener(sensorSampleListener, Sensor.TYPE_GYROSCOPE, sensorDelay, maxReportLatencyUs);
     }
 
     @Override
     public void stop() {
-        sensorManager.unregisterListener(sensorEventListener);
+        sensorSource.unregisterListener(sensorSampleListener);
     }
 
     @Override
@@ -109,6 +121,19 @@ public class GyroscopeRotation implements Rotation {
         return rotation;
     }
 
+    /**
+     * Copies the orientation rotated from the base orientation. Without one the orientation is relative to the pose the
+     * device started in, not to east, north, up, so there is none until {@link #setBaseOrientation(Quaternion)}.
+     */
+    @Override
+    public boolean getQuaternion(MutableQuaternion out) {
+        if (!hasBaseOrientation) {
+            return false;
+        }
+        out.set(rotationQuaternion);
+        return true;
+    }
+
     /**
      * Set the base orientation (frame of reference) to which all subsequent rotations will be applied.
      * <p>
@@ -121,7 +146,8 @@ public class GyroscopeRotation implements Rotation {
      * @param baseOrientation The base orientation to which all subsequent rotations will be applied.
      */
     public void setBaseOrientation(Quaternion baseOrientation) {
-        rotationQuaternion = baseOrientation;
+        rotationQuaternion.set(baseOrientation);
+        hasBaseOrientation = true;
     }
 
     /**
@@ -140,30 +166,21 @@ public class GyroscopeRotation implements Rotation {
      * @param timestamp the gyroscope timestamp
      */
     private void calculateOrientation(float[] gyroscope, long timestamp) {
-        float[] angles;
         if (this.timestamp != 0) {
             final float dT = (timestamp - this.timestamp) * NS2S;
-            rotationQuaternion = com.tracqi.fsensor.math.rotation.Rotation.integrateGyroscopeRotation(rotationQuaternion, gyroscope, dT, EPSILON);
-            angles = Angles.getAngles(rotationQuaternion.getQ0(), rotationQuaternion.getQ1(), rotationQuaternion.getQ2(), rotationQuaternion.getQ3());
-
-            rotation[0] = angles[0];
-            rotation[1] = angles[1];
-            rotation[2] = angles[2];
+            com.tracqi.fsensor.math.rotation.Rotation.integrateGyroscopeRotation(rotationQuaternion, gyroscope, dT, EPSILON, rotationQuaternion);
+            Angles.getAngles(rotationQuaternion.w, rotationQuaternion.x, rotationQuaternion.y, rotationQuaternion.z, rotation);
         }
 
         this.timestamp = timestamp;
     }
 
-    private class SensorListener implements SensorEventListener {
+    private class SensorListener implements SensorSampleListener {
         @Override
-        public void onSensorChanged(SensorEvent event) {
-            if (event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
-                calculateOrientation(event.values, event.timestamp);
+        public void onSensorChanged(int sensorType, int accuracy, long timestamp, float[] values) {
+            if (sensorType == Sensor.TYPE_GYROSCOPE) {
+                calculateOrientation(values, timestamp);
             }
         }
-
-        @Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {
-        }
     }
 }
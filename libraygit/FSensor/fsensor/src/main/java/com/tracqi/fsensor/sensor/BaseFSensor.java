@@ -1,14 +1,12 @@
 package com.tracqi.fsensor.sensor;
 
 import android.hardware.Sensor;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
 import com.tracqi.fsensor.rotation.Rotation;
 import com.tracqi.fsensor.sensor.acceleration.ComplementaryLinearAccelerationFSensor;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /*
  * Copyright 2024, Tracqi Technology, LLC
@@ -29,47 +27,156 @@ import java.util.List;
 public abstract class BaseFSensor implements FSensor {
     private static final String TAG = ComplementaryLinearAccelerationFSensor.class.getSimpleName();
 
+    private static final int[] SENSOR_TYPES = {Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_MAGNETIC_FIELD, Sensor.TYPE_GYROSCOPE};
+
+    // Null if the samples do not come from a SensorManager.
     protected final SensorManager sensorManager;
-    protected final List<FSensorEventListener> fSensorEventListeners = new ArrayList<>();
+    protected final SensorSource sensorSource;
+
+    // Copy-on-write, so the sensor thread dispatches without locking.
+    private volatile FSensorEventListener[] fSensorEventListeners = new FSensorEventListener[0];
 
     protected final Rotation rotation;
 
     protected final float[] output = new float[3];
 
+    // Reused for every dispatch.
+    private final FSensorEvent event = new FSensorEvent(3);
+
+    // The sensors of the events, resolved when the sensors are registered so the
+    // sensor thread never calls back into the sensor source.
+    private volatile Sensor[] sensors = new Sensor[0];
+
     public BaseFSensor(SensorManager sensorManager, Rotation rotation) {
         this.sensorManager = sensorManager;
+        this.sensorSource = SensorHub.getInstance(sensorManager);
         this.rotation = rotation;
     }
 
+    /**
+     * @param rotation a rotation that uses the same sensorSource.
+     */
+    public BaseFSensor(SensorSource sensorSource, Rotation rotation) {
+        this.sensorManager = sensorSource instanceof SensorHub ? ((SensorHub) sensorSource).getSensorManager() : null;
+        this.sensorSource = sensorSource;
+        this.rotation = rotation;
+    }
+
+    /**
+     * Registers a listener. Events are delivered on the thread of the {@link SensorSource},
+     * for a {@link SensorHub} its sensor thread.
+     */
     @Override
     public void registerListener(FSensorEventListener sensorEventListener, int sensorDelay) {
-        if (fSensorEventListeners.isEmpty()) {
-            registerSensors(sensorDelay);
-            rotation.start(sensorDelay);
+        registerListener(sensorEventListener, sensorDelay, 0);
+    }
+
+    /**
+     * Registers a listener. The latency of the first listener applies until all listeners
+     * are unregistered.
+     */
+    @Override
+    public synchronized void registerListener(FSensorEventListener sensorEventListener, int sensorDelay, int maxReportLatencyUs) {
+        FSensorEventListener[] listeners = fSensorEventListeners;
+        if (indexOf(listeners, sensorEventListener) >= 0) {
+            return;
         }
 
-        fSensorEventListeners.add(sensorEventListener);
+        FSensorEventListener[] grown = Arrays.copyOf(listeners, listeners.length + 1);
+        grown[listeners.length] = sensorEventListener;
+        fSensorEventListeners = grown;
+
+        if (listeners.length == 0) {
+            // The rotation registers first so it has seen an event before it is sampled.
+            rotation.start(sensorDelay, maxReportLatencyUs);
+            registerSensors(sensorDelay, maxReportLatencyUs);
+        }
     }
 
     @Override
-    public void unregisterListener(FSensorEventListener sensorEventListener) {
-        this.fSensorEventListeners.remove(sensorEventListener);
-        if (fSensorEventListeners.isEmpty()) {
+    public synchronized void unregisterListener(FSensorEventListener sensorEventListener) {
+        FSensorEventListener[] listeners = fSensorEventListeners;
+        int index = indexOf(listeners, sensorEventListener);
+        if (index < 0) {
+            return;
+        }
+
+        FSensorEventListener[] shrunk = new FSensorEventListener[listeners.length - 1];
+        System.arraycopy(listeners, 0, shrunk, 0, index);
+        System.arraycopy(listeners, index + 1, shrunk, index, shrunk.length - index);
+        fSensorEventListeners = shrunk;
+
+        if (shrunk.length == 0) {
             unregisterSensors();
             rotation.stop();
         }
     }
 
-    private void registerSensors(int sensorDelay) {
-        sensorManager.registerListener(getSensorEventListener(), sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER), sensorDelay);
-        sensorManager.registerListener(getSensorEventListener(), sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD), sensorDelay);
-        sensorManager.registerListener(getSensorEventListener(), sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE), sensorDelay);
+    /**
+     * @return true while any listener is registered, so the sensors are.
+     */
+    protected boolean hasListeners() {
+        return fSensorEventListeners.length > 0;
+    }
+
+    /**
+     * Delivers {@link #output} to all listeners. All listeners receive the same event,
+     * which is reused for the next dispatch.
+     */
+    protected void dispatch(int sensorType, int accuracy, long timestamp) {
+        event.set(getSensor(sensorType), accuracy, timestamp, output);
+        for (FSensorEventListener sensorEventListener : fSensorEventListeners) {
+            sensorEventListener.onSensorChanged(event);
+        }
+    }
+
+    private Sensor getSensor(int sensorType) {
+        for (Sensor sensor : sensors) {
+            if (sensor != null && sensor.getType() == sensorType) {
+                return sensor;
+            }
+        }
+        return null;
+    }
+
+    private static int indexOf(FSensorEventListener[] listeners, FSensorEventListener sensorEventListener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == sensorEventListener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean flush() {
+        return sensorSource.flush();
+    }
+
+    private void registerSensors(int sensorDelay, int maxReportLatencyUs) {
+        int[] sensorTypes = getSensorTypes();
+        Sensor[] sensors = new Sensor[sensorTypes.length];
+        for (int i = 0; i < sensorTypes.length; i++) {
+            sensors[i] = sensorSource.getDefaultSensor(sensorTypes[i]);
+        }
+        this.sensors = sensors;
+
+        for (int sensorType : sensorTypes) {
+            sensorSource.registerListener(getSensorSampleListener(), sensorType, sensorDelay, maxReportLatencyUs);
+        }
     }
 
     private void unregisterSensors() {
-        sensorManager.unregisterListener(getSensorEventListener());
+        sensorSource.unregisterListener(getSensorSampleListener());
+    }
+
+    /**
+     * @return the sensor types the listener of {@link #getSensorSampleListener()} needs.
+     */
+    protected int[] getSensorTypes() {
+        return SENSOR_TYPES;
     }
 
-    protected abstract SensorEventListener getSensorEventListener();
+    protected abstract SensorSampleListener getSensorSampleListener();
 }
 
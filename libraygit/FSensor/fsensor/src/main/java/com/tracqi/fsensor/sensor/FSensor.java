@@ -19,5 +19,20 @@ package com.tracqi.fsensor.sensor;
 
 public interface FSensor {
     void registerListener(FSensorEventListener sensorEventListener, int sensorDelay);
+
+    /**
+     * Registers a listener and lets the sensors batch their events in the hardware FIFO
+     * for up to maxReportLatencyUs. Events then arrive in bursts, in timestamp order, and
+     * the device sleeps in between.
+     */
+    void registerListener(FSensorEventListener sensorEventListener, int sensorDelay, int maxReportLatencyUs);
+
     void unregisterListener(FSensorEventListener sensorEventListener);
+
+    /**
+     * Delivers the batched events now, for example before the results are shown.
+     *
+     * @return false if the events could not be flushed.
+     */
+    boolean flush();
 }
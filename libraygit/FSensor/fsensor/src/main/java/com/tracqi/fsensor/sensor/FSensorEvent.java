@@ -20,4 +20,70 @@ import androidx.annotation.NonNull;
  * limitations under the License.
  */
 
-public record FSensorEvent(@NonNull Sensor sensor, int accuracy, long timestamp, float[] values ){}
+/**
+ * A sensor event delivered by an {@link FSensor}.
+ * <p>
+ * Like {@link android.hardware.SensorEvent}, events are reused: an FSensor
+ * delivers the same instance to all of its listeners and refills it for the
+ * next event. An event and its values are only valid during
+ * {@link FSensorEventListener#onSensorChanged(FSensorEvent)}. Listeners must
+ * not modify them and must copy what they want to keep.
+ */
+public final class FSensorEvent {
+    public Sensor sensor;
+    public int accuracy;
+    public long timestamp;
+    public final float[] values;
+
+    public FSensorEvent(int size) {
+        this.values = new float[size];
+    }
+
+    /**
+     * Creates an event that shares values.
+     */
+    public FSensorEvent(@NonNull Sensor sensor, int accuracy, long timestamp, float[] values) {
+        this.sensor = sensor;
+        this.accuracy = accuracy;
+        this.timestamp = timestamp;
+        this.values = values;
+    }
+
+    public FSensorEvent set(Sensor sensor, int accuracy, long timestamp) {
+        this.sensor = sensor;
+        this.accuracy = accuracy;
+        this.timestamp = timestamp;
+        return this;
+    }
+
+    /**
+     * Sets the event and copies values into it.
+     */
+    public FSensorEvent set(Sensor sensor, int accuracy, long timestamp, float[] values) {
+        System.arraycopy(values, 0, this.values, 0, this.values.length);
+        return set(sensor, accuracy, timestamp);
+    }
+
+    /**
+     * Sets this to a copy of event.
+     */
+    public FSensorEvent set(FSensorEvent event) {
+        return set(event.sensor, event.accuracy, event.timestamp, event.values);
+    }
+
+    public Sensor sensor() {
+        return sensor;
+    }
+
+    public int accuracy() {
+        return accuracy;
+    }
+
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public float[] values() {
+        return values;
+    }
+}
@@ -0,0 +1,104 @@
+package com.tracqi.fsensor.sensor;
+
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Hands the latest event from the sensor thread to another thread.
+ * <p>
+ * Register the slot with an {@link FSensor}. It keeps a copy of the newest
+ * event only, so a slow reader never queues up stale events. Either poll it
+ * with {@link #read(float[])}, for example once per frame, or construct it
+ * with a {@link Handler} and a listener that is called on the Handler's thread
+ * with the newest event whenever one or more events arrived.
+ */
+public class FSensorEventSlot implements FSensorEventListener {
+
+    private final Handler handler;
+    private final FSensorEventListener listener;
+    private final Runnable deliver = this::deliver;
+
+    private final FSensorEvent latest = new FSensorEvent(3);
+    private boolean updated;
+    private boolean posted;
+
+    // Owned by the Handler thread.
+    private final FSensorEvent delivered = new FSensorEvent(3);
+
+    public FSensorEventSlot() {
+        this.handler = null;
+        this.listener = null;
+    }
+
+    /**
+     * @param handler  the Handler of the thread to call the listener on, usually the main thread.
+     * @param listener called with the newest event. The event is only valid during the call.
+     */
+    public FSensorEventSlot(@NonNull Handler handler, @NonNull FSensorEventListener listener) {
+        this.handler = handler;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onSensorChanged(FSensorEvent event) {
+        boolean post;
+        synchronized (this) {
+            latest.set(event);
+            updated = true;
+            post = handler != null && !posted;
+            posted |= post;
+        }
+
+        if (post) {
+            handler.post(deliver);
+        }
+    }
+
+    /**
+     * Copies the newest values into out.
+     *
+     * @return true if an event arrived since the last read.
+     */
+    public synchronized boolean read(float[] out) {
+        System.arraycopy(latest.values, 0, out, 0, latest.values.length);
+        boolean wasUpdated = updated;
+        updated = false;
+        return wasUpdated;
+    }
+
+    /**
+     * @return the timestamp of the newest event in nanoseconds, 0 if there was none.
+     */
+    public synchronized long getTimestamp() {
+        return latest.timestamp;
+    }
+
+    private void deliver() {
+        synchronized (this) {
+            posted = false;
+            if (!updated) {
+                return;
+            }
+            updated = false;
+            delivered.set(latest);
+        }
+        listener.onSensorChanged(delivered);
+    }
+}
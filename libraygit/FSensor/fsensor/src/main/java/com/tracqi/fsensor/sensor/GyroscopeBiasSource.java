@@ -0,0 +1,221 @@
+package com.tracqi.fsensor.sensor;
+
+import android.hardware.Sensor;
+
+import com.tracqi.fsensor.math.offset.GyroscopeBiasEstimator;
+
+import java.util.Arrays;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A {@link SensorSource} that removes the bias from the gyroscope samples of
+ * another source.
+ * <p>
+ * Any rotation or FSensor created with it integrates corrected rates of
+ * rotation, for example
+ * {@code new GyroscopeRotation(new GyroscopeBiasSource(SensorHub.getInstance(sensorManager)))}.
+ * While gyroscope listeners are registered, the source also listens to the
+ * accelerometer, and a {@link GyroscopeBiasEstimator} learns the bias whenever
+ * the device is still. Both sensors are registered once, with the shortest
+ * period and latency of the gyroscope listeners. Samples of the other sensor
+ * types are passed through untouched.
+ */
+public class GyroscopeBiasSource implements SensorSource {
+
+    private static final SensorSampleListener[] NO_LISTENERS = new SensorSampleListener[0];
+
+    private final SensorSource source;
+    private final GyroscopeBiasEstimator estimator;
+    private final SensorSampleListener sensorSampleListener = new SensorListener();
+
+    // Copy-on-write, so samples are dispatched without locking.
+    private volatile SensorSampleListener[] gyroscopeListeners = NO_LISTENERS;
+    // The period in microseconds and latency of every gyroscope listener, guarded by this.
+    private int[] periods = new int[0];
+    private int[] latencies = new int[0];
+
+    // The period the shared listener is registered with, -1 if not registered.
+    private int registeredPeriod = -1;
+    private int registeredLatency;
+
+    // Owned by the thread the samples are delivered on.
+    private final float[] corrected = new float[3];
+
+    public GyroscopeBiasSource(SensorSource source) {
+        this(source, new GyroscopeBiasEstimator());
+    }
+
+    public GyroscopeBiasSource(SensorSource source, GyroscopeBiasEstimator estimator) {
+        this.source = source;
+        this.estimator = estimator;
+    }
+
+    /**
+     * @return the estimator, to read the bias and whether the device is still.
+     */
+    public GyroscopeBiasEstimator getEstimator() {
+        return estimator;
+    }
+
+    @Override
+    public boolean registerListener(SensorSampleListener listener, int sensorType, int sensorDelay) {
+        return registerListener(listener, sensorType, sensorDelay, 0);
+    }
+
+    @Override
+    public synchronized boolean registerListener(SensorSampleListener listener, int sensorType, int sensorDelay, int maxReportLatencyUs) {
+        if (sensorType != Sensor.TYPE_GYROSCOPE) {
+            return source.registerListener(listener, sensorType, sensorDelay, maxReportLatencyUs);
+        }
+
+        int period = SensorHub.toMicroseconds(sensorDelay);
+        int index = indexOf(listener);
+        if (index < 0) {
+            int n = periods.length;
+            periods = Arrays.copyOf(periods, n + 1);
+            periods[n] = period;
+            latencies = Arrays.copyOf(latencies, n + 1);
+            latencies[n] = maxReportLatencyUs;
+            SensorSampleListener[] grown = Arrays.copyOf(gyroscopeListeners, n + 1);
+            grown[n] = listener;
+            gyroscopeListeners = grown;
+        } else {
+            periods[index] = period;
+            latencies[index] = maxReportLatencyUs;
+        }
+
+        if (!update()) {
+            unregisterGyroscopeListener(listener);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void unregisterListener(SensorSampleListener listener) {
+        source.unregisterListener(listener);
+        unregisterGyroscopeListener(listener);
+    }
+
+    @Override
+    public synchronized void unregisterListener(SensorSampleListener listener, int sensorType) {
+        if (sensorType == Sensor.TYPE_GYROSCOPE) {
+            unregisterGyroscopeListener(listener);
+        } else {
+            source.unregisterListener(listener, sensorType);
+        }
+    }
+
+    @Override
+    public boolean flush() {
+        return source.flush();
+    }
+
+    @Override
+    public Sensor getDefaultSensor(int sensorType) {
+        return source.getDefaultSensor(sensorType);
+    }
+
+    private int indexOf(SensorSampleListener listener) {
+        SensorSampleListener[] registered = gyroscopeListeners;
+        for (int i = 0; i < registered.length; i++) {
+            if (registered[i] == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void unregisterGyroscopeListener(SensorSampleListener listener) {
+        int index = indexOf(listener);
+        if (index < 0) {
+            return;
+        }
+        int n = periods.length;
+        int[] shrunkPeriods = new int[n - 1];
+        System.arraycopy(periods, 0, shrunkPeriods, 0, index);
+        System.arraycopy(periods, index + 1, shrunkPeriods, index, n - index - 1);
+        int[] shrunkLatencies = new int[n - 1];
+        System.arraycopy(latencies, 0, shrunkLatencies, 0, index);
+        System.arraycopy(latencies, index + 1, shrunkLatencies, index, n - index - 1);
+        SensorSampleListener[] shrunk = new SensorSampleListener[n - 1];
+        System.arraycopy(gyroscopeListeners, 0, shrunk, 0, index);
+        System.arraycopy(gyroscopeListeners, index + 1, shrunk, index, n - index - 1);
+        periods = shrunkPeriods;
+        latencies = shrunkLatencies;
+        gyroscopeListeners = shrunk;
+        update();
+    }
+
+    /**
+     * Registers the shared listener with the shortest period and latency of the
+     * gyroscope listeners, or unregisters it when there are none.
+     *
+     * @return false if the gyroscope could not be registered.
+     */
+    private boolean update() {
+        if (periods.length == 0) {
+            if (registeredPeriod >= 0) {
+                source.unregisterListener(sensorSampleListener);
+                registeredPeriod = -1;
+            }
+            return true;
+        }
+
+        int period = Integer.MAX_VALUE;
+        int latency = Integer.MAX_VALUE;
+        for (int i = 0; i < periods.length; i++) {
+            period = Math.min(period, periods[i]);
+            latency = Math.min(latency, latencies[i]);
+        }
+        if (period == registeredPeriod && latency == registeredLatency) {
+            return true;
+        }
+
+        if (!source.registerListener(sensorSampleListener, Sensor.TYPE_GYROSCOPE, period, latency)) {
+            if (registeredPeriod >= 0) {
+                // Keep the previous registration for the other listeners.
+                source.registerListener(sensorSampleListener, Sensor.TYPE_GYROSCOPE, registeredPeriod, registeredLatency);
+            } else {
+                source.unregisterListener(sensorSampleListener);
+            }
+            return false;
+        }
+        // Without an accelerometer the device is never known to be still, and the samples are passed through.
+        source.registerListener(sensorSampleListener, Sensor.TYPE_ACCELEROMETER, period, latency);
+        registeredPeriod = period;
+        registeredLatency = latency;
+        return true;
+    }
+
+    private class SensorListener implements SensorSampleListener {
+        @Override
+        public void onSensorChanged(int sensorType, int accuracy, long timestamp, float[] values) {
+            if (sensorType == Sensor.TYPE_ACCELEROMETER) {
+                estimator.addAcceleration(timestamp, values);
+            } else if (sensorType == Sensor.TYPE_GYROSCOPE) {
+                estimator.addGyroscope(timestamp, values);
+                // The values are shared with the other listeners of the source, the correction is a copy.
+                estimator.correct(values, corrected);
+                for (SensorSampleListener listener : gyroscopeListeners) {
+                    listener.onSensorChanged(sensorType, accuracy, timestamp, corrected);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.tracqi.fsensor.sensor;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A bounded first-in first-out queue of sensor samples, stored in primitive
+ * arrays so queueing does not allocate. All samples have the number of values
+ * of the first one, extra values are dropped and missing ones are zero.
+ */
+class SampleQueue {
+
+    private final int capacity;
+    private final int[] accuracies;
+    private final long[] timestamps;
+    private float[] values;
+    private int width;
+
+    // The oldest sample
+    private int head;
+    private int size;
+
+    SampleQueue(int capacity) {
+        this.capacity = capacity;
+        accuracies = new int[capacity];
+        timestamps = new long[capacity];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of values of the samples, 0 before the first one.
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the timestamp of the oldest sample, the queue must not be empty.
+     */
+    long peekTimestamp() {
+        return timestamps[head];
+    }
+
+    /**
+     * @return false if the queue is full.
+     */
+    boolean offer(int accuracy, long timestamp, float[] values) {
+        if (size == capacity) {
+            return false;
+        }
+
+        if (this.values == null) {
+            width = values.length;
+            this.values = new float[capacity * width];
+        }
+
+        int slot = (head + size) % capacity;
+        accuracies[slot] = accuracy;
+        timestamps[slot] = timestamp;
+        int n = Math.min(width, values.length);
+        System.arraycopy(values, 0, this.values, slot * width, n);
+        for (int i = n; i < width; i++) {
+            this.values[slot * width + i] = 0;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes the oldest sample, the queue must not be empty.
+     *
+     * @param values receives the {@link #getWidth()} values from offset.
+     * @return its accuracy, the timestamp is {@link #peekTimestamp()} before the call.
+     */
+    int poll(float[] values, int offset) {
+        int accuracy = accuracies[head];
+        System.arraycopy(this.values, head * width, values, offset, width);
+        head = (head + 1) % capacity;
+        size--;
+        return accuracy;
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,702 @@
+package com.tracqi.fsensor.sensor;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.tracqi.fsensor.math.offset.AffineCalibration;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Shares sensor registrations between all FSensor stages.
+ * <p>
+ * An FSensor and its {@link com.tracqi.fsensor.rotation.Rotation} both need the
+ * raw sensors, and an app often runs several FSensors at once. Instead of each
+ * of them registering with the {@link SensorManager}, they register with the
+ * hub of that SensorManager. The hub registers every sensor type once, at the
+ * fastest rate any of its listeners asked for, and hands each event to all of
+ * them. The registration is dropped when the last listener of a sensor type
+ * unregisters. The hub only holds its SensorManager while a sensor is
+ * registered, so a SensorManager of an Activity, and the Activity, are not
+ * kept alive by the hubs after that.
+ * <p>
+ * Sensor events are delivered on a dedicated thread that the hub starts with
+ * the first registration and stops with the last, so fusion never runs on
+ * the main thread. Listeners must hand results to the UI themselves, for
+ * example through a {@link FSensorEventSlot}.
+ * <p>
+ * Listeners can allow a sensor to batch its events in the hardware FIFO for a
+ * maximum report latency, so the application processor sleeps between bursts.
+ * A burst holds the events of one sensor only, so the hub merges the bursts
+ * of all batched sensors back into timestamp order before dispatching them.
+ * {@link #flush()} delivers everything batched so far. The merge takes the
+ * events in order out of the queues under a lock, and dispatches them after
+ * releasing it, so listeners never run with a lock of the hub held.
+ * <p>
+ * A sensor type can be given an {@link AffineCalibration}. It corrects a
+ * copy of the event values before they are dispatched, so every listener,
+ * including every rotation, sees calibrated values. Listeners registered with
+ * {@link #registerRawListener} see the values of the sensor, for example to
+ * learn the calibration with a
+ * {@link com.tracqi.fsensor.math.offset.MagneticCalibrator}.
+ * <p>
+ * Samples are dispatched in registration order. The values are shared by all
+ * listeners, so listeners must not modify them and must copy what they keep.
+ */
+public class SensorHub implements SensorSource {
+
+    private static final Map<SensorManager, SensorHub> hubs = new WeakHashMap<>();
+
+    // The batched events held per sensor, until the other batched sensors caught up.
+    private static final int QUEUE_CAPACITY = 1024;
+
+
+    // Weak, so the entry of the hubs goes away with the SensorManager, and the
+    // Context it may hold, once no sensor is registered.
+    private final WeakReference<SensorManager> sensorManagerReference;
+    // The same SensorManager, held while a sensor is registered, null otherwise.
+    private SensorManager sensorManager;
+    private final Map<Integer, Channel> channels = new HashMap<>();
+    private final Map<Integer, AffineCalibration> calibrations = new HashMap<>();
+
+    // The sensor thread, null while no sensor is registered.
+    private HandlerThread thread;
+    private Handler handler;
+    private int registeredChannels;
+
+    // Guards the merge of the batched channels, which runs on the sensor thread.
+    private final Object mergeLock = new Object();
+    // Guarded by mergeLock.
+    private final List<Channel> batchedChannels = new ArrayList<>();
+    private int pendingFlushes;
+
+    // The merged events, filled with mergeLock held and dispatched after it is released.
+    // Used on the sensor thread only.
+    private final MergedEvents merged = new MergedEvents();
+
+    /**
+     * @return the hub shared by everything that uses sensorManager.
+     */
+    public static SensorHub getInstance(SensorManager sensorManager) {
+        synchronized (hubs) {
+            SensorHub hub = hubs.get(sensorManager);
+            if (hub == null) {
+                hub = new SensorHub(sensorManager);
+                hubs.put(sensorManager, hub);
+            }
+            return hub;
+        }
+    }
+
+    SensorHub(SensorManager sensorManager) {
+        this.sensorManagerReference = new WeakReference<>(sensorManager);
+    }
+
+    /**
+     * @return the SensorManager of the hub, null if it was garbage collected.
+     */
+    public SensorManager getSensorManager() {
+        return sensorManagerReference.get();
+    }
+
+    /**
+     * Registers a listener for the default sensor of a type. Registering a listener again
+     * updates its sensor delay.
+     *
+     * @param sensorDelay one of the SensorManager.SENSOR_DELAY_* constants or a period in microseconds.
+     * @return false if the device has no such sensor or it could not be registered.
+     */
+    @Override
+    public boolean registerListener(SensorSampleListener listener, int sensorType, int sensorDelay) {
+        return registerListener(listener, sensorType, sensorDelay, 0);
+    }
+
+    /**
+     * Registers a listener for the default sensor of a type. Registering a listener again
+     * updates its sensor delay and latency.
+     * <p>
+     * The sensor batches with the smallest latency of its listeners, so a listener that
+     * does not allow batching still gets every event as it happens. Batching needs API 19,
+     * it is ignored on older devices and by sensors without a FIFO.
+     *
+     * @param sensorDelay        one of the SensorManager.SENSOR_DELAY_* constants or a period in microseconds.
+     * @param maxReportLatencyUs the time events may be batched for, 0 to deliver them as they happen.
+     * @return false if the device has no such sensor or it could not be registered.
+     */
+    @Override
+    public synchronized boolean registerListener(SensorSampleListener listener, int sensorType, int sensorDelay, int maxReportLatencyUs) {
+        Channel channel = getChannel(sensorType);
+        if (channel == null) {
+            return false;
+        }
+        return channel.add(listener, toMicroseconds(sensorDelay), Math.max(0, maxReportLatencyUs), false);
+    }
+
+    /**
+     * Registers a listener for the uncalibrated values of the default sensor of a type,
+     * like {@link #registerListener(SensorSampleListener, int, int, int)}. Registering the
+     * listener again with registerListener makes it see calibrated values.
+     *
+     * @param sensorDelay        one of the SensorManager.SENSOR_DELAY_* constants or a period in microseconds.
+     * @param maxReportLatencyUs the time events may be batched for, 0 to deliver them as they happen.
+     * @return false if the device has no such sensor or it could not be registered.
+     */
+    public synchronized boolean registerRawListener(SensorSampleListener listener, int sensorType, int sensorDelay, int maxReportLatencyUs) {
+        Channel channel = getChannel(sensorType);
+        if (channel == null) {
+            return false;
+        }
+        return channel.add(listener, toMicroseconds(sensorDelay), Math.max(0, maxReportLatencyUs), true);
+    }
+
+    /**
+     * Unregisters a listener from all sensor types.
+     */
+    @Override
+    public synchronized void unregisterListener(SensorSampleListener listener) {
+        for (Channel channel : channels.values()) {
+            channel.remove(listener);
+        }
+    }
+
+    @Override
+    public synchronized void unregisterListener(SensorSampleListener listener, int sensorType) {
+        Channel channel = channels.get(sensorType);
+        if (channel != null) {
+            channel.remove(listener);
+        }
+    }
+
+    @Override
+    public synchronized Sensor getDefaultSensor(int sensorType) {
+        Channel channel = channels.get(sensorType);
+        if (channel != null) {
+            return channel.sensor;
+        }
+        SensorManager sensorManager = getSensorManager();
+        return sensorManager != null ? sensorManager.getDefaultSensor(sensorType) : null;
+    }
+
+    /**
+     * Delivers the events batched by all sensors. The flush completes asynchronously, the
+     * events arrive on the sensor thread like any other.
+     *
+     * @return false if a sensor could not be flushed.
+     */
+    @Override
+    public synchronized boolean flush() {
+        boolean flushed = true;
+        synchronized (mergeLock) {
+            for (Channel channel : batchedChannels) {
+                if (sensorManager.flush(channel)) {
+                    pendingFlushes++;
+                } else {
+                    flushed = false;
+                }
+            }
+        }
+        return flushed;
+    }
+
+    /**
+     * Calibrates the events of a sensor type for all listeners.
+     *
+     * @param calibration the calibration, null to deliver the raw values.
+     */
+    public synchronized void setCalibration(int sensorType, AffineCalibration calibration) {
+        if (calibration == null) {
+            calibrations.remove(sensorType);
+        } else {
+            calibrations.put(sensorType, calibration);
+        }
+
+        Channel channel = channels.get(sensorType);
+        if (channel != null) {
+            channel.calibration = calibration;
+        }
+    }
+
+    /**
+     * @return the channel of a sensor type, created on first use, null if the device has no such sensor.
+     */
+    private Channel getChannel(int sensorType) {
+        Channel channel = channels.get(sensorType);
+        if (channel == null) {
+            Sensor sensor = getDefaultSensor(sensorType);
+            if (sensor == null) {
+                return null;
+            }
+            channel = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT ? new BatchingChannel(sensor) : new Channel(sensor);
+            channel.calibration = calibrations.get(sensorType);
+            channels.put(sensorType, channel);
+        }
+        return channel;
+    }
+
+    private Handler acquireHandler() {
+        if (registeredChannels++ == 0) {
+            sensorManager = sensorManagerReference.get();
+            thread = new HandlerThread("FSensor", Process.THREAD_PRIORITY_MORE_FAVORABLE);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        return handler;
+    }
+
+    private void releaseHandler() {
+        if (--registeredChannels == 0) {
+            // Events already queued are delivered to the (now empty) channels.
+            thread.quitSafely();
+            thread = null;
+            handler = null;
+            sensorManager = null;
+        }
+    }
+
+    /**
+     * Takes the batched events, in timestamp order, up to the oldest of the newest
+     * events of the batched channels. No channel can deliver older events after that.
+     * Called with mergeLock held.
+     */
+    private void merge() {
+        long watermark = Long.MAX_VALUE;
+        for (int i = 0; i < batchedChannels.size(); i++) {
+            watermark = Math.min(watermark, batchedChannels.get(i).newestTimestamp);
+        }
+        while (takeOldest(watermark)) {
+        }
+    }
+
+    /**
+     * Takes the oldest batched event into {@link #merged} if it is not newer than limit.
+     * Called with mergeLock held.
+     *
+     * @return false if there was none.
+     */
+    private boolean takeOldest(long limit) {
+        Channel oldest = null;
+        for (int i = 0; i < batchedChannels.size(); i++) {
+            Channel channel = batchedChannels.get(i);
+            if (!channel.queue.isEmpty() && (oldest == null || channel.queue.peekTimestamp() < oldest.queue.peekTimestamp())) {
+                oldest = channel;
+            }
+        }
+        if (oldest == null || oldest.queue.peekTimestamp() > limit) {
+            return false;
+        }
+
+        merged.take(oldest);
+        return true;
+    }
+
+    private void onFlushCompleted() {
+        synchronized (mergeLock) {
+            // Every batched sensor delivered its FIFO and later events are newer, so
+            // the last ones need not wait for the next burst.
+            if (pendingFlushes > 0 && --pendingFlushes == 0) {
+                while (takeOldest(Long.MAX_VALUE)) {
+                }
+            }
+        }
+        merged.dispatch();
+    }
+
+    static int toMicroseconds(int sensorDelay) {
+        switch (sensorDelay) {
+            case SensorManager.SENSOR_DELAY_FASTEST:
+                return 0;
+            case SensorManager.SENSOR_DELAY_GAME:
+                return 20000;
+            case SensorManager.SENSOR_DELAY_UI:
+                return 66667;
+            case SensorManager.SENSOR_DELAY_NORMAL:
+                return 200000;
+            default:
+                return sensorDelay;
+        }
+    }
+
+    /**
+     * The single registration of one sensor.
+     */
+    private class Channel implements SensorEventListener {
+        private final Sensor sensor;
+        private final int sensorType;
+
+        // Copy-on-write, so dispatch never locks or allocates.
+        private volatile Listeners listeners = Listeners.EMPTY;
+        private int[] periods = new int[0];
+        private int[] latencies = new int[0];
+
+        // The period registered with the SensorManager, -1 if not registered.
+        private int registeredPeriod = -1;
+        private int registeredLatency;
+
+        private volatile AffineCalibration calibration;
+        // The calibrated copy of the values, used on the sensor thread only.
+        private float[] calibrated;
+
+        // Set with mergeLock held.
+        private volatile boolean batched;
+
+        // Guarded by mergeLock.
+        private final SampleQueue queue = new SampleQueue(QUEUE_CAPACITY);
+        private long newestTimestamp;
+
+        // The values of a merged event, used on the sensor thread only.
+        private float[] queued;
+        private final Runnable dispatchUnbatched = this::dispatchUnbatched;
+
+        Channel(Sensor sensor) {
+            this.sensor = sensor;
+            this.sensorType = sensor.getType();
+        }
+
+        boolean add(SensorSampleListener listener, int period, int latency, boolean raw) {
+            int index = listeners.indexOf(listener);
+            if (index < 0) {
+                int n = periods.length;
+                int[] grownPeriods = new int[n + 1];
+                System.arraycopy(periods, 0, grownPeriods, 0, n);
+                grownPeriods[n] = period;
+                int[] grownLatencies = new int[n + 1];
+                System.arraycopy(latencies, 0, grownLatencies, 0, n);
+                grownLatencies[n] = latency;
+                periods = grownPeriods;
+                latencies = grownLatencies;
+                listeners = listeners.add(listener, raw);
+            } else {
+                periods[index] = period;
+                latencies[index] = latency;
+                listeners = listeners.setRaw(index, raw);
+            }
+            return update();
+        }
+
+        void remove(SensorSampleListener listener) {
+            int index = listeners.indexOf(listener);
+            if (index < 0) {
+                return;
+            }
+            int n = periods.length;
+            int[] shrunkPeriods = new int[n - 1];
+            System.arraycopy(periods, 0, shrunkPeriods, 0, index);
+            System.arraycopy(periods, index + 1, shrunkPeriods, index, n - index - 1);
+            int[] shrunkLatencies = new int[n - 1];
+            System.arraycopy(latencies, 0, shrunkLatencies, 0, index);
+            System.arraycopy(latencies, index + 1, shrunkLatencies, index, n - index - 1);
+            periods = shrunkPeriods;
+            latencies = shrunkLatencies;
+            listeners = listeners.remove(index);
+            update();
+        }
+
+        private boolean update() {
+            if (periods.length == 0) {
+                if (registeredPeriod >= 0) {
+                    sensorManager.unregisterListener(this);
+                    registeredPeriod = -1;
+                    setBatched(false);
+                    releaseHandler();
+                }
+                return true;
+            }
+
+            int period = Integer.MAX_VALUE;
+            int latency = Integer.MAX_VALUE;
+            for (int i = 0; i < periods.length; i++) {
+                period = Math.min(period, periods[i]);
+                latency = Math.min(latency, latencies[i]);
+            }
+            if (!canBatch()) {
+                latency = 0;
+            }
+            if (period == registeredPeriod && latency == registeredLatency) {
+                return true;
+            }
+
+            if (registeredPeriod >= 0) {
+                sensorManager.unregisterListener(this);
+            } else {
+                acquireHandler();
+                if (sensorManager == null) {
+                    releaseHandler();
+                    return false;
+                }
+            }
+            registeredPeriod = period;
+            registeredLatency = latency;
+            setBatched(latency > 0);
+
+            boolean registered = latency > 0
+                    ? sensorManager.registerListener(this, sensor, period, latency, handler)
+                    : sensorManager.registerListener(this, sensor, period, handler);
+            if (!registered) {
+                registeredPeriod = -1;
+                setBatched(false);
+                releaseHandler();
+                return false;
+            }
+            return true;
+        }
+
+        boolean canBatch() {
+            return false;
+        }
+
+        private void setBatched(boolean batched) {
+            synchronized (mergeLock) {
+                if (batched == this.batched) {
+                    return;
+                }
+
+                this.batched = batched;
+                if (batched) {
+                    queue.clear();
+                    newestTimestamp = Long.MIN_VALUE;
+                    batchedChannels.add(this);
+                } else {
+                    batchedChannels.remove(this);
+                    if (batchedChannels.isEmpty()) {
+                        pendingFlushes = 0;
+                    }
+                    if (registeredPeriod >= 0) {
+                        // Still registered, hand the queued events over on the sensor thread.
+                        handler.post(dispatchUnbatched);
+                    } else {
+                        queue.clear();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Dispatches the events left from when the channel was batched.
+         */
+        private void dispatchUnbatched() {
+            synchronized (mergeLock) {
+                if (!batched) {
+                    while (!queue.isEmpty()) {
+                        merged.take(this);
+                    }
+                }
+                // The other channels no longer wait for this one.
+                merge();
+            }
+            merged.dispatch();
+        }
+
+        /**
+         * Dispatches a merged event, its values start at offset.
+         */
+        private void dispatchMerged(int accuracy, long timestamp, float[] values, int offset) {
+            int width = queue.getWidth();
+            if (queued == null || queued.length != width) {
+                queued = new float[width];
+            }
+            System.arraycopy(values, offset, queued, 0, width);
+            dispatch(accuracy, timestamp, queued);
+        }
+
+        /**
+         * Dispatches the raw values to the raw listeners and a calibrated copy to the others.
+         */
+        private void dispatch(int accuracy, long timestamp, float[] values) {
+            Listeners listeners = this.listeners;
+            float[] calibratedValues = values;
+            AffineCalibration calibration = this.calibration;
+            if (calibration != null) {
+                if (calibrated == null || calibrated.length != values.length) {
+                    calibrated = new float[values.length];
+                }
+                System.arraycopy(values, 0, calibrated, 0, values.length);
+                calibration.apply(calibrated);
+                calibratedValues = calibrated;
+            }
+
+            for (int i = 0; i < listeners.listeners.length; i++) {
+                listeners.listeners[i].onSensorChanged(sensorType, accuracy, timestamp, listeners.raw[i] ? values : calibratedValues);
+            }
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            if (batched) {
+                boolean merging = false;
+                synchronized (mergeLock) {
+                    if (batched) {
+                        while (!queue.offer(event.accuracy, event.timestamp, event.values)) {
+                            // Another batched sensor is late, don't wait for it any longer.
+                            takeOldest(Long.MAX_VALUE);
+                        }
+                        newestTimestamp = event.timestamp;
+                        merge();
+                        merging = true;
+                    }
+                }
+                if (merging) {
+                    merged.dispatch();
+                    return;
+                }
+            }
+
+            dispatch(event.accuracy, event.timestamp, event.values);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            // Every sample carries its accuracy.
+        }
+    }
+
+    /**
+     * Merged events, taken out of the queues of their channels in timestamp order.
+     * The arrays grow with the largest merge and are reused.
+     */
+    private static class MergedEvents {
+        private Channel[] channels = new Channel[QUEUE_CAPACITY];
+        private int[] accuracies = new int[QUEUE_CAPACITY];
+        private long[] timestamps = new long[QUEUE_CAPACITY];
+        private float[] values = new float[QUEUE_CAPACITY * 3];
+        private int size;
+        private int valueCount;
+
+        /**
+         * Takes the oldest event of a channel, with mergeLock held.
+         */
+        void take(Channel channel) {
+            if (size == channels.length) {
+                channels = Arrays.copyOf(channels, 2 * size);
+                accuracies = Arrays.copyOf(accuracies, 2 * size);
+                timestamps = Arrays.copyOf(timestamps, 2 * size);
+            }
+            int width = channel.queue.getWidth();
+            if (valueCount + width > values.length) {
+                values = Arrays.copyOf(values, Math.max(2 * values.length, valueCount + width));
+            }
+
+            timestamps[size] = channel.queue.peekTimestamp();
+            accuracies[size] = channel.queue.poll(values, valueCount);
+            channels[size++] = channel;
+            valueCount += width;
+        }
+
+        /**
+         * Dispatches and forgets the events, without mergeLock held.
+         */
+        void dispatch() {
+            int offset = 0;
+            for (int i = 0; i < size; i++) {
+                Channel channel = channels[i];
+                channels[i] = null;
+                channel.dispatchMerged(accuracies[i], timestamps[i], values, offset);
+                offset += channel.queue.getWidth();
+            }
+            size = 0;
+            valueCount = 0;
+        }
+    }
+
+    /**
+     * An immutable list of listeners, and whether each of them sees raw values.
+     */
+    private static class Listeners {
+        static final Listeners EMPTY = new Listeners(new SensorSampleListener[0], new boolean[0]);
+
+        final SensorSampleListener[] listeners;
+        final boolean[] raw;
+
+        Listeners(SensorSampleListener[] listeners, boolean[] raw) {
+            this.listeners = listeners;
+            this.raw = raw;
+        }
+
+        int indexOf(SensorSampleListener listener) {
+            for (int i = 0; i < listeners.length; i++) {
+                if (listeners[i] == listener) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Listeners add(SensorSampleListener listener, boolean raw) {
+            int n = listeners.length;
+            SensorSampleListener[] grown = new SensorSampleListener[n + 1];
+            System.arraycopy(listeners, 0, grown, 0, n);
+            grown[n] = listener;
+            boolean[] grownRaw = new boolean[n + 1];
+            System.arraycopy(this.raw, 0, grownRaw, 0, n);
+            grownRaw[n] = raw;
+            return new Listeners(grown, grownRaw);
+        }
+
+        Listeners setRaw(int index, boolean raw) {
+            if (this.raw[index] == raw) {
+                return this;
+            }
+            boolean[] copy = this.raw.clone();
+            copy[index] = raw;
+            return new Listeners(listeners, copy);
+        }
+
+        Listeners remove(int index) {
+            int n = listeners.length;
+            SensorSampleListener[] shrunk = new SensorSampleListener[n - 1];
+            System.arraycopy(listeners, 0, shrunk, 0, index);
+            System.arraycopy(listeners, index + 1, shrunk, index, n - index - 1);
+            boolean[] shrunkRaw = new boolean[n - 1];
+            System.arraycopy(raw, 0, shrunkRaw, 0, index);
+            System.arraycopy(raw, index + 1, shrunkRaw, index, n - index - 1);
+            return new Listeners(shrunk, shrunkRaw);
+        }
+    }
+
+    /**
+     * A channel that can batch, with the flush callback of API 19.
+     */
+    private class BatchingChannel extends Channel implements SensorEventListener2 {
+        BatchingChannel(Sensor sensor) {
+            super(sensor);
+        }
+
+        @Override
+        boolean canBatch() {
+            return true;
+        }
+
+        @Override
+        public void onFlushCompleted(Sensor sensor) {
+            SensorHub.this.onFlushCompleted();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.tracqi.fsensor.sensor;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Receives the samples of a {@link SensorSource}.
+ * <p>
+ * Unlike a SensorEventListener, it does not depend on framework objects, so
+ * it can be fed from a recording on any JVM.
+ */
+public interface SensorSampleListener {
+    /**
+     * @param sensorType one of the Sensor.TYPE_* constants.
+     * @param accuracy   one of the SensorManager.SENSOR_STATUS_* constants.
+     * @param timestamp  the sample time in nanoseconds.
+     * @param values     the sample, only valid during the call.
+     */
+    void onSensorChanged(int sensorType, int accuracy, long timestamp, float[] values);
+}
@@ -0,0 +1,66 @@
+package com.tracqi.fsensor.sensor;
+
+import android.hardware.Sensor;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Where rotations and FSensors get their sensor samples from.
+ * <p>
+ * On a device that is the {@link SensorHub} of a SensorManager. A
+ * {@link com.tracqi.fsensor.sensor.record.ReplaySensorSource} feeds recorded
+ * samples instead, so the fusions can be tested and profiled off-device.
+ */
+public interface SensorSource {
+
+    /**
+     * Registers a listener for a sensor type. Registering a listener again
+     * updates its sensor delay.
+     *
+     * @param sensorDelay one of the SensorManager.SENSOR_DELAY_* constants or a period in microseconds.
+     * @return false if the sensor type is not available.
+     */
+    boolean registerListener(SensorSampleListener listener, int sensorType, int sensorDelay);
+
+    /**
+     * Registers a listener for a sensor type that allows its samples to be batched.
+     * Batched samples of different sensor types are still delivered in timestamp order.
+     *
+     * @param maxReportLatencyUs the time samples may be batched for, 0 to deliver them as they happen.
+     * @return false if the sensor type is not available.
+     */
+    boolean registerListener(SensorSampleListener listener, int sensorType, int sensorDelay, int maxReportLatencyUs);
+
+    /**
+     * Unregisters a listener from all sensor types.
+     */
+    void unregisterListener(SensorSampleListener listener);
+
+    void unregisterListener(SensorSampleListener listener, int sensorType);
+
+    /**
+     * Delivers the batched samples without waiting for the latency to expire.
+     *
+     * @return false if the samples could not be flushed.
+     */
+    boolean flush();
+
+    /**
+     * @return the sensor the samples of a type come from, null if there is none.
+     */
+    Sensor getDefaultSensor(int sensorType);
+}
@@ -1,15 +1,16 @@
 package com.tracqi.fsensor.sensor.acceleration;
 
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
 import com.tracqi.fsensor.math.gravity.Gravity;
+import com.tracqi.fsensor.math.integration.ZuptIntegrator;
+import com.tracqi.fsensor.math.rotation.MutableQuaternion;
 import com.tracqi.fsensor.rotation.Rotation;
+import com.tracqi.fsensor.rotation.fusion.SensorSampleBuffer;
 import com.tracqi.fsensor.sensor.BaseFSensor;
-import com.tracqi.fsensor.sensor.FSensorEvent;
-import com.tracqi.fsensor.sensor.FSensorEventListener;
+import com.tracqi.fsensor.sensor.SensorSampleListener;
+import com.tracqi.fsensor.sensor.SensorSource;
 
 /*
  * Copyright 2024, Tracqi Technology, LLC
@@ -27,18 +28,78 @@ import com.tracqi.fsensor.sensor.FSensorEventListener;
  * limitations under the License.
  */
 
+/**
+ * The acceleration of the device without gravity.
+ * <p>
+ * By default the output is in the device frame, with gravity from the orientation of the rotation. In the earth
+ * frame, see {@link #setEarthFrame(boolean)}, the acceleration is rotated into the east, north, up frame with the
+ * quaternion of the rotation and gravity is removed from the up axis. The output is then calculated at every
+ * gyroscope sample, with the acceleration at its timestamp, and can be integrated to velocity and displacement with
+ * a {@link ZuptIntegrator}.
+ */
 public abstract class LinearAccelerationFSensor extends BaseFSensor {
     private static final String TAG = ComplementaryLinearAccelerationFSensor.class.getSimpleName();
 
-    private final SensorEventListener sensorEventListener = new SensorListener();
+    private final SensorSampleListener sensorSampleListener = new SensorListener();
+    private final float[] gravity = new float[3];
+
+    // Acceleration samples, read at the gyroscope timestamps in the earth frame.
+    private final SensorSampleBuffer accelerationBuffer = new SensorSampleBuffer();
+    private final float[] acceleration = new float[3];
+    private final MutableQuaternion quaternion = new MutableQuaternion();
+    private int accelerationAccuracy;
+
+    private volatile boolean earthFrame;
+    private volatile ZuptIntegrator integrator;
 
     public LinearAccelerationFSensor(SensorManager sensorManager, Rotation rotation) {
         super(sensorManager, rotation);
     }
 
+    public LinearAccelerationFSensor(SensorSource sensorSource, Rotation rotation) {
+        super(sensorSource, rotation);
+    }
+
+    @Override
+    protected SensorSampleListener getSensorSampleListener() {
+        return sensorSampleListener;
+    }
+
+    /**
+     * Output the linear acceleration in the east, north, up frame instead of the device frame, false by default.
+     * Set it before the first listener is registered, as it also needs the gyroscope.
+     *
+     * @throws IllegalStateException if a listener is registered.
+     */
+    public synchronized void setEarthFrame(boolean earthFrame) {
+        if (hasListeners()) {
+            throw new IllegalStateException("The frame cannot change while listeners are registered");
+        }
+        this.earthFrame = earthFrame;
+    }
+
+    public boolean isEarthFrame() {
+        return earthFrame;
+    }
+
+    /**
+     * Integrate the linear acceleration in the earth frame before every dispatch, so listeners can read the velocity
+     * and displacement of their event from the integrator. Null, the default, disables the integration.
+     */
+    public void setIntegrator(ZuptIntegrator integrator) {
+        this.integrator = integrator;
+    }
+
+    public ZuptIntegrator getIntegrator() {
+        return integrator;
+    }
+
     @Override
-    protected SensorEventListener getSensorEventListener() {
-        return sensorEventListener;
+    protected int[] getSensorTypes() {
+        if (earthFrame) {
+            return new int[]{Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_GYROSCOPE};
+        }
+        return new int[]{Sensor.TYPE_ACCELEROMETER};
     }
 
     private void calculateLinerAcceleration(float[] acceleration, float[] gravity) {
@@ -51,20 +112,47 @@ public abstract class LinearAccelerationFSensor extends BaseFSensor {
         output[2] = acceleration[2] - gravity[2];
     }
 
-    private class SensorListener implements SensorEventListener {
+    /**
+     * Rotates the acceleration into the east, north, up frame and removes gravity from the up axis.
+     *
+     * @return false if the rotation has no orientation yet.
+     */
+    private boolean calculateEarthLinearAcceleration(float[] acceleration) {
+        if (!rotation.getQuaternion(quaternion)) {
+            return false;
+        }
+
+        quaternion.rotate(acceleration, output);
+        output[2] -= SensorManager.GRAVITY_EARTH;
+        return true;
+    }
+
+    private class SensorListener implements SensorSampleListener {
         @Override
-        public void onSensorChanged(SensorEvent event) {
-            if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-                calculateLinerAcceleration(event.values, Gravity.getGravityFromOrientation(rotation.getOrientation()));
+        public void onSensorChanged(int sensorType, int accuracy, long timestamp, float[] values) {
+            if (sensorType == Sensor.TYPE_ACCELEROMETER) {
+                if (earthFrame) {
+                    accelerationBuffer.add(timestamp, values);
+                    accelerationAccuracy = accuracy;
+                    return;
+                }
 
-                for (FSensorEventListener sensorEventListener : fSensorEventListeners) {
-                    sensorEventListener.onSensorChanged(new FSensorEvent(event.sensor, event.accuracy, event.timestamp, output));
+                calculateLinerAcceleration(values, Gravity.getGravityFromOrientation(rotation.getOrientation(), gravity));
+
+                dispatch(sensorType, accuracy, timestamp);
+            } else if (sensorType == Sensor.TYPE_GYROSCOPE && earthFrame) {
+                // The rotation registered first, so its orientation is already at this sample.
+                if (!accelerationBuffer.sample(timestamp, acceleration) || !calculateEarthLinearAcceleration(acceleration)) {
+                    return;
                 }
-            }
-        }
 
-        @Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+                ZuptIntegrator integrator = LinearAccelerationFSensor.this.integrator;
+                if (integrator != null) {
+                    integrator.update(timestamp, output, values);
+                }
+
+                dispatch(Sensor.TYPE_ACCELEROMETER, accelerationAccuracy, timestamp);
+            }
         }
     }
 }
@@ -1,14 +1,12 @@
 package com.tracqi.fsensor.sensor.orientation;
 
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
 import com.tracqi.fsensor.rotation.Rotation;
 import com.tracqi.fsensor.sensor.BaseFSensor;
-import com.tracqi.fsensor.sensor.FSensorEvent;
-import com.tracqi.fsensor.sensor.FSensorEventListener;
+import com.tracqi.fsensor.sensor.SensorSampleListener;
+import com.tracqi.fsensor.sensor.SensorSource;
 import com.tracqi.fsensor.sensor.acceleration.ComplementaryLinearAccelerationFSensor;
 
 /*
@@ -29,31 +27,35 @@ import com.tracqi.fsensor.sensor.acceleration.ComplementaryLinearAccelerationFSe
 
 public class OrientationFSensor extends BaseFSensor {
     private static final String TAG = ComplementaryLinearAccelerationFSensor.class.getSimpleName();
-    private final SensorEventListener sensorEventListener = new SensorListener();
+    private final SensorSampleListener sensorSampleListener = new SensorListener();
 
     public OrientationFSensor(SensorManager sensorManager, Rotation rotation) {
         super(sensorManager, rotation);
     }
 
+    public OrientationFSensor(SensorSource sensorSource, Rotation rotation) {
+        super(sensorSource, rotation);
+    }
+
     @Override
-    protected SensorEventListener getSensorEventListener() {
-        return sensorEventListener;
+    protected SensorSampleListener getSensorSampleListener() {
+        return sensorSampleListener;
     }
 
-    private class SensorListener implements SensorEventListener {
+    @Override
+    protected int[] getSensorTypes() {
+        return new int[]{Sensor.TYPE_GYROSCOPE};
+    }
+
+    private class SensorListener implements SensorSampleListener {
         @Override
-        public void onSensorChanged(SensorEvent event) {
-            if (event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
-                System.arraycopy(rotation.getOrientation(), 0, output, 0, event.values.length);
+        public void onSensorChanged(int sensorType, int accuracy, long timestamp, float[] values) {
+            if (sensorType == Sensor.TYPE_GYROSCOPE) {
+                System.arraycopy(rotation.getOrientation(), 0, output, 0, values.length);
 
-                for (FSensorEventListener sensorEventListener : fSensorEventListeners) {
-                    sensorEventListener.onSensorChanged(new FSensorEvent(event.sensor, event.accuracy, event.timestamp, output));
-                }
+                dispatch(sensorType, accuracy, timestamp);
             }
         }
-
-        @Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {}
     }
 }
 
@@ -0,0 +1,143 @@
+package com.tracqi.fsensor.sensor.record;
+
+import android.hardware.Sensor;
+
+import com.tracqi.fsensor.sensor.SensorSampleListener;
+import com.tracqi.fsensor.sensor.SensorSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A {@link SensorSource} that plays back samples, from a recording of a
+ * {@link SensorRecorder} or from code.
+ * <p>
+ * Samples are dispatched synchronously on the thread that replays them, in
+ * registration order, like a {@link com.tracqi.fsensor.sensor.SensorHub}
+ * does. The sensor delays of the listeners are ignored, the samples keep
+ * their recorded rates. No framework classes are used, so rotations and
+ * FSensors created with a ReplaySensorSource run on a plain JVM.
+ */
+public class ReplaySensorSource implements SensorSource {
+
+    private static final SensorSampleListener[] NO_LISTENERS = new SensorSampleListener[0];
+
+    // The listeners by sensor type. Copy-on-write, so samples are dispatched without locking.
+    private volatile SensorSampleListener[][] listeners = new SensorSampleListener[0][];
+
+    @Override
+    public boolean registerListener(SensorSampleListener listener, int sensorType, int sensorDelay) {
+        return registerListener(listener, sensorType, sensorDelay, 0);
+    }
+
+    /**
+     * Replayed samples are always in timestamp order, the latency is ignored.
+     */
+    @Override
+    public synchronized boolean registerListener(SensorSampleListener listener, int sensorType, int sensorDelay, int maxReportLatencyUs) {
+        SensorSampleListener[] registered = getListeners(sensorType);
+        for (SensorSampleListener l : registered) {
+            if (l == listener) {
+                return true;
+            }
+        }
+
+        SensorSampleListener[] grown = Arrays.copyOf(registered, registered.length + 1);
+        grown[registered.length] = listener;
+        setListeners(sensorType, grown);
+        return true;
+    }
+
+    @Override
+    public synchronized void unregisterListener(SensorSampleListener listener) {
+        for (int sensorType = 0; sensorType < listeners.length; sensorType++) {
+            unregisterListener(listener, sensorType);
+        }
+    }
+
+    @Override
+    public synchronized void unregisterListener(SensorSampleListener listener, int sensorType) {
+        SensorSampleListener[] registered = getListeners(sensorType);
+        for (int i = 0; i < registered.length; i++) {
+            if (registered[i] == listener) {
+                SensorSampleListener[] shrunk = new SensorSampleListener[registered.length - 1];
+                System.arraycopy(registered, 0, shrunk, 0, i);
+                System.arraycopy(registered, i + 1, shrunk, i, shrunk.length - i);
+                setListeners(sensorType, shrunk);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Nothing is batched, samples are dispatched as they are replayed.
+     */
+    @Override
+    public boolean flush() {
+        return true;
+    }
+
+    /**
+     * @return null, replayed samples have no sensor.
+     */
+    @Override
+    public Sensor getDefaultSensor(int sensorType) {
+        return null;
+    }
+
+    /**
+     * Dispatches one sample to the listeners of its sensor type.
+     */
+    public void replay(int sensorType, int accuracy, long timestamp, float[] values) {
+        for (SensorSampleListener listener : getListeners(sensorType)) {
+            listener.onSensorChanged(sensorType, accuracy, timestamp, values);
+        }
+    }
+
+    /**
+     * Dispatches all samples of a recording, as fast as possible.
+     *
+     * @return the number of samples.
+     */
+    public long replay(InputStream in) throws IOException {
+        long count = 0;
+        try (SensorRecordingReader reader = new SensorRecordingReader(in)) {
+            while (reader.next()) {
+                replay(reader.getSensorType(), reader.getAccuracy(), reader.getTimestamp(), reader.getValues());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private SensorSampleListener[] getListeners(int sensorType) {
+        SensorSampleListener[][] listeners = this.listeners;
+        if (sensorType < 0 || sensorType >= listeners.length || listeners[sensorType] == null) {
+            return NO_LISTENERS;
+        }
+        return listeners[sensorType];
+    }
+
+    private void setListeners(int sensorType, SensorSampleListener[] registered) {
+        SensorSampleListener[][] listeners = Arrays.copyOf(this.listeners, Math.max(this.listeners.length, sensorType + 1));
+        listeners[sensorType] = registered;
+        this.listeners = listeners;
+    }
+}
@@ -0,0 +1,125 @@
+package com.tracqi.fsensor.sensor.record;
+
+import com.tracqi.fsensor.sensor.SensorSampleListener;
+import com.tracqi.fsensor.sensor.SensorSource;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Records sensor samples to a stream, to be replayed by a
+ * {@link ReplaySensorSource}.
+ * <p>
+ * The recording starts with the int {@link #MAGIC} and the short
+ * {@link #VERSION}. Every sample follows as its sensor type as a short, its
+ * accuracy and number of values as bytes, its timestamp as a long and its
+ * values as floats, all big-endian. A sample of three values takes 24 bytes.
+ * <p>
+ * The recorder is registered like any other listener, so it records the
+ * samples as the fusions see them, after any
+ * {@link com.tracqi.fsensor.sensor.SensorHub#setCalibration(int, com.tracqi.fsensor.math.offset.AffineCalibration) calibration}.
+ * Samples are buffered and written on the thread of the source.
+ */
+public class SensorRecorder implements SensorSampleListener, Closeable {
+
+    public static final int MAGIC = 0x46535243; // "FSRC"
+    public static final short VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+
+    private SensorSource sensorSource;
+    private IOException error;
+    private boolean closed;
+    private long count;
+
+    public SensorRecorder(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        this.out.writeInt(MAGIC);
+        this.out.writeShort(VERSION);
+    }
+
+    /**
+     * Records the samples of sensorTypes until {@link #stop()}.
+     */
+    public synchronized void start(SensorSource sensorSource, int sensorDelay, int... sensorTypes) {
+        stop();
+        this.sensorSource = sensorSource;
+        for (int sensorType : sensorTypes) {
+            sensorSource.registerListener(this, sensorType, sensorDelay);
+        }
+    }
+
+    public synchronized void stop() {
+        if (sensorSource != null) {
+            sensorSource.unregisterListener(this);
+            sensorSource = null;
+        }
+    }
+
+    @Override
+    public synchronized void onSensorChanged(int sensorType, int accuracy, long timestamp, float[] values) {
+        if (closed || error != null) {
+            return;
+        }
+
+        try {
+            out.writeShort(sensorType);
+            out.writeByte(accuracy);
+            out.writeByte(values.length);
+            out.writeLong(timestamp);
+            for (float value : values) {
+                out.writeFloat(value);
+            }
+            count++;
+        } catch (IOException e) {
+            // Thrown on the sensor thread, reported by close().
+            error = e;
+        }
+    }
+
+    /**
+     * @return the number of samples recorded.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Stops recording and closes the stream.
+     *
+     * @throws IOException if a sample could not be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        stop();
+        closed = true;
+        out.close();
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.tracqi.fsensor.sensor.record;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * Copyright 2024, Tracqi Technology, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Reads a recording of a {@link SensorRecorder} one sample at a time.
+ * <p>
+ * The values array is reused, there is one per number of values.
+ */
+public class SensorRecordingReader implements Closeable {
+
+    private final DataInputStream in;
+    private final float[][] values = new float[256][];
+
+    private int sensorType;
+    private int accuracy;
+    private long timestamp;
+    private float[] sample;
+
+    public SensorRecordingReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        if (this.in.readInt() != SensorRecorder.MAGIC) {
+            throw new IOException("Not a sensor recording");
+        }
+        short version = this.in.readShort();
+        if (version != SensorRecorder.VERSION) {
+            throw new IOException("Unsupported sensor recording version " + version);
+        }
+    }
+
+    /**
+     * Reads the next sample.
+     *
+     * @return false at the end of the recording.
+     */
+    public boolean next() throws IOException {
+        int high = in.read();
+        if (high < 0) {
+            return false;
+        }
+
+        try {
+            sensorType = (high << 8) | in.readUnsignedByte();
+            accuracy = in.readByte();
+            int length = in.readUnsignedByte();
+            timestamp = in.readLong();
+
+            sample = values[length];
+            if (sample == null) {
+                sample = values[length] = new float[length];
+            }
+            for (int i = 0; i < length; i++) {
+                sample[i] = in.readFloat();
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated sensor recording", e);
+        }
+        return true;
+    }
+
+    public int getSensorType() {
+        return sensorType;
+    }
+
+    public int getAccuracy() {
+        return accuracy;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the values of the sample, only valid until the next call to {@link #next()}.
+     */
+    public float[] getValues() {
+        return sample;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
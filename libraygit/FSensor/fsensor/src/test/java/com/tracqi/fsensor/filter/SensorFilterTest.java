@@ -0,0 +1,125 @@
+package com.tracqi.fsensor.filter;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Filters only depend on sample timestamps, so they behave the same whether
+ * samples arrive live or in a batch.
+ */
+public class SensorFilterTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void meanFilterAveragesTimeWindow() {
+        MeanFilter filter = new MeanFilter(0.1f);
+        float[] output = null;
+        // 20 ms apart, so 5 samples fall within 100 ms.
+        for (int i = 0; i < 10; i++) {
+            output = filter.filter(new float[]{i, 2 * i, -i}, i * 20 * MS);
+        }
+        // Samples 5..9
+        assertArrayEquals(new float[]{7, 14, -7}, output, 1e-6f);
+    }
+
+    @Test
+    public void medianFilterUsesTimeWindow() {
+        MedianFilter filter = new MedianFilter(0.1f);
+        float[] output = null;
+        float[] samples = {100, 1, 5, 3, 2, 4};
+        for (int i = 0; i < samples.length; i++) {
+            output = filter.filter(new float[]{samples[i], 0, -samples[i]}, i * 20 * MS);
+        }
+        // 1, 5, 3, 2, 4 remain, 100 expired.
+        assertEquals(3, output[0], 0);
+        assertEquals(0, output[1], 0);
+        assertEquals(-3, output[2], 0);
+    }
+
+    @Test
+    public void lowPassFilterUsesSamplePeriod() {
+        LowPassFilter filter = new LowPassFilter(0.1f);
+        assertArrayEquals(new float[]{0, 0, 0}, filter.filter(new float[]{0, 0, 0}, 0), 0);
+        // dt == timeConstant, so alpha is 0.5
+        float[] output = filter.filter(new float[]{2, 4, 6}, 100 * MS);
+        assertArrayEquals(new float[]{1, 2, 3}, output, 1e-6f);
+    }
+
+    @Test
+    public void filtersRestartWhenTimeGoesBackwards() {
+        MeanFilter filter = new MeanFilter(1f);
+        filter.filter(new float[]{10, 10, 10}, 500 * MS);
+        float[] output = filter.filter(new float[]{1, 2, 3}, 0);
+        assertArrayEquals(new float[]{1, 2, 3}, output, 0);
+    }
+
+    @Test
+    public void blockFilteringMatchesSampleFiltering() {
+        int count = 500;
+        float[] input = new float[3 * count];
+        long[] timestamps = new long[count];
+        Random random = new Random(7);
+        long timestamp = 0;
+        for (int i = 0; i < count; i++) {
+            // Jittered periods and a restart half way through.
+            timestamp = i == count / 2 ? 0 : timestamp + 5 * MS + random.nextInt(5) * MS;
+            timestamps[i] = timestamp;
+            for (int j = 0; j < 3; j++) {
+                input[3 * i + j] = (float) random.nextGaussian();
+            }
+        }
+
+        SensorFilter[][] filters = {
+                {new LowPassFilter(0.1f), new LowPassFilter(0.1f), new LowPassFilter(0.1f), new LowPassFilter(0.1f)},
+                {new MeanFilter(0.1f), new MeanFilter(0.1f), new MeanFilter(0.1f), new MeanFilter(0.1f)},
+                {new MedianFilter(0.1f), new MedianFilter(0.1f), new MedianFilter(0.1f), new MedianFilter(0.1f)}};
+
+        for (SensorFilter[] filter : filters) {
+            float[] expected = new float[3 * count];
+            for (int i = 0; i < count; i++) {
+                float[] sample = {input[3 * i], input[3 * i + 1], input[3 * i + 2]};
+                System.arraycopy(filter[0].filter(sample, timestamps[i]), 0, expected, 3 * i, 3);
+            }
+
+            // Strided output, in two blocks.
+            float[] strided = new float[4 * count + 1];
+            filter[1].filter(input, 0, 3, timestamps, 0, strided, 1, 4, count / 3);
+            filter[1].filter(input, 3 * (count / 3), 3, timestamps, count / 3, strided, 1 + 4 * (count / 3), 4,
+                    count - count / 3);
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < 3; j++) {
+                    assertEquals(expected[3 * i + j], strided[1 + 4 * i + j], 0);
+                }
+            }
+
+            // In place.
+            float[] inPlace = input.clone();
+            filter[2].filter(inPlace, timestamps, inPlace);
+            assertArrayEquals(expected, inPlace, 0);
+
+            // Direct buffers have no array.
+            FloatBuffer buffer = ByteBuffer.allocateDirect(4 * input.length).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            buffer.put(input).flip();
+            filter[3].filter(buffer, LongBuffer.wrap(timestamps), buffer);
+            assertEquals(buffer.limit(), buffer.position());
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], buffer.get(i), 0);
+            }
+
+            // The block calls leave the filter where the sample calls did.
+            float[] next = {1, 2, 3};
+            float[] last = filter[0].filter(next.clone(), timestamp + 10 * MS).clone();
+            for (int i = 1; i < filter.length; i++) {
+                assertArrayEquals(last, filter[i].filter(next.clone(), timestamp + 10 * MS), 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.tracqi.fsensor.filter;
+
+import org.apache.commons.math3.stat.StatUtils;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * The sliding median is the median of StatUtils.percentile(values, 50) for
+ * any sequence of additions and evictions, including windows that outgrow the
+ * initial capacity.
+ */
+public class SlidingMedianTest {
+
+    @Test
+    public void matchesPercentile() {
+        Random random = new Random(3);
+        SlidingMedian median = new SlidingMedian();
+        ArrayDeque<Float> window = new ArrayDeque<>();
+
+        // The target window wanders between empty and well past the initial capacity of 32.
+        int target = 0;
+        for (int i = 0; i < 20000; i++) {
+            if (i % 500 == 0) {
+                target = random.nextInt(200);
+            }
+
+            if (window.size() < target || window.isEmpty() || random.nextInt(4) != 0) {
+                // Rounded values, so there are many ties.
+                float value = random.nextInt(4) == 0 ? Math.round(random.nextGaussian() * 4) : (float) random.nextGaussian();
+                median.add(value);
+                window.add(value);
+            }
+            while (window.size() > target && !window.isEmpty()) {
+                median.removeOldest();
+                window.poll();
+            }
+
+            assertEquals(window.size(), median.size());
+            assertEquals(percentile(window), median.median(), 0);
+        }
+    }
+
+    @Test
+    public void emptyWindowHasNoMedian() {
+        SlidingMedian median = new SlidingMedian(1);
+        assertTrue(Double.isNaN(median.median()));
+        for (int i = 0; i < 100; i++) {
+            median.add(i);
+        }
+        assertEquals(49.5, median.median(), 0);
+        median.clear();
+        assertTrue(Double.isNaN(median.median()));
+    }
+
+    private static double percentile(ArrayDeque<Float> window) {
+        if (window.isEmpty()) {
+            return Double.NaN;
+        }
+        double[] values = new double[window.size()];
+        int i = 0;
+        for (float value : window) {
+            values[i++] = value;
+        }
+        return StatUtils.percentile(values, 50);
+    }
+}
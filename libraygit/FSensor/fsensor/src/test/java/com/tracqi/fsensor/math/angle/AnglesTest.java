@@ -0,0 +1,62 @@
+package com.tracqi.fsensor.math.angle;
+
+import com.tracqi.fsensor.math.rotation.MutableQuaternion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link Angles#getQuaternion(float[], MutableQuaternion)} is the inverse of
+ * {@link Angles#getAngles(double, double, double, double, float[])}.
+ */
+public class AnglesTest {
+
+    @Test
+    public void identityHasNoAngles() {
+        assertArrayEquals(new float[3], Angles.getAngles(1, 0, 0, 0), 0);
+        MutableQuaternion q = Angles.getQuaternion(new float[3], new MutableQuaternion());
+        assertEquals(1, q.w, 0);
+        assertEquals(0, q.x, 0);
+        assertEquals(0, q.y, 0);
+        assertEquals(0, q.z, 0);
+    }
+
+    @Test
+    public void quaternionsRoundTrip() {
+        Random random = new Random(11);
+        MutableQuaternion q = new MutableQuaternion();
+        MutableQuaternion actual = new MutableQuaternion();
+        float[] angles = new float[3];
+        for (int i = 0; i < 1000; i++) {
+            q.normalize(random.nextGaussian(), random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+            Angles.getAngles(q.w, q.x, q.y, q.z, angles);
+            // Away from the poles, where azimuth and roll are one angle.
+            if (Math.abs(angles[1]) > 1.5) {
+                continue;
+            }
+
+            Angles.getQuaternion(angles, actual);
+            // q and -q are the same rotation.
+            double dot = q.w * actual.w + q.x * actual.x + q.y * actual.y + q.z * actual.z;
+            assertEquals(1, Math.abs(dot), 1e-6);
+        }
+    }
+
+    @Test
+    public void anglesRoundTrip() {
+        Random random = new Random(13);
+        MutableQuaternion q = new MutableQuaternion();
+        float[] actual = new float[3];
+        for (int i = 0; i < 1000; i++) {
+            float[] angles = {
+                    (float) ((random.nextDouble() * 2 - 1) * Math.PI),
+                    (float) ((random.nextDouble() * 2 - 1) * 1.5),
+                    (float) ((random.nextDouble() * 2 - 1) * Math.PI)};
+            Angles.getQuaternion(angles, q);
+            assertArrayEquals(angles, Angles.getAngles(q.w, q.x, q.y, q.z, actual), 1e-5f);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.tracqi.fsensor.math.magnetic.declination;
+
+import android.location.Location;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The memoized declination against a model that records its evaluations.
+ */
+public class DeclinationTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long TIME = 20000 * DAY;
+
+    private final List<float[]> evaluations = new ArrayList<>();
+    private Declination.Model model;
+
+    @Before
+    public void setUp() {
+        model = Declination.model;
+        Declination.clearCache();
+        Declination.model = new Declination.Model() {
+            @Override
+            public float getDeclination(float latitude, float longitude, long timeMillis) {
+                evaluations.add(new float[]{latitude, longitude, timeMillis / DAY});
+                return latitude / 10 - longitude / 100;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        Declination.model = model;
+        Declination.clearCache();
+    }
+
+    @Test
+    public void evaluatesOncePerCell() {
+        Declination first = new Declination();
+        first.setGeomagneticField(45.1, 7.1, TIME);
+        Declination second = new Declination();
+        second.setGeomagneticField(45.4, 7.4, TIME);
+
+        // Both in the cell centered on 45.25, 7.25.
+        assertEquals(1, evaluations.size());
+        assertEquals(45.25f, evaluations.get(0)[0], 0);
+        assertEquals(7.25f, evaluations.get(0)[1], 0);
+        assertEquals(4.525f - 0.0725f, first.getDeclination(), 1e-6f);
+        assertEquals(first.getDeclination(), second.getDeclination(), 0);
+    }
+
+    @Test
+    public void looksUpAgainOnlyAfterMoving() {
+        Declination declination = new Declination();
+        declination.setGeomagneticField(45.1, 7.1, TIME);
+        float inFirstCell = declination.getDeclination();
+
+        // 500 m north, across the border of the cell, is within the refresh distance.
+        declination.setGeomagneticField(45.4995, 7.1, TIME);
+        declination.setGeomagneticField(45.5040, 7.1, TIME);
+        assertEquals(1, evaluations.size());
+        assertEquals(inFirstCell, declination.getDeclination(), 0);
+
+        // 11 km north is looked up, in the next cell.
+        declination.setGeomagneticField(45.2, 7.1, TIME);
+        declination.setGeomagneticField(45.6, 7.1, TIME);
+        assertEquals(2, evaluations.size());
+        assertEquals(45.75f, evaluations.get(1)[0], 0);
+        assertEquals(4.575f - 0.0725f, declination.getDeclination(), 1e-6f);
+
+        // And back, from the cache.
+        declination.setGeomagneticField(45.1, 7.1, TIME);
+        assertEquals(2, evaluations.size());
+        assertEquals(inFirstCell, declination.getDeclination(), 0);
+    }
+
+    @Test
+    public void looksUpAgainInANewPeriod() {
+        Declination declination = new Declination();
+        long period = Declination.PERIOD_DAYS * DAY;
+        long start = TIME / period * period;
+
+        declination.setGeomagneticField(45.1, 7.1, start);
+        declination.setGeomagneticField(45.1, 7.1, start + period - 1);
+        assertEquals(1, evaluations.size());
+        // Evaluated in the middle of the period.
+        assertEquals(start / DAY + Declination.PERIOD_DAYS / 2, evaluations.get(0)[2], 0);
+
+        declination.setGeomagneticField(45.1, 7.1, start + period);
+        assertEquals(2, evaluations.size());
+        assertEquals(start / DAY + Declination.PERIOD_DAYS * 3 / 2, evaluations.get(1)[2], 0);
+    }
+
+    @Test
+    public void keepsTheLastDeclinationWithoutAFix() {
+        Declination declination = new Declination();
+        declination.setGeomagneticField((Location) null);
+        assertEquals(0, declination.getDeclination(), 0);
+        assertEquals(350, declination.compenstateDeclination(350), 0);
+        assertTrue(evaluations.isEmpty());
+
+        declination.setGeomagneticField(45.1, 7.1, TIME);
+        float last = declination.getDeclination();
+        declination.setGeomagneticField((Location) null);
+        assertEquals(last, declination.getDeclination(), 0);
+        assertEquals(1, evaluations.size());
+    }
+
+    @Test
+    public void compensatedAzimuthsWrap() {
+        Declination declination = new Declination();
+        declination.setGeomagneticField(-45.1, 7.1, TIME);
+        float d = declination.getDeclination();
+        assertTrue(d < 0);
+
+        float[] azimuths = {0, 1, 359, 10};
+        declination.compensateDeclination(azimuths, 1, 2);
+        assertEquals(0, azimuths[0], 0);
+        assertEquals(1 + d + 360, azimuths[1], 1e-4f);
+        assertEquals(359 + d, azimuths[2], 1e-4f);
+        assertEquals(10, azimuths[3], 0);
+    }
+}
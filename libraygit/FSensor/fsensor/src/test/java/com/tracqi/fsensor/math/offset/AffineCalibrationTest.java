@@ -0,0 +1,77 @@
+package com.tracqi.fsensor.math.offset;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link AffineCalibration} corrects samples to scalar * (v - offset), like
+ * {@link CalibrationUtil#calibrate(float[], Calibration)}.
+ */
+public class AffineCalibrationTest {
+
+    private static final float[] SCALAR = {
+            2, 0.5f, 0,
+            0, 1, -1,
+            0.25f, 0, 4};
+    private static final float[] OFFSET = {10, -20, 5};
+
+    @Test
+    public void appliesOffsetThenMatrix() {
+        AffineCalibration calibration = new AffineCalibration(SCALAR, OFFSET);
+        float[] values = {12, -16, 6};
+
+        // v - offset = (2, 4, 1)
+        assertSame(values, calibration.apply(values));
+        assertArrayEquals(new float[]{2 * 2 + 0.5f * 4, 4 - 1, 0.25f * 2 + 4 * 1}, values, 0);
+    }
+
+    @Test
+    public void identityIsANoOp() {
+        AffineCalibration identity = new AffineCalibration(new float[]{1, 0, 0, 0, 1, 0, 0, 0, 1}, new float[3]);
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            float[] values = {(float) random.nextGaussian() * 50, (float) random.nextGaussian() * 50, (float) random.nextGaussian() * 50};
+            float[] expected = values.clone();
+            identity.apply(values);
+            assertArrayEquals(expected, values, 0);
+        }
+    }
+
+    @Test
+    public void correctsOnlyTheGivenSamples() {
+        AffineCalibration calibration = new AffineCalibration(SCALAR, OFFSET);
+        float[] values = {-1, 12, -16, 6, 12, -16, 6, -1};
+        calibration.apply(values, 1, 2);
+
+        float[] expected = calibration.apply(new float[]{12, -16, 6});
+        assertEquals(-1, values[0], 0);
+        assertArrayEquals(expected, new float[]{values[1], values[2], values[3]}, 0);
+        assertArrayEquals(expected, new float[]{values[4], values[5], values[6]}, 0);
+        assertEquals(-1, values[7], 0);
+    }
+
+    @Test
+    public void matchesCalibrationUtil() {
+        double[][] scalar = new double[3][3];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                scalar[i][j] = SCALAR[i * 3 + j];
+            }
+        }
+        Calibration calibration = new Calibration(new Array2DRowRealMatrix(scalar),
+                new ArrayRealVector(new double[]{OFFSET[0], OFFSET[1], OFFSET[2]}));
+        AffineCalibration affine = new AffineCalibration(calibration);
+
+        Random random = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            float[] values = {(float) random.nextGaussian() * 50, (float) random.nextGaussian() * 50, (float) random.nextGaussian() * 50};
+            float[] expected = CalibrationUtil.calibrate(values.clone(), calibration);
+            assertArrayEquals(expected, affine.apply(values), 1e-4f);
+        }
+    }
+}
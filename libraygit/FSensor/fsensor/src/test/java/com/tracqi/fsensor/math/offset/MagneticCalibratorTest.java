@@ -0,0 +1,141 @@
+package com.tracqi.fsensor.math.offset;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * The streaming fit of {@link EllipsoidFitAccumulator} and
+ * {@link MagneticCalibrator} against the fit of a list of points.
+ */
+public class MagneticCalibratorTest {
+
+    private static final double[] OFFSET = {12, -7, 30};
+    private static final double[] RADII = {45, 50, 40};
+    private static final double NOISE = 0.3;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void accumulatorMatchesFitPoints() {
+        Random random = new Random(5);
+        ArrayList<ThreeSpacePoint> points = new ArrayList<>();
+        EllipsoidFitAccumulator accumulator = new EllipsoidFitAccumulator();
+        for (int i = 0; i < 500; i++) {
+            double[] p = sample(random);
+            points.add(new ThreeSpacePoint(p[0], p[1], p[2]));
+            accumulator.add(p[0], p[1], p[2]);
+        }
+
+        FitPoints expected = new FitPoints(points);
+
+        int n = EllipsoidFitAccumulator.N;
+        double[] dtd = new double[n * n];
+        double[] dtOnes = new double[n];
+        double[] v = new double[n];
+        assertEquals(500, accumulator.get(dtd, dtOnes));
+        assertTrue(EllipsoidFitAccumulator.solve(dtd, dtOnes, v));
+        FitPoints actual = new FitPoints(new ArrayRealVector(v));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(expected.center.getEntry(i), actual.center.getEntry(i), 1e-6);
+            assertEquals(expected.radii.getEntry(i), actual.radii.getEntry(i), 1e-6);
+            assertEquals(OFFSET[i], actual.center.getEntry(i), 0.5);
+        }
+    }
+
+    @Test
+    public void errorIsRelativeToTheRadius() {
+        Random random = new Random(7);
+        final Calibration[] published = new Calibration[1];
+        MagneticCalibrator calibrator = new MagneticCalibrator(2.5f, DIRECT, new MagneticCalibrator.Listener() {
+            @Override
+            public void onCalibration(Calibration calibration) {
+                published[0] = calibration;
+            }
+        });
+
+        // Held still first, the spatial filter keeps those samples from outweighing the rest.
+        for (int i = 0; i < 5000; i++) {
+            double[] p = i < 2000 ? still(random) : sample(random);
+            calibrator.add(new float[]{(float) p[0], (float) p[1], (float) p[2]});
+        }
+
+        assertNotNull(published[0]);
+        assertSame(published[0], calibrator.getCalibration());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(OFFSET[i], calibrator.getCalibration().offset.getEntry(i), 0.5);
+        }
+        // The noise of 0.3 uT is about 0.7% of the radii.
+        assertEquals(NOISE / 45, calibrator.getError(), 0.003);
+    }
+
+    @Test
+    public void recoversFromAPartialStart() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            MagneticCalibrator calibrator = new MagneticCalibrator(2.5f, DIRECT, null);
+
+            // Turned about a little first, a cap of the sphere fits many wrong ellipsoids.
+            for (int i = 0; i < 1000; i++) {
+                double[] p = point(random, 0.6 * random.nextDouble(), 2 * Math.PI * random.nextDouble());
+                calibrator.add(new float[]{(float) p[0], (float) p[1], (float) p[2]});
+            }
+            for (int i = 0; i < 10000; i++) {
+                double[] p = sample(random);
+                calibrator.add(new float[]{(float) p[0], (float) p[1], (float) p[2]});
+            }
+
+            assertNotNull(calibrator.getCalibration());
+            for (int i = 0; i < 3; i++) {
+                assertEquals("seed " + seed, OFFSET[i], calibrator.getCalibration().offset.getEntry(i), 0.5);
+            }
+            assertEquals(NOISE / 45, calibrator.getError(), 0.003);
+        }
+    }
+
+    @Test
+    public void stopsTakingSamplesWhenTheBucketsAreFull() {
+        Random random = new Random(9);
+        MagneticCalibrator calibrator = new MagneticCalibrator(1, DIRECT, null);
+
+        int used = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (calibrator.add(new float[]{random.nextInt(1000), random.nextInt(1000), random.nextInt(1000)})) {
+                used++;
+            }
+        }
+        assertEquals(3072, used);
+        assertEquals(3072, calibrator.getPointCount());
+
+        calibrator.reset();
+        assertTrue(calibrator.add(new float[]{1, 2, 3}));
+    }
+
+    private static double[] sample(Random random) {
+        double theta = Math.acos(2 * random.nextDouble() - 1);
+        double phi = 2 * Math.PI * random.nextDouble();
+        return point(random, theta, phi);
+    }
+
+    private static double[] still(Random random) {
+        return point(random, 0.3 + 0.01 * random.nextGaussian(), 0.5 + 0.01 * random.nextGaussian());
+    }
+
+    private static double[] point(Random random, double theta, double phi) {
+        return new double[]{
+                OFFSET[0] + RADII[0] * Math.sin(theta) * Math.cos(phi) + NOISE * random.nextGaussian(),
+                OFFSET[1] + RADII[1] * Math.sin(theta) * Math.sin(phi) + NOISE * random.nextGaussian(),
+                OFFSET[2] + RADII[2] * Math.cos(theta) + NOISE * random.nextGaussian()};
+    }
+}
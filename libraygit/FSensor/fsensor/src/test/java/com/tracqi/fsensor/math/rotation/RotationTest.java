@@ -0,0 +1,86 @@
+package com.tracqi.fsensor.math.rotation;
+
+import org.apache.commons.math3.complex.Quaternion;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * The garbage free gyroscope integration produces the same orientations as
+ * the original one on commons-math quaternions.
+ */
+public class RotationTest {
+
+    private static final float EPSILON = 0.000000001f;
+
+    @Test
+    public void mutableIntegrationMatchesQuaternionIntegration() {
+        Random random = new Random(5);
+
+        Quaternion expected = Quaternion.IDENTITY;
+        MutableQuaternion actual = new MutableQuaternion();
+        float[] rate = new float[3];
+
+        for (int i = 0; i < 10000; i++) {
+            for (int j = 0; j < 3; j++) {
+                // Mostly slow turns, with some still samples below epsilon.
+                rate[j] = i % 50 == 0 ? 0 : (float) (random.nextGaussian() * (i % 7 == 0 ? 5 : 0.5));
+            }
+            float dt = 0.005f + random.nextFloat() * 0.015f;
+
+            float[] copy = rate.clone();
+            Rotation.integrateGyroscopeRotation(actual, rate, dt, EPSILON, actual);
+            assertArrayEquals("rate is left untouched", copy, rate, 0);
+
+            expected = integrateGyroscopeRotation(expected, copy, dt, EPSILON);
+
+            assertEquals(expected.getQ0(), actual.w, 0);
+            assertEquals(expected.getQ1(), actual.x, 0);
+            assertEquals(expected.getQ2(), actual.y, 0);
+            assertEquals(expected.getQ3(), actual.z, 0);
+        }
+    }
+
+    @Test
+    public void quaternionIntegrationMatchesMutableIntegration() {
+        Random random = new Random(7);
+
+        Quaternion q = Quaternion.IDENTITY;
+        Quaternion expected = Quaternion.IDENTITY;
+        for (int i = 0; i < 1000; i++) {
+            float[] rate = {(float) random.nextGaussian(), (float) random.nextGaussian(), (float) random.nextGaussian()};
+            q = Rotation.integrateGyroscopeRotation(q, rate.clone(), 0.01f, EPSILON);
+            expected = integrateGyroscopeRotation(expected, rate, 0.01f, EPSILON);
+            assertTrue(expected.equals(q, 0));
+        }
+    }
+
+    /**
+     * The integration before the mutable quaternion, with the arithmetic of commons-math.
+     */
+    private static Quaternion integrateGyroscopeRotation(Quaternion previousRotationVector, float[] rateOfRotation, float dt, float epsilon) {
+        float magnitude = (float) Math.sqrt(Math.pow(rateOfRotation[0], 2) + Math.pow(rateOfRotation[1], 2) + Math.pow(rateOfRotation[2], 2));
+
+        if (magnitude > epsilon) {
+            rateOfRotation[0] /= magnitude;
+            rateOfRotation[1] /= magnitude;
+            rateOfRotation[2] /= magnitude;
+        }
+
+        float thetaOverTwo = magnitude * dt / 2.0f;
+        float sinThetaOverTwo = (float) Math.sin(thetaOverTwo);
+        float cosThetaOverTwo = (float) Math.cos(thetaOverTwo);
+
+        double[] deltaVector = new double[4];
+
+        deltaVector[0] = sinThetaOverTwo * rateOfRotation[0];
+        deltaVector[1] = sinThetaOverTwo * rateOfRotation[1];
+        deltaVector[2] = sinThetaOverTwo * rateOfRotation[2];
+        deltaVector[3] = cosThetaOverTwo;
+
+        return previousRotationVector.multiply(new Quaternion(deltaVector[3], Arrays.copyOfRange(deltaVector, 0, 3)));
+    }
+}
@@ -0,0 +1,165 @@
+package com.tracqi.fsensor.rotation;
+
+import com.tracqi.fsensor.rotation.fusion.complementary.ComplimentaryRotation;
+import com.tracqi.fsensor.rotation.fusion.kalman.KalmanRotation;
+import com.tracqi.fsensor.rotation.fusion.madgwick.MadgwickRotation;
+import com.tracqi.fsensor.rotation.fusion.mahony.MahonyRotation;
+import com.tracqi.fsensor.sensor.SensorSource;
+import com.tracqi.fsensor.sensor.record.ReplaySensorSource;
+import com.tracqi.fsensor.sensor.record.SensorRecordingReader;
+import com.tracqi.fsensor.sensor.record.SyntheticRecording;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.function.Function;
+
+import static com.tracqi.fsensor.sensor.record.SyntheticRecording.SAMPLES;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Replays a recording of a known trajectory through every rotation and
+ * checks its angle error and that it does not allocate.
+ * <p>
+ * The recording is a {@link SyntheticRecording}. The error bounds are a few
+ * percent above the errors of the fusions, so a regression fails.
+ * {@link #throughput()} times the rotations, it only runs with
+ * -Dfsensor.benchmark=true, or ./gradlew test -Pbenchmark.
+ */
+public class RotationReplayTest {
+
+    // The fusions converge from the first acceleration/magnetic orientation.
+    private static final int WARM_UP = 5 * 200;
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private static SyntheticRecording recording;
+
+    @BeforeClass
+    public static void record() throws IOException {
+        recording = SyntheticRecording.synthesize(false);
+    }
+
+    @Test
+    public void complementary() throws IOException {
+        replay("Complementary", ComplimentaryRotation::new, 0.22);
+    }
+
+    @Test
+    public void kalman() throws IOException {
+        replay("Kalman", KalmanRotation::new, 0.027);
+    }
+
+    @Test
+    public void madgwick() throws IOException {
+        replay("Madgwick", MadgwickRotation::new, 0.045);
+    }
+
+    @Test
+    public void mahony() throws IOException {
+        replay("Mahony", MahonyRotation::new, 0.042);
+    }
+
+    @Test
+    public void throughput() throws IOException {
+        assumeTrue(Boolean.getBoolean("fsensor.benchmark"));
+
+        time("Complementary", ComplimentaryRotation::new);
+        time("Kalman", KalmanRotation::new);
+        time("Madgwick", MadgwickRotation::new);
+        time("Mahony", MahonyRotation::new);
+    }
+
+    private static void replay(String name, Function<SensorSource, Rotation> backend, double maxError) throws IOException {
+        // Accuracy, sampled after every gyroscope sample.
+        double rms = recording.replay(backend, i -> i >= WARM_UP);
+        assertFalse(Double.isNaN(rms));
+        assertTrue(name + " error " + rms, rms < maxError);
+
+        // Allocation, from decoded samples so the reader is not measured. The
+        // first half lets the fusion settle and allocate what it keeps.
+        Samples samples = decode(recording.bytes);
+        ReplaySensorSource allocationSource = new ReplaySensorSource();
+        Rotation allocationRotation = backend.apply(allocationSource);
+        allocationRotation.start(0);
+        int half = samples.count / 2;
+        samples.replay(allocationSource, 0, half);
+        long allocated = getAllocatedBytes();
+        samples.replay(allocationSource, half, samples.count);
+        if (allocated >= 0) {
+            // Measured before the message of the assertion is built.
+            long bytes = getAllocatedBytes() - allocated;
+            assertEquals(name + " allocated bytes", 0, bytes);
+        }
+        allocationRotation.stop();
+    }
+
+    /**
+     * Prints the best time per gyroscope sample of 10 replays.
+     */
+    private static void time(String name, Function<SensorSource, Rotation> backend) throws IOException {
+        Samples samples = decode(recording.bytes);
+        long bestTime = Long.MAX_VALUE;
+        for (int round = 0; round < 10; round++) {
+            ReplaySensorSource source = new ReplaySensorSource();
+            Rotation rotation = backend.apply(source);
+            rotation.start(0);
+
+            long start = System.nanoTime();
+            samples.replay(source, 0, samples.count);
+            bestTime = Math.min(bestTime, System.nanoTime() - start);
+            rotation.stop();
+        }
+
+        System.out.printf("%s: %.0f ns per gyroscope sample%n", name, bestTime / (double) SAMPLES);
+    }
+
+    private static Samples decode(byte[] recording) throws IOException {
+        Samples samples = new Samples(SAMPLES * 2);
+        try (SensorRecordingReader reader = new SensorRecordingReader(new ByteArrayInputStream(recording))) {
+            while (reader.next()) {
+                samples.types[samples.count] = reader.getSensorType();
+                samples.timestamps[samples.count] = reader.getTimestamp();
+                samples.values[samples.count] = reader.getValues().clone();
+                samples.count++;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * A decoded recording.
+     */
+    private static class Samples {
+        final int[] types;
+        final long[] timestamps;
+        final float[][] values;
+        int count;
+
+        Samples(int capacity) {
+            types = new int[capacity];
+            timestamps = new long[capacity];
+            values = new float[capacity][];
+        }
+
+        void replay(ReplaySensorSource source, int from, int to) {
+            for (int i = from; i < to; i++) {
+                source.replay(types[i], 3, timestamps[i], values[i]);
+            }
+        }
+    }
+
+    private static long getAllocatedBytes() {
+        // getThreadMXBean() allocates, so it is looked up once.
+        ThreadMXBean bean = THREAD_MX_BEAN;
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,53 @@
+package com.tracqi.fsensor.rotation;
+
+import com.tracqi.fsensor.math.angle.Angles;
+import com.tracqi.fsensor.math.rotation.MutableQuaternion;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The defaults of {@link Rotation} for rotations that only implement the
+ * Euler angles.
+ */
+public class RotationTest {
+
+    @Test
+    public void startsWithoutBatching() {
+        EulerRotation rotation = new EulerRotation();
+        rotation.start(2, 100000);
+        assertEquals(2, rotation.sensorDelay);
+    }
+
+    @Test
+    public void quaternionIsBuiltFromTheOrientation() {
+        EulerRotation rotation = new EulerRotation();
+        MutableQuaternion q = new MutableQuaternion().set(0.5, 0.5, 0.5, 0.5);
+        assertFalse(rotation.getQuaternion(q));
+        assertEquals(0.5, q.w, 0);
+
+        rotation.orientation = new float[]{0.3f, -0.2f, 1.1f};
+        assertTrue(rotation.getQuaternion(q));
+        assertArrayEquals(rotation.orientation, Angles.getAngles(q.w, q.x, q.y, q.z), 1e-5f);
+    }
+
+    private static class EulerRotation implements Rotation {
+        int sensorDelay = -1;
+        float[] orientation;
+
+        @Override
+        public void start(int sensorDelay) {
+            this.sensorDelay = sensorDelay;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public float[] getOrientation() {
+            return orientation;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.tracqi.fsensor.rotation.fusion.complementary;
+
+import com.tracqi.fsensor.sensor.record.SyntheticRecording;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * The adaptive gain keeps magnetic disturbances and linear acceleration out of the estimate.
+ */
+public class ComplimentaryRotationTest {
+
+    private static SyntheticRecording recording;
+
+    @BeforeClass
+    public static void record() throws IOException {
+        recording = SyntheticRecording.synthesize(true);
+    }
+
+    @Test
+    public void adaptiveComplementaryRejectsDisturbances() throws IOException {
+        double fixed = recording.disturbedError(source -> {
+            ComplimentaryRotation rotation = new ComplimentaryRotation(source);
+            rotation.setAdaptive(false);
+            return rotation;
+        });
+        double adaptive = recording.disturbedError(ComplimentaryRotation::new);
+        // 0.694 and 0.320 rad rms
+        assertTrue("Complementary disturbed error " + adaptive, adaptive < 0.34);
+        assertTrue(adaptive < 0.5 * fixed);
+    }
+}
@@ -0,0 +1,36 @@
+package com.tracqi.fsensor.rotation.fusion.kalman;
+
+import com.tracqi.fsensor.sensor.record.SyntheticRecording;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * The adaptive noise keeps magnetic disturbances and linear acceleration out of the estimate.
+ */
+public class KalmanRotationTest {
+
+    private static SyntheticRecording recording;
+
+    @BeforeClass
+    public static void record() throws IOException {
+        recording = SyntheticRecording.synthesize(true);
+    }
+
+    @Test
+    public void adaptiveGainsRejectDisturbances() throws IOException {
+        double fixed = recording.disturbedError(source -> {
+            KalmanRotation rotation = new KalmanRotation(source);
+            rotation.setAdaptive(false);
+            return rotation;
+        });
+        double adaptive = recording.disturbedError(KalmanRotation::new);
+        // 0.627 and 0.295 rad rms
+        assertTrue("Kalman disturbed error " + adaptive, adaptive < 0.31);
+        assertTrue(adaptive < 0.5 * fixed);
+    }
+}
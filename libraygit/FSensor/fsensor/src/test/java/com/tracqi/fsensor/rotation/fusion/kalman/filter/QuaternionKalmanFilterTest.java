@@ -0,0 +1,107 @@
+package com.tracqi.fsensor.rotation.fusion.kalman.filter;
+
+import org.apache.commons.math3.filter.DefaultMeasurementModel;
+import org.apache.commons.math3.filter.DefaultProcessModel;
+import org.apache.commons.math3.filter.MeasurementModel;
+import org.apache.commons.math3.filter.ProcessModel;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Steps {@link QuaternionKalmanFilter} and the {@link KalmanFilter} it replaces
+ * side by side with random inputs.
+ */
+public class QuaternionKalmanFilterTest {
+
+    private static final int STEPS = 2000;
+    private static final double TOLERANCE = 1e-12;
+
+    @Test
+    public void matchesKalmanFilterWithRotationModels() {
+        assertSameSteps(new RotationProcessModel(), new RotationMeasurementModel(), new Random(11));
+    }
+
+    @Test
+    public void matchesKalmanFilterWithRandomNoise() {
+        Random random = new Random(13);
+
+        // The models of a rotation, identity transition and measurement, with full positive definite noise.
+        RealMatrix identity = MatrixUtils.createRealIdentityMatrix(4);
+        ProcessModel processModel = new DefaultProcessModel(identity, identity, positiveDefinite(random, 0.01),
+                MatrixUtils.createRealVector(new double[4]), positiveDefinite(random, 0.1));
+        MeasurementModel measurementModel = new DefaultMeasurementModel(identity, positiveDefinite(random, 0.02));
+
+        assertSameSteps(processModel, measurementModel, random);
+    }
+
+    private static void assertSameSteps(ProcessModel processModel, MeasurementModel measurementModel, Random random) {
+        KalmanFilter reference = new KalmanFilter(processModel, measurementModel);
+        QuaternionKalmanFilter filter = new QuaternionKalmanFilter(processModel, measurementModel);
+
+        double[] u = new double[4];
+        double[] z = new double[4];
+        double[] state = new double[4];
+        double[] covariance = new double[16];
+        for (int step = 0; step < STEPS; step++) {
+            // A random unit quaternion as the a priori state and a noisy measurement of it.
+            double norm = 0;
+            for (int i = 0; i < 4; i++) {
+                u[i] = random.nextGaussian();
+                norm += u[i] * u[i];
+            }
+            for (int i = 0; i < 4; i++) {
+                u[i] /= Math.sqrt(norm);
+                z[i] = u[i] + 0.1 * random.nextGaussian();
+            }
+
+            reference.predict(u.clone());
+            filter.predict(u);
+            reference.correct(z.clone());
+            filter.correct(z);
+
+            filter.getStateEstimation(state);
+            double[] expectedState = reference.getStateEstimation();
+            for (int i = 0; i < 4; i++) {
+                assertEquals("state " + i + " at step " + step, expectedState[i], state[i], TOLERANCE);
+            }
+
+            filter.getErrorCovariance(covariance);
+            double[][] expectedCovariance = reference.getErrorCovariance();
+            for (int r = 0; r < 4; r++) {
+                for (int c = 0; c < 4; c++) {
+                    assertEquals("covariance " + r + "," + c + " at step " + step,
+                            expectedCovariance[r][c], covariance[r * 4 + c], TOLERANCE);
+                }
+            }
+        }
+    }
+
+    /**
+     * M * M' plus a diagonal, exactly symmetric.
+     */
+    private static RealMatrix positiveDefinite(Random random, double diagonal) {
+        double[][] m = new double[4][4];
+        for (int r = 0; r < 4; r++) {
+            for (int c = 0; c < 4; c++) {
+                m[r][c] = 0.1 * random.nextGaussian();
+            }
+        }
+        double[][] out = new double[4][4];
+        for (int r = 0; r < 4; r++) {
+            for (int c = 0; c <= r; c++) {
+                double sum = r == c ? diagonal : 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += m[r][k] * m[c][k];
+                }
+                out[r][c] = out[c][r] = sum;
+            }
+        }
+        return new Array2DRowRealMatrix(out);
+    }
+}
@@ -0,0 +1,62 @@
+package com.tracqi.fsensor.rotation.raw;
+
+import android.hardware.Sensor;
+
+import com.tracqi.fsensor.math.rotation.MutableQuaternion;
+import com.tracqi.fsensor.sensor.record.ReplaySensorSource;
+
+import org.apache.commons.math3.complex.Quaternion;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The gyroscope alone only knows the orientation relative to where it started.
+ */
+public class GyroscopeRotationTest {
+
+    private static final long PERIOD = 5000000L;
+
+    @Test
+    public void hasNoQuaternionWithoutABaseOrientation() {
+        ReplaySensorSource source = new ReplaySensorSource();
+        GyroscopeRotation rotation = new GyroscopeRotation(source);
+        rotation.start(0);
+        turn(source);
+
+        MutableQuaternion q = new MutableQuaternion().set(0.5, 0.5, 0.5, 0.5);
+        assertFalse(rotation.getQuaternion(q));
+        assertEquals(0.5, q.w, 0);
+        // The angles are still relative to the start.
+        assertEquals(-1, rotation.getOrientation()[0], 1e-4);
+        rotation.stop();
+    }
+
+    @Test
+    public void rotatesFromTheBaseOrientation() {
+        ReplaySensorSource source = new ReplaySensorSource();
+        GyroscopeRotation rotation = new GyroscopeRotation(source);
+        // Facing west.
+        rotation.setBaseOrientation(new Quaternion(Math.cos(Math.PI / 4), 0, 0, Math.sin(Math.PI / 4)));
+        rotation.start(0);
+        turn(source);
+
+        MutableQuaternion q = new MutableQuaternion();
+        assertTrue(rotation.getQuaternion(q));
+        // Turned 1 rad further counterclockwise around z.
+        assertEquals(Math.cos(Math.PI / 4 + 0.5), q.w, 1e-4);
+        assertEquals(0, q.x, 0);
+        assertEquals(0, q.y, 0);
+        assertEquals(Math.sin(Math.PI / 4 + 0.5), q.z, 1e-4);
+        rotation.stop();
+    }
+
+    /**
+     * 1 rad counterclockwise around z in 1 s.
+     */
+    private static void turn(ReplaySensorSource source) {
+        for (int i = 0; i <= 200; i++) {
+            source.replay(Sensor.TYPE_GYROSCOPE, 3, 1000 + i * PERIOD, new float[]{0, 0, 1});
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.tracqi.fsensor.sensor;
+
+import android.hardware.Sensor;
+
+import com.tracqi.fsensor.rotation.raw.GyroscopeRotation;
+import com.tracqi.fsensor.sensor.record.ReplaySensorSource;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.tracqi.fsensor.sensor.record.SyntheticRecording.PERIOD;
+import static com.tracqi.fsensor.sensor.record.SyntheticRecording.angles;
+import static com.tracqi.fsensor.sensor.record.SyntheticRecording.error;
+import static com.tracqi.fsensor.sensor.record.SyntheticRecording.integrate;
+import static com.tracqi.fsensor.sensor.record.SyntheticRecording.noisy;
+import static com.tracqi.fsensor.sensor.record.SyntheticRecording.toDevice;
+import static org.junit.Assert.*;
+
+/**
+ * The bias is learned while the device is still, and only then.
+ */
+public class GyroscopeBiasSourceTest {
+
+    @Test
+    public void gyroscopeBiasIsRemovedWhileStill() {
+        Random random = new Random(5);
+        // About 0.9 deg/s, within the bound on a bias.
+        double[] bias = {0.006, -0.012, 0.009};
+        double dt = PERIOD / 1e9;
+
+        ReplaySensorSource source = new ReplaySensorSource();
+        GyroscopeBiasSource biasSource = new GyroscopeBiasSource(source);
+        GyroscopeRotation raw = new GyroscopeRotation(source);
+        GyroscopeRotation corrected = new GyroscopeRotation(biasSource);
+        raw.start(0);
+        corrected.start(0);
+
+        // 3 s on a table, then 30 s of rotation.
+        int still = 3 * 200;
+        double[] q = {1, 0, 0, 0};
+        for (int i = 0; i < still + 30 * 200; i++) {
+            double t = i * dt;
+            double[] rate = i < still ? new double[3]
+                    : new double[]{0.5 * Math.sin(0.7 * t), 0.4 * Math.cos(0.5 * t), 0.6 * Math.sin(0.3 * t)};
+            q = integrate(q, rate, dt);
+
+            long timestamp = 1000 + i * PERIOD;
+            if (i % 2 == 0) {
+                source.replay(Sensor.TYPE_ACCELEROMETER, 3, timestamp, noisy(toDevice(q, new double[]{0, 0, 9.81}), 0.05, random));
+            }
+            double[] gyroscope = {rate[0] + bias[0], rate[1] + bias[1], rate[2] + bias[2]};
+            source.replay(Sensor.TYPE_GYROSCOPE, 3, timestamp, noisy(gyroscope, 0.005, random));
+        }
+        raw.stop();
+        corrected.stop();
+
+        float[] estimate = new float[3];
+        biasSource.getEstimator().getBias(estimate);
+        assertArrayEquals(new float[]{0.006f, -0.012f, 0.009f}, estimate, 0.002f);
+
+        double rawError = error(raw.getOrientation(), angles(q));
+        double correctedError = error(corrected.getOrientation(), angles(q));
+        assertTrue(rawError + " rad raw, " + correctedError + " rad corrected", correctedError < rawError / 5);
+    }
+
+    @Test
+    public void slowTurnIsNotTakenForBias() {
+        Random random = new Random(6);
+        double dt = PERIOD / 1e9;
+
+        ReplaySensorSource source = new ReplaySensorSource();
+        GyroscopeBiasSource biasSource = new GyroscopeBiasSource(source);
+        GyroscopeRotation corrected = new GyroscopeRotation(biasSource);
+        corrected.start(0);
+
+        // Flat on a turntable at about 3 deg/s: gravity does not move and the rate has no variance.
+        double[] rate = {0, 0, 0.05};
+        double[] q = {1, 0, 0, 0};
+        for (int i = 0; i < 20 * 200; i++) {
+            q = integrate(q, rate, dt);
+
+            long timestamp = 1000 + i * PERIOD;
+            if (i % 2 == 0) {
+                source.replay(Sensor.TYPE_ACCELEROMETER, 3, timestamp, noisy(toDevice(q, new double[]{0, 0, 9.81}), 0.05, random));
+            }
+            source.replay(Sensor.TYPE_GYROSCOPE, 3, timestamp, noisy(rate, 0.005, random));
+            assertFalse(biasSource.getEstimator().isStill());
+        }
+        corrected.stop();
+
+        assertFalse(biasSource.getEstimator().hasEstimate());
+        assertEquals(0, error(corrected.getOrientation(), angles(q)), 0.01);
+    }
+}
@@ -0,0 +1,133 @@
+package com.tracqi.fsensor.sensor.acceleration;
+
+import android.hardware.Sensor;
+
+import com.tracqi.fsensor.math.integration.ZuptIntegrator;
+import com.tracqi.fsensor.rotation.fusion.complementary.ComplimentaryRotation;
+import com.tracqi.fsensor.sensor.FSensorEventListener;
+import com.tracqi.fsensor.sensor.record.ReplaySensorSource;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.tracqi.fsensor.sensor.record.SyntheticRecording.PERIOD;
+import static com.tracqi.fsensor.sensor.record.SyntheticRecording.integrate;
+import static com.tracqi.fsensor.sensor.record.SyntheticRecording.noisy;
+import static com.tracqi.fsensor.sensor.record.SyntheticRecording.toDevice;
+import static org.junit.Assert.*;
+
+/**
+ * The linear acceleration in the east, north, up frame, integrated to a displacement.
+ */
+public class LinearAccelerationFSensorTest {
+
+    @Test
+    public void earthFrameLinearAccelerationIsIntegrated() {
+        Random random = new Random(7);
+        double[] accelerationBias = {0.05, -0.04, 0.06};
+        double dt = PERIOD / 1e9;
+
+        ReplaySensorSource source = new ReplaySensorSource();
+        // The moves accelerate horizontally, which no fusion can tell from tilt, so dead
+        // reckoning needs a slow correction of the gyroscope.
+        LinearAccelerationFSensor fSensor = new LinearAccelerationFSensor(source, new ComplimentaryRotation(source, 2)) {};
+        fSensor.setEarthFrame(true);
+        ZuptIntegrator integrator = new ZuptIntegrator();
+        fSensor.setIntegrator(integrator);
+
+        // The acceleration of every event, integrated without rests for comparison.
+        final double[] expected = new double[3];
+        final double[] squares = new double[1];
+        final int[] events = new int[1];
+        final double[] velocity = new double[3];
+        final double[] displacement = new double[3];
+        FSensorEventListener listener = event -> {
+            for (int i = 0; i < 3; i++) {
+                double d = event.values[i] - expected[i];
+                squares[0] += d * d;
+                velocity[i] += event.values[i] * dt;
+                displacement[i] += velocity[i] * dt;
+            }
+            events[0]++;
+        };
+        fSensor.registerListener(listener, 0);
+
+        // 3 s at rest, then moves of 2 s with rotation and 1 s rests in between.
+        double[][] moves = {{1, 0, 0}, {0, 1, 0}, {0, 0, 0.5}, {-1, 0, 0}};
+        int rest = 3 * 200;
+        int move = 2 * 200;
+        int stop = 200;
+        double[] q = {Math.cos(0.3), Math.sin(0.1), 0, Math.sin(0.3)};
+        int samples = rest + moves.length * (move + stop);
+        for (int i = 0; i < samples; i++) {
+            int phase = i < rest ? -1 : (i - rest) / (move + stop);
+            int inPhase = i < rest ? 0 : (i - rest) % (move + stop);
+            double[] linear = new double[3];
+            double[] rate = new double[3];
+            if (phase >= 0 && inPhase < move) {
+                // Moves the distance of the phase with a smooth velocity, while turning.
+                double t = inPhase * dt;
+                double T = move * dt;
+                double a = 2 * Math.PI / (T * T) * Math.sin(2 * Math.PI * t / T);
+                for (int j = 0; j < 3; j++) {
+                    linear[j] = moves[phase][j] * a;
+                }
+                double turn = Math.sin(Math.PI * t / T);
+                rate = new double[]{0.6 * turn, -0.4 * turn, 0.8 * turn};
+            }
+            q = integrate(q, rate, dt);
+
+            long timestamp = 1000 + i * PERIOD;
+            if (i % 2 == 0) {
+                double[] acceleration = toDevice(q, new double[]{linear[0], linear[1], linear[2] + 9.81});
+                for (int j = 0; j < 3; j++) {
+                    acceleration[j] += accelerationBias[j];
+                }
+                source.replay(Sensor.TYPE_ACCELEROMETER, 3, timestamp, noisy(acceleration, 0.05, random));
+            }
+            if (i % 4 == 0) {
+                source.replay(Sensor.TYPE_MAGNETIC_FIELD, 3, timestamp, noisy(toDevice(q, new double[]{0, 20, -40}), 0.5, random));
+            }
+            System.arraycopy(linear, 0, expected, 0, 3);
+            source.replay(Sensor.TYPE_GYROSCOPE, 3, timestamp, noisy(rate, 0.005, random));
+        }
+        fSensor.unregisterListener(listener);
+
+        assertTrue(events[0] > samples - 10);
+        double rms = Math.sqrt(squares[0] / events[0]);
+
+        float[] estimate = new float[3];
+        integrator.getDisplacement(estimate);
+        double zuptError = Math.sqrt(square(estimate[0]) + square(estimate[1] - 1) + square(estimate[2] - 0.5));
+        double plainError = Math.sqrt(square(displacement[0]) + square(displacement[1] - 1) + square(displacement[2] - 0.5));
+
+        assertTrue(integrator.isAtRest());
+        assertTrue(rms + " m/s^2 rms", rms < 0.25);
+        assertTrue(zuptError + " m with ZUPT, " + plainError + " m without", zuptError < 0.25);
+        assertTrue(zuptError + " m with ZUPT, " + plainError + " m without", zuptError < plainError / 4);
+    }
+
+    @Test
+    public void earthFrameCannotChangeWhileRegistered() {
+        ReplaySensorSource source = new ReplaySensorSource();
+        LinearAccelerationFSensor fSensor = new LinearAccelerationFSensor(source, new ComplimentaryRotation(source)) {};
+        FSensorEventListener listener = event -> {
+        };
+        fSensor.registerListener(listener, 0);
+        try {
+            fSensor.setEarthFrame(true);
+            fail("The gyroscope is not registered, the output would stop");
+        } catch (IllegalStateException expected) {
+        }
+        assertFalse(fSensor.isEarthFrame());
+
+        fSensor.unregisterListener(listener);
+        fSensor.setEarthFrame(true);
+        assertTrue(fSensor.isEarthFrame());
+    }
+
+    private static double square(double x) {
+        return x * x;
+    }
+}
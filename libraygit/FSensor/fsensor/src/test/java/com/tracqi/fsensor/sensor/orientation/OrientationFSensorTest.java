@@ -0,0 +1,50 @@
+package com.tracqi.fsensor.sensor.orientation;
+
+import com.tracqi.fsensor.rotation.fusion.madgwick.MadgwickRotation;
+import com.tracqi.fsensor.sensor.FSensorEventListener;
+import com.tracqi.fsensor.sensor.record.ReplaySensorSource;
+import com.tracqi.fsensor.sensor.record.SyntheticRecording;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static com.tracqi.fsensor.sensor.record.SyntheticRecording.SAMPLES;
+import static com.tracqi.fsensor.sensor.record.SyntheticRecording.angles;
+import static com.tracqi.fsensor.sensor.record.SyntheticRecording.error;
+import static org.junit.Assert.*;
+
+/**
+ * An orientation FSensor dispatches the angles of its rotation at every gyroscope sample.
+ */
+public class OrientationFSensorTest {
+
+    private static SyntheticRecording recording;
+
+    @BeforeClass
+    public static void record() throws IOException {
+        recording = SyntheticRecording.synthesize(false);
+    }
+
+    @Test
+    public void orientationFSensorDispatchesRotation() throws IOException {
+        ReplaySensorSource source = new ReplaySensorSource();
+        OrientationFSensor fSensor = new OrientationFSensor(source, new MadgwickRotation(source));
+        final int[] events = new int[1];
+        final float[] last = new float[3];
+        FSensorEventListener listener = event -> {
+            events[0]++;
+            System.arraycopy(event.values, 0, last, 0, 3);
+        };
+        fSensor.registerListener(listener, 0);
+
+        source.replay(new ByteArrayInputStream(recording.bytes));
+        fSensor.unregisterListener(listener);
+
+        assertEquals(SAMPLES, events[0]);
+        float[] expected = angles(recording.truth[SAMPLES - 1]);
+        assertEquals(0, error(last, expected), 0.1);
+    }
+}
@@ -0,0 +1,52 @@
+package com.tracqi.fsensor.sensor.record;
+
+import android.hardware.Sensor;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static com.tracqi.fsensor.sensor.record.SyntheticRecording.PERIOD;
+import static com.tracqi.fsensor.sensor.record.SyntheticRecording.SAMPLES;
+import static org.junit.Assert.*;
+
+/**
+ * Reads back what {@link SensorRecorder} wrote.
+ */
+public class SensorRecordingReaderTest {
+
+    private static byte[] recording;
+
+    @BeforeClass
+    public static void record() throws IOException {
+        recording = SyntheticRecording.synthesize(false).bytes;
+    }
+
+    @Test
+    public void recordingRoundTrips() throws IOException {
+        // Header, then 24 bytes per sample of three values.
+        assertEquals(6 + 24 * (SAMPLES + SAMPLES / 2 + SAMPLES / 4), recording.length);
+
+        try (SensorRecordingReader reader = new SensorRecordingReader(new ByteArrayInputStream(recording))) {
+            assertTrue(reader.next());
+            assertEquals(Sensor.TYPE_ACCELEROMETER, reader.getSensorType());
+            assertEquals(3, reader.getAccuracy());
+            assertEquals(1000, reader.getTimestamp());
+            assertEquals(3, reader.getValues().length);
+            assertTrue(reader.next());
+            assertEquals(Sensor.TYPE_MAGNETIC_FIELD, reader.getSensorType());
+            assertTrue(reader.next());
+            assertEquals(Sensor.TYPE_GYROSCOPE, reader.getSensorType());
+            assertTrue(reader.next());
+            assertEquals(Sensor.TYPE_GYROSCOPE, reader.getSensorType());
+            assertEquals(1000 + PERIOD, reader.getTimestamp());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherStreams() throws IOException {
+        new SensorRecordingReader(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6})).close();
+    }
+}
@@ -0,0 +1,175 @@
+package com.tracqi.fsensor.sensor.record;
+
+import android.hardware.Sensor;
+
+import com.tracqi.fsensor.math.angle.Angles;
+import com.tracqi.fsensor.rotation.Rotation;
+import com.tracqi.fsensor.sensor.SensorSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+
+/**
+ * A recording of a known trajectory, and the helpers the tests synthesize
+ * sensor samples with.
+ * <p>
+ * The trajectory is 60 s of rotation around all axes with a gyroscope at
+ * 200 Hz with a constant bias, an accelerometer at 100 Hz and a magnetometer
+ * at 50 Hz, all with white noise. The disturbed recording of the same
+ * trajectory adds a magnetic disturbance and linear acceleration.
+ */
+public class SyntheticRecording {
+
+    public static final long PERIOD = 5000000L;
+    public static final int SAMPLES = 60 * 200;
+
+    // The magnetic disturbance and the linear acceleration of the disturbed recording, in samples.
+    public static final int MAGNETIC_FROM = 20 * 200;
+    public static final int MAGNETIC_TO = 30 * 200;
+    public static final int ACCELERATION_FROM = 40 * 200;
+    public static final int ACCELERATION_TO = 50 * 200;
+
+    /**
+     * The recorded samples.
+     */
+    public final byte[] bytes;
+
+    /**
+     * The rotation of the device into the world frame at every gyroscope sample, w, x, y, z.
+     */
+    public final double[][] truth;
+
+    private SyntheticRecording(byte[] bytes, double[][] truth) {
+        this.bytes = bytes;
+        this.truth = truth;
+    }
+
+    public static SyntheticRecording synthesize(boolean disturbed) throws IOException {
+        Random random = new Random(3);
+        double[] q = {Math.cos(0.3), 0, 0, Math.sin(0.3)};
+        double[] bias = {0.01, -0.02, 0.015};
+        double dt = PERIOD / 1e9;
+
+        double[][] truth = new double[SAMPLES][];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SensorRecorder recorder = new SensorRecorder(out)) {
+            for (int i = 0; i < SAMPLES; i++) {
+                double t = i * dt;
+                double[] rate = {0.5 * Math.sin(0.7 * t), 0.4 * Math.cos(0.5 * t), 0.6 * Math.sin(0.3 * t)};
+                q = integrate(q, rate, dt);
+                truth[i] = q;
+
+                long timestamp = 1000 + i * PERIOD;
+                if (i % 2 == 0) {
+                    double[] world = {0, 0, 9.81};
+                    if (disturbed && i >= ACCELERATION_FROM && i < ACCELERATION_TO) {
+                        // Walking, 2 steps per second.
+                        double step = Math.sin(2 * Math.PI * 2 * t);
+                        world = new double[]{0, 2.5 * step, 9.81 + 3 * step};
+                    }
+                    double[] gravity = toDevice(q, world);
+                    recorder.onSensorChanged(Sensor.TYPE_ACCELEROMETER, 3, timestamp, noisy(gravity, 0.05, random));
+                }
+                if (i % 4 == 0) {
+                    double[] world = {0, 20, -40};
+                    if (disturbed && i >= MAGNETIC_FROM && i < MAGNETIC_TO) {
+                        // Steel nearby.
+                        world = new double[]{25, 20, -25};
+                    }
+                    double[] magnetic = toDevice(q, world);
+                    recorder.onSensorChanged(Sensor.TYPE_MAGNETIC_FIELD, 3, timestamp, noisy(magnetic, 0.5, random));
+                }
+                double[] gyroscope = {rate[0] + bias[0], rate[1] + bias[1], rate[2] + bias[2]};
+                recorder.onSensorChanged(Sensor.TYPE_GYROSCOPE, 3, timestamp, noisy(gyroscope, 0.005, random));
+            }
+        }
+        return new SyntheticRecording(out.toByteArray(), truth);
+    }
+
+    /**
+     * Replays the recording through a rotation and returns its rms angle error, sampled after the gyroscope samples
+     * that are counted, or NaN if the replay ends early.
+     */
+    public double replay(Function<SensorSource, Rotation> backend, IntPredicate counted) throws IOException {
+        ReplaySensorSource source = new ReplaySensorSource();
+        final Rotation rotation = backend.apply(source);
+        rotation.start(0);
+        final double[] squares = new double[1];
+        final int[] index = new int[1];
+        final int[] count = new int[1];
+        source.registerListener((sensorType, accuracy, timestamp, values) -> {
+            int i = index[0]++;
+            if (counted.test(i)) {
+                double e = error(rotation.getOrientation(), angles(truth[i]));
+                squares[0] += e * e;
+                count[0]++;
+            }
+        }, Sensor.TYPE_GYROSCOPE, 0);
+        source.replay(new ByteArrayInputStream(bytes));
+        rotation.stop();
+
+        return index[0] == SAMPLES ? Math.sqrt(squares[0] / count[0]) : Double.NaN;
+    }
+
+    /**
+     * The rms error during the disturbances of the disturbed recording.
+     */
+    public double disturbedError(Function<SensorSource, Rotation> backend) throws IOException {
+        return replay(backend, i -> (i >= MAGNETIC_FROM && i < MAGNETIC_TO) || (i >= ACCELERATION_FROM && i < ACCELERATION_TO));
+    }
+
+    /**
+     * The largest difference of azimuth, pitch and roll, wrapped to [-pi, pi].
+     */
+    public static double error(float[] actual, float[] expected) {
+        double max = 0;
+        for (int i = 0; i < 3; i++) {
+            double d = actual[i] - expected[i];
+            max = Math.max(max, Math.abs(Math.atan2(Math.sin(d), Math.cos(d))));
+        }
+        return max;
+    }
+
+    public static float[] angles(double[] q) {
+        return Angles.getAngles(q[0], q[1], q[2], q[3]);
+    }
+
+    public static float[] noisy(double[] v, double sigma, Random random) {
+        return new float[]{
+                (float) (v[0] + sigma * random.nextGaussian()),
+                (float) (v[1] + sigma * random.nextGaussian()),
+                (float) (v[2] + sigma * random.nextGaussian())};
+    }
+
+    /**
+     * q * exp(rate * dt / 2), q rotates the device frame into the world frame.
+     */
+    public static double[] integrate(double[] q, double[] rate, double dt) {
+        double norm = Math.sqrt(rate[0] * rate[0] + rate[1] * rate[1] + rate[2] * rate[2]);
+        if (norm == 0) {
+            return q;
+        }
+        double s = Math.sin(norm * dt / 2) / norm;
+        return multiply(q, new double[]{Math.cos(norm * dt / 2), rate[0] * s, rate[1] * s, rate[2] * s});
+    }
+
+    /**
+     * q' * v * q, a world vector in the device frame.
+     */
+    public static double[] toDevice(double[] q, double[] v) {
+        double[] r = multiply(multiply(new double[]{q[0], -q[1], -q[2], -q[3]}, new double[]{0, v[0], v[1], v[2]}), q);
+        return new double[]{r[1], r[2], r[3]};
+    }
+
+    private static double[] multiply(double[] a, double[] b) {
+        return new double[]{
+                a[0] * b[0] - a[1] * b[1] - a[2] * b[2] - a[3] * b[3],
+                a[0] * b[1] + a[1] * b[0] + a[2] * b[3] - a[3] * b[2],
+                a[0] * b[2] - a[1] * b[3] + a[2] * b[0] + a[3] * b[1],
+                a[0] * b[3] + a[1] * b[2] - a[2] * b[1] + a[3] * b[0]};
+    }
+}
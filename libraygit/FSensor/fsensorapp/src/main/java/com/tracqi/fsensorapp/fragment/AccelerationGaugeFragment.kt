@@ -1,17 +1,15 @@
 package com.tracqi.fsensorapp.fragment
 
 import android.os.Bundle
-import android.os.Handler
-import android.os.Looper
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
+import android.widget.TextView
 import androidx.fragment.app.Fragment
 import androidx.lifecycle.ViewModelProvider
-import com.tracqi.fsensor.sensor.FSensorEvent
-import com.tracqi.fsensor.sensor.FSensorEventListener
 import com.tracqi.fsensorapp.R
 import com.tracqi.fsensorapp.gauge.GaugeAcceleration
+import com.tracqi.fsensorapp.gauge.GaugeRenderer
 import com.tracqi.fsensorapp.viewmodel.FSensorViewModel
 
 /*
@@ -31,51 +29,38 @@ import com.tracqi.fsensorapp.viewmodel.FSensorViewModel
 */
 class AccelerationGaugeFragment : Fragment() {
     private lateinit var gaugeAcceleration: GaugeAcceleration
-    private lateinit var handler: Handler
-    private val runnable = object : Runnable {
-        override fun run() {
-            updateAccelerationGauge()
-            handler.postDelayed(this, 20)
-        }
-    }
-
-    private var acceleration = FloatArray(3)
+    private lateinit var statsView: TextView
 
     private lateinit var viewModel: FSensorViewModel
 
-    private val sensorEventListener = FSensorEventListener { fSensorEvent: FSensorEvent -> acceleration = fSensorEvent.values }
+    // Redraws the gauge once per frame with the newest event.
+    private val renderer = GaugeRenderer({ values -> gaugeAcceleration.updatePoint(values[0], values[1]) }, { rate, renderTime -> statsView.text = getString(R.string.gauge_stats, rate, renderTime) })
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
 
         val viewModelProvider = ViewModelProvider(requireActivity())
         viewModel = viewModelProvider[FSensorViewModel::class.java]
-
-        handler = Handler(Looper.getMainLooper())
-        runnable
     }
 
     override fun onCreateView(inflater: LayoutInflater, container: ViewGroup?, savedInstanceState: Bundle?): View? {
         val view = inflater.inflate(R.layout.fragment_acceleration_gauge, container, false)
 
         gaugeAcceleration = view.findViewById(R.id.gauge_acceleration)
+        statsView = view.findViewById(R.id.gauge_acceleration_stats)
 
         return view
     }
 
     override fun onPause() {
-        viewModel.unregisterLinearAccelerationSensorListener(sensorEventListener)
-        handler.removeCallbacks(runnable)
+        viewModel.unregisterLinearAccelerationSensorListener(renderer)
+        renderer.stop()
         super.onPause()
     }
 
     override fun onResume() {
         super.onResume()
-        viewModel.registerLinearAccelerationSensorListener(sensorEventListener)
-        handler.post(runnable)
-    }
-
-    private fun updateAccelerationGauge() {
-        gaugeAcceleration.updatePoint(acceleration[0], acceleration[1])
+        viewModel.registerLinearAccelerationSensorListener(renderer)
+        renderer.start()
     }
 }
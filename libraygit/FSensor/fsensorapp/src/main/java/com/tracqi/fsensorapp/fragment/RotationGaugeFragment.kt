@@ -1,17 +1,15 @@
 package com.tracqi.fsensorapp.fragment
 
 import android.os.Bundle
-import android.os.Handler
-import android.os.Looper
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
+import android.widget.TextView
 import androidx.fragment.app.Fragment
 import androidx.lifecycle.ViewModelProvider
-import com.tracqi.fsensor.sensor.FSensorEvent
-import com.tracqi.fsensor.sensor.FSensorEventListener
 import com.tracqi.fsensorapp.R
 import com.tracqi.fsensorapp.gauge.GaugeRotation
+import com.tracqi.fsensorapp.gauge.GaugeRenderer
 import com.tracqi.fsensorapp.viewmodel.FSensorViewModel
 
 /*
@@ -32,50 +30,38 @@ import com.tracqi.fsensorapp.viewmodel.FSensorViewModel
 
 class RotationGaugeFragment : Fragment() {
     private lateinit var gaugeRotation: GaugeRotation
-    private lateinit var handler: Handler
-    private val runnable = object : Runnable {
-        override fun run() {
-            updateRotationGauge()
-            handler.postDelayed(this, 20)
-        }
-    }
-
-    private var rotation = FloatArray(3)
+    private lateinit var statsView: TextView
 
     private lateinit var viewModel: FSensorViewModel
 
-    private val sensorEventListener = FSensorEventListener { fSensorEvent: FSensorEvent -> rotation = fSensorEvent.values }
+    // Redraws the gauge once per frame with the newest event.
+    private val renderer = GaugeRenderer({ values -> gaugeRotation.updateRotation(values) }, { rate, renderTime -> statsView.text = getString(R.string.gauge_stats, rate, renderTime) })
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
 
         val viewModelProvider = ViewModelProvider(requireActivity())
         viewModel = viewModelProvider[FSensorViewModel::class.java]
-        handler = Handler(Looper.getMainLooper())
-        runnable
     }
 
     override fun onCreateView(inflater: LayoutInflater, container: ViewGroup?, savedInstanceState: Bundle?): View? {
         val view = inflater.inflate(R.layout.fragment_rotation_gauge, container, false)
 
         gaugeRotation = view.findViewById(R.id.gauge_rotation)
+        statsView = view.findViewById(R.id.gauge_rotation_stats)
 
         return view
     }
 
     override fun onPause() {
-        viewModel.unregisterRotationSensorListener(sensorEventListener)
-        handler.removeCallbacks(runnable)
+        viewModel.unregisterRotationSensorListener(renderer)
+        renderer.stop()
         super.onPause()
     }
 
     override fun onResume() {
         super.onResume()
-        viewModel.registerRotationSensorListener(sensorEventListener)
-        handler.post(runnable)
-    }
-
-    private fun updateRotationGauge() {
-        gaugeRotation.updateRotation(rotation)
+        viewModel.registerRotationSensorListener(renderer)
+        renderer.start()
     }
 }
@@ -0,0 +1,130 @@
+package com.tracqi.fsensorapp.gauge
+
+import android.os.Handler
+import android.os.Looper
+import android.view.Choreographer
+import com.tracqi.fsensor.sensor.FSensorEvent
+import com.tracqi.fsensor.sensor.FSensorEventListener
+import com.tracqi.fsensor.sensor.FSensorEventSlot
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/*
+* Copyright 2024, Tracqi Technology, LLC
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*   http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+/**
+ * Coalesces sensor events to display frames.
+ *
+ * Register the renderer as the listener of a sensor. Events only replace the
+ * newest values, which are handed to render at the next Choreographer frame.
+ * An event schedules that frame if none is scheduled, so a gauge redraws at
+ * most at the display rate however fast the sensor is, and not at all while
+ * no events arrive.
+ *
+ * About twice a second while events arrive, stats is called with the rate of
+ * the events in Hz and the mean time render took in milliseconds. The gauge
+ * itself is drawn later in the frame, so that is not included.
+ *
+ * start() and stop() must be called on the main thread.
+ */
+class GaugeRenderer(private val render: (FloatArray) -> Unit, private val stats: (Float, Float) -> Unit) : FSensorEventListener {
+    private val slot = FSensorEventSlot()
+    private val values = FloatArray(3)
+
+    private val eventCount = AtomicInteger()
+
+    // Set from the sensor thread when a frame is scheduled, cleared by the frame.
+    private val frameScheduled = AtomicBoolean()
+    private val handler = Handler(Looper.getMainLooper())
+    private val scheduleFrame = Runnable {
+        if (running) {
+            Choreographer.getInstance().postFrameCallback(frameCallback)
+        } else {
+            frameScheduled.set(false)
+        }
+    }
+
+    @Volatile
+    private var running = false
+    private var statsFrameTime = 0L
+    private var renderCount = 0
+    private var renderTime = 0L
+
+    private val frameCallback = Choreographer.FrameCallback { frameTimeNanos ->
+        // Cleared before reading, so an event that arrives meanwhile schedules the next frame.
+        frameScheduled.set(false)
+
+        if (running && slot.read(values)) {
+            val start = System.nanoTime()
+            render(values)
+            renderTime += System.nanoTime() - start
+            renderCount++
+
+            updateStats(frameTimeNanos)
+        }
+    }
+
+    override fun onSensorChanged(event: FSensorEvent) {
+        eventCount.incrementAndGet()
+        slot.onSensorChanged(event)
+
+        if (running && frameScheduled.compareAndSet(false, true)) {
+            handler.post(scheduleFrame)
+        }
+    }
+
+    fun start() {
+        if (running) {
+            return
+        }
+
+        statsFrameTime = 0
+        renderCount = 0
+        renderTime = 0
+        eventCount.set(0)
+        running = true
+    }
+
+    fun stop() {
+        running = false
+        handler.removeCallbacks(scheduleFrame)
+        Choreographer.getInstance().removeFrameCallback(frameCallback)
+        frameScheduled.set(false)
+    }
+
+    private fun updateStats(frameTimeNanos: Long) {
+        if (statsFrameTime == 0L) {
+            statsFrameTime = frameTimeNanos
+            eventCount.set(0)
+            renderCount = 0
+            renderTime = 0
+            return
+        }
+
+        val elapsed = frameTimeNanos - statsFrameTime
+        if (elapsed >= STATS_PERIOD) {
+            val seconds = elapsed / 1000000000.0f
+            stats(eventCount.getAndSet(0) / seconds, renderTime / 1000000.0f / renderCount)
+            statsFrameTime = frameTimeNanos
+            renderCount = 0
+            renderTime = 0
+        }
+    }
+
+    companion object {
+        private const val STATS_PERIOD = 500000000L
+    }
+}
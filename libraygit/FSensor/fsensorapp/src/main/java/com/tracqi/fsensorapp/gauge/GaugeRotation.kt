@@ -49,9 +49,12 @@ class GaugeRotation : View {
     private var skyBitmap: Bitmap? = null
     private var mutableBitmap: Bitmap? = null
 
-    private var faceCanvas: Canvas? = null
+    private var skyCanvas: Canvas? = null
     private var mutableCanvas: Canvas? = null
 
+    // Transfer mode to mask the face with the sky
+    private val maskXfermode = PorterDuffXfermode(PorterDuff.Mode.DST_IN)
+
     // Keep track of the rotation of the device
     private val rotation = FloatArray(3)
 
@@ -102,7 +105,7 @@ class GaugeRotation : View {
     }
 
     /**
-     * Update the rotation of the device.
+     * Update the rotation of the device. Call at most once per frame, the gauge redraws on every call.
      *
      * @param rotation
      */
@@ -197,36 +200,11 @@ class GaugeRotation : View {
 
         val top = rimRect.top - halfHeight + (rotation[1] * halfHeight)
 
-        if (rimRect.left <= rimRect.right && top <= rimRect.bottom) {
-            // free the old bitmap
-            if (faceBitmap == null) {
-                faceBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-                faceCanvas = Canvas(faceBitmap!!)
-            }
-
-            if (skyBitmap == null) {
-                skyBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-            }
-
-            if (mutableBitmap == null) {
-                mutableBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-                mutableCanvas = Canvas(mutableBitmap!!)
-            }
-
-            skyPaint.isFilterBitmap = false
-
+        if (faceBitmap != null && rimRect.left <= rimRect.right && top <= rimRect.bottom) {
             skyBitmap!!.eraseColor(Color.TRANSPARENT)
 
-            val skyCanvas = Canvas(skyBitmap!!)
-
-            val scale = width.toFloat()
-            faceCanvas!!.scale(scale, scale)
-            skyCanvas.scale(scale, scale)
-
             skyBackgroundRect[rimRect.left, top, rimRect.right] = rimRect.bottom
-
-            faceCanvas!!.drawArc(faceBackgroundRect, 0f, 360f, true, skyPaint)
-            skyCanvas.drawRect(skyBackgroundRect, skyPaint)
+            skyCanvas!!.drawRect(skyBackgroundRect, skyPaint)
 
             val angle = -Math.toDegrees(rotation[2].toDouble()).toFloat()
 
@@ -234,7 +212,7 @@ class GaugeRotation : View {
             canvas.rotate(angle, faceBitmap!!.width / 2f, faceBitmap!!.height / 2f)
 
             mutableCanvas!!.drawBitmap(faceBitmap!!, 0f, 0f, skyPaint)
-            skyPaint.setXfermode(PorterDuffXfermode(PorterDuff.Mode.DST_IN))
+            skyPaint.setXfermode(maskXfermode)
             mutableCanvas!!.drawBitmap(skyBitmap!!, 0f, 0f, skyPaint)
             skyPaint.setXfermode(null)
 
@@ -256,6 +234,32 @@ class GaugeRotation : View {
 
     override fun onSizeChanged(w: Int, h: Int, oldw: Int, oldh: Int) {
         regenerateBezel()
+        regenerateFace()
+    }
+
+    /**
+     * Regenerate the bitmaps of the face when the size has changed, so drawing
+     * a frame does not allocate. The face itself is static.
+     */
+    private fun regenerateFace() {
+        faceBitmap?.recycle()
+        skyBitmap?.recycle()
+        mutableBitmap?.recycle()
+
+        val scale = width.toFloat()
+
+        faceBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+        val faceCanvas = Canvas(faceBitmap!!)
+        faceCanvas.scale(scale, scale)
+        skyPaint.isFilterBitmap = false
+        faceCanvas.drawArc(faceBackgroundRect, 0f, 360f, true, skyPaint)
+
+        skyBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+        skyCanvas = Canvas(skyBitmap!!)
+        skyCanvas!!.scale(scale, scale)
+
+        mutableBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+        mutableCanvas = Canvas(mutableBitmap!!)
     }
 
     /**
@@ -67,9 +67,12 @@ class FSensorViewModel(application: Application?) : AndroidViewModel(application
             return
         }
 
+        // Reused for every event, like the events of the FSensor.
+        val filteredEvent = FSensorEvent(3)
         val wrapper = FSensorEventListener { fSensorEvent: FSensorEvent ->
-            if (linearAccelerationFilter != null) {
-                sensorEventListener.onSensorChanged(FSensorEvent(fSensorEvent.sensor, fSensorEvent.accuracy, fSensorEvent.timestamp, linearAccelerationFilter!!.filter(fSensorEvent.values)))
+            val filter = linearAccelerationFilter
+            if (filter != null) {
+                sensorEventListener.onSensorChanged(filteredEvent.set(fSensorEvent.sensor, fSensorEvent.accuracy, fSensorEvent.timestamp, filter.filter(fSensorEvent.values, fSensorEvent.timestamp)))
             } else {
                 sensorEventListener.onSensorChanged(fSensorEvent)
             }
@@ -95,9 +98,12 @@ class FSensorViewModel(application: Application?) : AndroidViewModel(application
             return
         }
 
+        // Reused for every event, like the events of the FSensor.
+        val filteredEvent = FSensorEvent(3)
         val wrapper = FSensorEventListener { fSensorEvent: FSensorEvent ->
-            if (rotationFilter != null) {
-                sensorEventListener.onSensorChanged(FSensorEvent(fSensorEvent.sensor, fSensorEvent.accuracy, fSensorEvent.timestamp, rotationFilter!!.filter(fSensorEvent.values)))
+            val filter = rotationFilter
+            if (filter != null) {
+                sensorEventListener.onSensorChanged(filteredEvent.set(fSensorEvent.sensor, fSensorEvent.accuracy, fSensorEvent.timestamp, filter.filter(fSensorEvent.values, fSensorEvent.timestamp)))
             } else {
                 sensorEventListener.onSensorChanged(fSensorEvent)
             }
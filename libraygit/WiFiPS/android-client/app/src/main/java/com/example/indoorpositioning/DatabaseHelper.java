@@ -1,5 +1,9 @@
 package com.example.indoorpositioning;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
@@ -29,12 +33,17 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 			+ "('building_id' TEXT NOT NULL ,'ssid' TEXT NOT NULL,'mac_id' TEXT NOT NULL )";
 	public static final String READINGS_CREATE = "CREATE TABLE 'readings' ('building_id' TEXT NOT NULL , "
 			+ "'position_id' TEXT NOT NULL ,"
-			+ " 'ssid' TEXT NOT NULL , 'mac_id' TEXT NOT NULL , 'rssi' INTEGER NOT NULL )";
+			+ " 'ssid' TEXT NOT NULL , 'mac_id' TEXT NOT NULL , 'rssi' INTEGER NOT NULL ,"
+			+ " 'stddev' REAL , 'visibility' REAL )";
+	// Version 2 added the per access point statistics of a reading.
+	public static final int DATABASE_VERSION = 2;
 
 	private HashMap hp;
+	private Context context;
 
 	public DatabaseHelper(Context context) {
-		super(context, DATABASE_NAME, null, 1);
+		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+		this.context = context;
 	}
 
 	@Override
@@ -46,15 +55,17 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		// TODO Auto-generated method stub
-		db.execSQL("DROP TABLE IF EXISTS " + AP_CREATE);
-		db.execSQL("DROP TABLE IF EXISTS " + READINGS_CREATE);
-		onCreate(db);
+		if (oldVersion < 2) {
+			// Readings recorded before have no statistics and are always stable.
+			db.execSQL("ALTER TABLE " + READINGS_TABLE + " ADD COLUMN 'stddev' REAL");
+			db.execSQL("ALTER TABLE " + READINGS_TABLE + " ADD COLUMN 'visibility' REAL");
+		}
 	}
 
 	public int deleteReading(String building_id, String position_id) {
 		SQLiteDatabase db = getWritableDatabase();
 		String[] args = new String[] { building_id, position_id };
+		invalidateRadioMap(building_id);
 		return db.delete(READINGS_TABLE, "building_id=? and position_id=?",
 				args);
 
@@ -64,6 +75,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	public boolean deleteBuilding(String building_id) {
 		SQLiteDatabase db = getWritableDatabase();
 		String[] args = new String[] { building_id };
+		invalidateRadioMap(building_id);
 		db.delete(AP_TABLE,"building_id=?",args);
 		db.delete(READINGS_TABLE, "building_id=?", args);
 		return true;
@@ -102,6 +114,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	public int deleteFriendlyWifis(String building_id) {
 		SQLiteDatabase db = getWritableDatabase();
 		String[] args = new String[] { building_id };
+		invalidateRadioMap(building_id);
 		return db.delete(AP_TABLE, "building_id=?", args);
 
 	}
@@ -146,6 +159,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 			cv.put("ssid",positionData.routers.get(e.getKey()));
 			cv.put("mac_id",e.getKey());
 			cv.put("rssi", e.getValue());
+			cv.put("stddev", positionData.getDeviation(e.getKey()));
+			cv.put("visibility", positionData.getVisibility(e.getKey()));
 			Log.v(e.getKey(), e.getValue().toString());
 			db.insert(READINGS_TABLE, null, cv);
 		}
@@ -169,8 +184,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             try {
                Log.d("Readings",building.get("readings").toString());
 
-                readings = gson.fromJson(building.get("readings").toString(),new TypeToken<ArrayList<PositionData>>() {
-                }.getType());
+                readings = parseReadings(building);
                 friendlyWifis=gson.fromJson(building.get("friendly_wifis").toString()
                         ,new TypeToken<ArrayList<Router>>() {
                 }.getType());
@@ -192,6 +206,17 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     }
 
 
+	/**
+	 * The readings of a building of the server's sync payload. Readings keep
+	 * their deviations and visibility, keyed by BSSID like the values, when
+	 * the server has them.
+	 */
+	static ArrayList<PositionData> parseReadings(JSONObject building) throws JSONException {
+		return new Gson().fromJson(building.get("readings").toString(),
+				new TypeToken<ArrayList<PositionData>>() {
+				}.getType());
+	}
+
 	public ArrayList<PositionData> getReadings(String building_id) {
 		HashMap<String, PositionData> positions = new HashMap<String, PositionData>();
 		SQLiteDatabase db = getReadableDatabase();
@@ -202,15 +227,16 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 			String position_id = cursor.getString(1);
 			Router router = new Router(cursor.getString(2), cursor.getString(3));
 			Log.v(cursor.getString(2), cursor.getInt(4) + "");
-			if (positions.containsKey(position_id)) {
-
-				positions.get(position_id).addValue(router, cursor.getInt(4));
-			} else {
-				PositionData positionData = new PositionData(
-						cursor.getString(1));
-				positionData.addValue(router, cursor.getInt(4));
+			PositionData positionData = positions.get(position_id);
+			if (positionData == null) {
+				positionData = new PositionData(cursor.getString(1));
 				positions.put(position_id, positionData);
 			}
+			if (cursor.isNull(5) || cursor.isNull(6))
+				positionData.addValue(router, cursor.getInt(4));
+			else
+				positionData.addValue(router, cursor.getInt(4),
+						cursor.getFloat(5), cursor.getFloat(6));
 			cursor.moveToNext();
 
 		}
@@ -221,4 +247,54 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		return result;
 
 	}
+
+	public File getRadioMapFile(String building_id) {
+		try {
+			return new File(context.getFilesDir(), "radiomap-"
+					+ URLEncoder.encode(building_id, "UTF-8") + ".wpsm");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the memory-mapped radio map snapshot of a building, writing it
+	 * from the readings tables first if it is missing or out of date.
+	 */
+	public RadioMap getRadioMap(String building_id) throws IOException {
+		File file = getRadioMapFile(building_id);
+		if (file.exists()) {
+			try {
+				return RadioMap.open(file);
+			} catch (IOException e) {
+				// Written by an older version, write it again.
+				file.delete();
+			}
+		}
+
+		// A file of its own, so writers racing on the same building never
+		// interleave, and the last complete one wins the rename.
+		File tmp = File.createTempFile("radiomap-", ".tmp", file.getParentFile());
+		boolean written = false;
+		try {
+			FileOutputStream out = new FileOutputStream(tmp);
+			try {
+				RadioMap.write(out, getReadings(building_id),
+						getFriendlyWifis(building_id), false);
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file))
+				throw new IOException("Could not write " + file);
+			written = true;
+		} finally {
+			if (!written)
+				tmp.delete();
+		}
+		return RadioMap.open(file);
+	}
+
+	private void invalidateRadioMap(String building_id) {
+		getRadioMapFile(building_id).delete();
+	}
 }
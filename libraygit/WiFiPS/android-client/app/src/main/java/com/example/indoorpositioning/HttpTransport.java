@@ -0,0 +1,264 @@
+package com.example.indoorpositioning;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The single HTTP transport of the WiFiPS client.
+ *
+ * Requests go through HttpURLConnection, which keeps connections to the
+ * server alive and pools them, as long as every response is read to the end
+ * and closed (done here). Form bodies are gzip-compressed and streamed with
+ * chunked encoding instead of being built as one String, responses are
+ * requested gzip-compressed, and failed requests (I/O errors and 5xx) are
+ * retried with bounded exponential backoff.
+ */
+public class HttpTransport {
+
+    /**
+     * Writes the fields of a form body. Called again on every retry.
+     */
+    public interface FormBody {
+        void writeTo(FormWriter form) throws IOException;
+    }
+
+    public static final int MAX_ATTEMPTS = 4;
+    public static final long INITIAL_BACKOFF_MS = 500;
+    public static final long MAX_BACKOFF_MS = 8000;
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    private static HttpTransport instance;
+
+    private final Random random = new Random();
+    private final int maxAttempts;
+    private final long initialBackoff;
+
+    public static synchronized HttpTransport getInstance() {
+        if (instance == null) {
+            instance = new HttpTransport(MAX_ATTEMPTS, INITIAL_BACKOFF_MS);
+        }
+        return instance;
+    }
+
+    HttpTransport(int maxAttempts, long initialBackoff) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+    }
+
+    public String get(String url) throws IOException {
+        return execute(url, null);
+    }
+
+    /**
+     * Posts an application/x-www-form-urlencoded body, gzip-compressed.
+     */
+    public String post(String url, FormBody body) throws IOException {
+        return execute(url, body);
+    }
+
+    private String execute(String url, FormBody body) throws IOException {
+        long backoff = initialBackoff;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return executeOnce(url, body);
+            } catch (HttpStatusException e) {
+                // Client errors will not go away by retrying.
+                if (e.status < 500 || attempt >= maxAttempts)
+                    throw e;
+            } catch (IOException e) {
+                if (attempt >= maxAttempts)
+                    throw e;
+            }
+            try {
+                // Full jitter keeps retrying clients from hitting the server in lockstep.
+                Thread.sleep(backoff / 2 + (long) (random.nextDouble() * backoff / 2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while retrying " + url);
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+        }
+    }
+
+    private String executeOnce(String url, FormBody body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        boolean reusable = false;
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (body != null) {
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setChunkedStreamingMode(0);
+                connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+                connection.setRequestProperty("Content-Encoding", "gzip");
+                GZIPOutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+                FormWriter form = new FormWriter(new OutputStreamWriter(gzip, "UTF-8"));
+                body.writeTo(form);
+                form.close();
+            }
+
+            int status = connection.getResponseCode();
+            InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            String response = in == null ? "" : readResponse(in, connection.getContentEncoding());
+            reusable = true;
+            if (status >= 400)
+                throw new HttpStatusException(status, url);
+            return response;
+        } finally {
+            // disconnect() would close a healthy keep-alive socket, so only
+            // drop connections that failed halfway.
+            if (!reusable)
+                connection.disconnect();
+        }
+    }
+
+    private static String readResponse(InputStream in, String encoding) throws IOException {
+        try {
+            InputStream body = "gzip".equalsIgnoreCase(encoding) ? new GZIPInputStream(in) : in;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = body.read(chunk)) != -1)
+                out.write(chunk, 0, n);
+            return out.toString("UTF-8");
+        } finally {
+            // Reading to the end and closing returns the connection to the pool.
+            in.close();
+        }
+    }
+
+    public static class HttpStatusException extends IOException {
+        public final int status;
+
+        HttpStatusException(int status, String url) {
+            super("HTTP " + status + " from " + url);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Streams form fields, percent-encoding values as they are written.
+     */
+    public static class FormWriter {
+        private final Writer out;
+        private boolean first = true;
+        private final ValueWriter value = new ValueWriter();
+
+        FormWriter(Writer out) {
+            this.out = out;
+        }
+
+        public void field(String name, String value) throws IOException {
+            Writer writer = field(name);
+            if (value != null)
+                writer.write(value);
+        }
+
+        /**
+         * Starts a field and returns a writer for its value, which is valid
+         * until the next field is started.
+         */
+        public Writer field(String name) throws IOException {
+            value.flushPending();
+            if (!first)
+                out.write('&');
+            first = false;
+            value.write(name);
+            value.flushPending();
+            out.write('=');
+            return value;
+        }
+
+        void close() throws IOException {
+            value.flushPending();
+            out.close();
+        }
+
+        private class ValueWriter extends Writer {
+            private static final String HEX = "0123456789ABCDEF";
+            private final byte[] utf8 = new byte[4];
+            private char highSurrogate;
+
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                for (int i = off; i < off + len; i++)
+                    encode(cbuf[i]);
+            }
+
+            @Override
+            public void write(String str, int off, int len) throws IOException {
+                for (int i = off; i < off + len; i++)
+                    encode(str.charAt(i));
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() {
+            }
+
+            void flushPending() throws IOException {
+                if (highSurrogate != 0) {
+                    char c = highSurrogate;
+                    highSurrogate = 0;
+                    escape(String.valueOf(c));
+                }
+            }
+
+            private void encode(char c) throws IOException {
+                if (highSurrogate != 0) {
+                    char high = highSurrogate;
+                    highSurrogate = 0;
+                    if (Character.isLowSurrogate(c)) {
+                        escape(new String(new char[]{high, c}));
+                        return;
+                    }
+                    escape(String.valueOf(high));
+                }
+                if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                        || c == '.' || c == '-' || c == '*' || c == '_') {
+                    out.write(c);
+                } else if (c == ' ') {
+                    out.write('+');
+                } else if (Character.isHighSurrogate(c)) {
+                    // A surrogate pair may be split across two writes.
+                    highSurrogate = c;
+                } else if (c < 0x80) {
+                    utf8[0] = (byte) c;
+                    percent(1);
+                } else {
+                    escape(String.valueOf(c));
+                }
+            }
+
+            private void escape(String s) throws IOException {
+                byte[] bytes = s.getBytes("UTF-8");
+                System.arraycopy(bytes, 0, utf8, 0, bytes.length);
+                percent(bytes.length);
+            }
+
+            private void percent(int length) throws IOException {
+                for (int i = 0; i < length; i++) {
+                    out.write('%');
+                    out.write(HEX.charAt((utf8[i] >> 4) & 0xf));
+                    out.write(HEX.charAt(utf8[i] & 0xf));
+                }
+            }
+        }
+    }
+}
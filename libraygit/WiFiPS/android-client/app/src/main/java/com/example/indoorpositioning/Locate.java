@@ -2,9 +2,13 @@ package com.example.indoorpositioning;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.util.Log;
 import android.view.View;
 import android.widget.AdapterView;
@@ -13,6 +17,7 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 public class Locate extends Activity {
@@ -20,10 +25,33 @@ public class Locate extends Activity {
 	ArrayList<String> buildings;
 	DatabaseHelper db;
 	ArrayAdapter<String> arrayAdapter;
-	ArrayList<PositionData> positionsData;
 	String building;
 	TextView result;
+	// Continuous fixes, kept apart from the one-shot result of a Locate scan.
+	TextView tracking;
 	Button locate;
+	LocationService locationService;
+
+	private final LocationService.Listener fixListener = new LocationService.Listener() {
+		@Override
+		public void onFix(LocationService.Fix fix) {
+			tracking.setText("Tracking :  " + (fix.isInRange() ? fix.position : "OUT OF RANGE"));
+		}
+	};
+
+	private final ServiceConnection connection = new ServiceConnection() {
+		@Override
+		public void onServiceConnected(ComponentName name, IBinder service) {
+			locationService = ((LocationService.LocalBinder) service).getService();
+			locationService.setBuilding(building);
+			locationService.addListener(fixListener);
+		}
+
+		@Override
+		public void onServiceDisconnected(ComponentName name) {
+			locationService = null;
+		}
+	};
 
 	public void onCreate(Bundle saveInstanceState) {
 		super.onCreate(saveInstanceState);
@@ -33,6 +61,7 @@ public class Locate extends Activity {
 		locate = (Button) findViewById(R.id.locate);
 
 		result = (TextView) findViewById(R.id.result);
+		tracking = (TextView) findViewById(R.id.tracking);
         arrayAdapter = new ArrayAdapter<String>(this,
 				android.R.layout.simple_spinner_item, buildings);
 
@@ -66,6 +95,7 @@ public class Locate extends Activity {
 			public void onClick(DialogInterface dialog, int which) {
 				// the user clicked on colors[which]
 				building = buildings.get(which);
+				startTracking();
 
 							
 				
@@ -78,6 +108,31 @@ public class Locate extends Activity {
 
 
 
+    @Override
+	protected void onStart() {
+		super.onStart();
+		if (building != null)
+			startTracking();
+	}
+
+	@Override
+	protected void onStop() {
+		stopTracking();
+		super.onStop();
+	}
+
+	private void startTracking() {
+		bindService(new Intent(this, LocationService.class), connection, Context.BIND_AUTO_CREATE);
+	}
+
+	private void stopTracking() {
+		if (locationService != null)
+			locationService.removeListener(fixListener);
+		locationService = null;
+		if (building != null)
+			unbindService(connection);
+	}
+
     @Override
 	protected void onActivityResult(int requestCode, int resultCode,
 			Intent intent) {
@@ -87,25 +142,29 @@ public class Locate extends Activity {
 
 		PositionData positionData = (PositionData) intent
 				.getSerializableExtra("PositionData");
-		positionsData=db.getReadings(building);
+		RadioMap radioMap;
+		try {
+			radioMap = db.getRadioMap(building);
+		} catch (IOException e) {
+			Log.e("Locate", "Could not open radio map", e);
+			Toast.makeText(this, "No building data available.", Toast.LENGTH_LONG).show();
+			return;
+		}
 
 		String closestPosition = null;
-		ArrayList<Router> wifis = db.getFriendlyWifis(building);
 
-		int min_distance = positionData.uDistance(positionsData.get(0), wifis);
+		int min_distance = radioMap.distance(0, positionData);
         int j=0;
-		closestPosition = positionsData.get(0).getName();
+		closestPosition = radioMap.getName(0);
 		String res = "";
 		res += closestPosition + "\n" + min_distance;
-		res += "\n" + positionsData.get(0).toString();
-		for (int i = 1; i < positionsData.size(); i++) {
-			int distance = positionData.uDistance(positionsData.get(i), wifis);
-			res += "\n" + positionsData.get(i).getName() + "\n" + distance;
-			res += "\n" + positionsData.get(i).toString();
+		for (int i = 1; i < radioMap.getPositionCount(); i++) {
+			int distance = radioMap.distance(i, positionData);
+			res += "\n" + radioMap.getName(i) + "\n" + distance;
 			if (distance < min_distance) {
 				min_distance = distance;
                 j=i;
-				closestPosition = positionsData.get(i).getName();
+				closestPosition = radioMap.getName(i);
 
 			}
 
@@ -118,24 +177,22 @@ public class Locate extends Activity {
             result.setText("Nearest point :  "+ closestPosition);
 
             //////////////////////////////////////////////////
-            min_distance = positionData.uDistance(positionsData.get(0), wifis);
+            min_distance = radioMap.distance(0, positionData);
             String closestPosition2 = null;
 
-            closestPosition2 = positionsData.get(0).getName();
+            closestPosition2 = radioMap.getName(0);
             res = "";
             res += closestPosition2 + "\n" + min_distance;
-            res += "\n" + positionsData.get(0).toString();
-            for (int i = 1; i < positionsData.size(); i++) {
+            for (int i = 1; i < radioMap.getPositionCount(); i++) {
                if(i!=j) {
-                    int distance = positionData.uDistance(positionsData.get(i), wifis);
-                    res += "\n" + positionsData.get(i).getName() + "\n" + distance;
-                    res += "\n" + positionsData.get(i).toString();
-                    closestPosition2 = positionsData.get(i).getName();//////////////////////////
+                    int distance = radioMap.distance(i, positionData);
+                    res += "\n" + radioMap.getName(i) + "\n" + distance;
+                    closestPosition2 = radioMap.getName(i);//////////////////////////
                     if(closestPosition2.equals(closestPosition))
                         continue;
                     if (distance < min_distance) {
                         min_distance = distance;
-                        closestPosition2 = positionsData.get(i).getName();
+                        closestPosition2 = radioMap.getName(i);
 
                     }
                 }
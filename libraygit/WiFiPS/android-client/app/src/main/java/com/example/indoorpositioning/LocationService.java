@@ -0,0 +1,234 @@
+package com.example.indoorpositioning;
+
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Bound service that keeps locating the device inside one building.
+ *
+ * The service owns a single scan executor. It requests a wifi scan
+ * periodically, every 30 s on Android 9 and later where scans are throttled,
+ * and every fresh SCAN_RESULTS_AVAILABLE_ACTION is matched on that executor
+ * against the building's cached {@link RadioMap}. That includes the scans of
+ * other apps and the system, so fixes can arrive more often than requests. Fixes are
+ * published to listeners on the main thread; if listeners fall behind, only
+ * the latest fix is delivered.
+ *
+ * Bind, then pick the building with {@link #setBuilding(String)} on the
+ * service from the {@link LocalBinder}. Scanning starts with the first bind,
+ * and stops when the last client unbinds.
+ */
+public class LocationService extends Service {
+
+    private static final String TAG = "LocationService";
+    public static final long SCAN_INTERVAL_MS = 2000;
+    // Android 9 allows a foreground app 4 scans per 2 minutes, more requests fail.
+    public static final long THROTTLED_SCAN_INTERVAL_MS = 30000;
+
+    public static class Fix {
+        public final String position;
+        public final int distance;
+        public final long timestamp;
+
+        Fix(String position, int distance, long timestamp) {
+            this.position = position;
+            this.distance = distance;
+            this.timestamp = timestamp;
+        }
+
+        public boolean isInRange() {
+            return position != null;
+        }
+    }
+
+    public interface Listener {
+        void onFix(Fix fix);
+    }
+
+    public class LocalBinder extends Binder {
+        public LocationService getService() {
+            return LocationService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final AtomicReference<Fix> latest = new AtomicReference<Fix>();
+    private final AtomicBoolean dispatchPending = new AtomicBoolean();
+
+    private ScheduledExecutorService executor;
+    // The periodic scan requests, while clients are bound. Only touched on the main thread.
+    private ScheduledFuture<?> scanTask;
+    private WifiManager wifi;
+    private DatabaseHelper db;
+    // Only touched on the executor.
+    private RadioMap radioMap;
+    private long lastScanTimestamp;
+
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Build.VERSION.SDK_INT >= 23
+                    && !intent.getBooleanExtra(WifiManager.EXTRA_RESULTS_UPDATED, true))
+                return;
+            executor.execute(match);
+        }
+    };
+
+    private final Runnable scan = new Runnable() {
+        @Override
+        public void run() {
+            wifi.startScan();
+        }
+    };
+
+    private final Runnable match = new Runnable() {
+        @Override
+        public void run() {
+            if (radioMap == null || radioMap.getPositionCount() == 0)
+                return;
+            PositionData positionData = fromFreshResults(wifi.getScanResults());
+            if (positionData == null)
+                return;
+            int nearest = radioMap.nearest(positionData);
+            if (nearest < 0)
+                publish(new Fix(null, PositionData.MAX_DISTANCE, System.currentTimeMillis()));
+            else
+                publish(new Fix(radioMap.getName(nearest), radioMap.distance(nearest, positionData),
+                        System.currentTimeMillis()));
+        }
+    };
+
+    private final Runnable dispatch = new Runnable() {
+        @Override
+        public void run() {
+            dispatchPending.set(false);
+            Fix fix = latest.get();
+            for (Listener listener : listeners)
+                listener.onFix(fix);
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        wifi = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        db = new DatabaseHelper(this);
+        executor = Executors.newSingleThreadScheduledExecutor();
+        registerReceiver(receiver, new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        // Called again for a client binding with a different intent, schedule the scans once.
+        if (scanTask == null)
+            scanTask = executor.scheduleWithFixedDelay(scan, 0, getScanInterval(), TimeUnit.MILLISECONDS);
+        return binder;
+    }
+
+    @Override
+    public boolean onUnbind(Intent intent) {
+        if (scanTask != null) {
+            scanTask.cancel(false);
+            scanTask = null;
+        }
+        return false;
+    }
+
+    @Override
+    public void onDestroy() {
+        unregisterReceiver(receiver);
+        executor.shutdownNow();
+        mainHandler.removeCallbacks(dispatch);
+        listeners.clear();
+        db.close();
+        super.onDestroy();
+    }
+
+    /**
+     * Switches the building the fixes are matched against.
+     */
+    public void setBuilding(final String building) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    radioMap = db.getRadioMap(building);
+                } catch (IOException e) {
+                    radioMap = null;
+                    Log.e(TAG, "Could not open radio map of " + building, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Registers a listener. The latest fix, if any, is delivered right away.
+     */
+    public void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+        Fix fix = latest.get();
+        if (fix != null)
+            listener.onFix(fix);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public Fix getLatestFix() {
+        return latest.get();
+    }
+
+    /**
+     * @return the interval of scan requests that stays within the scan throttling of the platform.
+     */
+    public static long getScanInterval() {
+        return Build.VERSION.SDK_INT >= 28 ? THROTTLED_SCAN_INTERVAL_MS : SCAN_INTERVAL_MS;
+    }
+
+    private void publish(Fix fix) {
+        latest.set(fix);
+        // Coalesce: at most one dispatch is queued on the main thread.
+        if (dispatchPending.compareAndSet(false, true))
+            mainHandler.post(dispatch);
+    }
+
+    private PositionData fromFreshResults(List<ScanResult> results) {
+        PositionData positionData = new PositionData(null);
+        long newest = lastScanTimestamp;
+        for (int i = 0; i < results.size(); i++) {
+            ScanResult result = results.get(i);
+            if (Build.VERSION.SDK_INT >= 17) {
+                if (result.timestamp <= lastScanTimestamp)
+                    continue;
+                newest = Math.max(newest, result.timestamp);
+            }
+            positionData.addValue(new Router(result.SSID, result.BSSID), result.level);
+        }
+        lastScanTimestamp = newest;
+        return positionData.values.isEmpty() ? null : positionData;
+    }
+}
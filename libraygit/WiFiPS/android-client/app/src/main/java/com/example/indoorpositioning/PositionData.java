@@ -10,13 +10,21 @@ public class PositionData implements Serializable {
 	public static final int MAX_DISTANCE=99999999;
 	private String name;
 	public static final int MINIMUM_COMMON_ROUTERS=1;
+	// Reference readings outside these limits are too flaky to match against.
+	public static final float MINIMUM_VISIBILITY=0.5f;
+	public static final float MAXIMUM_DEVIATION=8f;
 	public HashMap<String, Integer> values;
     public HashMap<String,String> routers;
+	// Optional statistics of calibrated readings, keyed by BSSID like values.
+	public HashMap<String, Float> deviations;
+	public HashMap<String, Float> visibility;
 	public PositionData(String name) {
 		// TODO Auto-generated constructor stub
 		this.name=name;
 		values = new HashMap<String, Integer>();
         routers = new HashMap<String, String>();
+        deviations = new HashMap<String, Float>();
+        visibility = new HashMap<String, Float>();
 
 	}
 	public void addValue(Router router,int strength){
@@ -24,6 +32,33 @@ public class PositionData implements Serializable {
 		values.put(router.getBSSID(), strength);
         routers.put(router.getBSSID(),router.getSSID());
 
+	}
+	public void addValue(Router router,int strength,float deviation,float visibility){
+
+		addValue(router, strength);
+		this.deviations.put(router.getBSSID(), deviation);
+		this.visibility.put(router.getBSSID(), visibility);
+
+	}
+
+	/**
+	 * Whether a reading is reliable enough to be matched against. Readings
+	 * without statistics, e.g. synced from older clients, are always stable.
+	 */
+	public boolean isStable(String bssid) {
+		Float v = visibility == null ? null : visibility.get(bssid);
+		if (v != null && v < MINIMUM_VISIBILITY)
+			return false;
+		Float d = deviations == null ? null : deviations.get(bssid);
+		return d == null || d <= MAXIMUM_DEVIATION;
+	}
+
+	public Float getDeviation(String bssid) {
+		return deviations == null ? null : deviations.get(bssid);
+	}
+
+	public Float getVisibility(String bssid) {
+		return visibility == null ? null : visibility.get(bssid);
 	}
 	public String getName() {
 		return name;
@@ -47,7 +82,8 @@ public class PositionData implements Serializable {
 		 for(Map.Entry<String, Integer> e: this.values.entrySet()){
 			 int v;
 			//Log.v("Key : ",arg.values.get(e.getKey()).toString());
-			 if(isFriendlyWifi(friendlyWifis,e.getKey()) && arg.values.containsKey(e.getKey()))
+			 if(isFriendlyWifi(friendlyWifis,e.getKey()) && arg.values.containsKey(e.getKey())
+					 && arg.isStable(e.getKey()))
 				 {
 				  v=arg.values.get(e.getKey());
 				  sum+=Math.pow((v-e.getValue()),2);
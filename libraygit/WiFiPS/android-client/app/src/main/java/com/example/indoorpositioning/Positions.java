@@ -34,12 +34,6 @@ import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.google.gson.Gson;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 public class Positions extends Activity {
 
     private TextView textHeading;
@@ -63,7 +57,6 @@ public class Positions extends Activity {
     private List<PositionData> positionsData;
     private PositionData positionData;
     private String building;
-    Gson gson;
 
     @SuppressWarnings("null")
     @Override
@@ -84,7 +77,6 @@ public class Positions extends Activity {
         calibrate = (Button) findViewById(R.id.calibratebutton);
         finish = (Button) findViewById(R.id.finish);
         positionsList = (ListView) findViewById(R.id.positionslist);
-        gson = new Gson();
         resultsText = "";
 
         positionCount = 0;
@@ -148,20 +140,7 @@ public class Positions extends Activity {
                 Intent intent = new Intent(getApplicationContext(),
                         Buildings.class);
                 setResult(2, intent);
-                ArrayList<PositionData> buildingReadings = db.getReadings(building);
-                ArrayList<Router> friendlyWifis = db.getFriendlyWifis(building);
-                String buildingReadingsJson = gson.toJson(buildingReadings);
-                String friendlyWifisJson = gson.toJson(friendlyWifis);
-                JSONObject json = new JSONObject();
-                try {
-                    json.accumulate("building_id", building);
-                    json.accumulate("readings", new JSONArray(buildingReadingsJson));
-                    json.accumulate("friendly_wifis", new JSONArray(friendlyWifisJson));
-
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-                new Submit(getApplicationContext()).execute(json.toString());
+                new Submit(getApplicationContext()).execute(building);
                 finish();
 
             }
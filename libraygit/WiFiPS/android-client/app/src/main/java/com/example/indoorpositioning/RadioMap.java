@@ -0,0 +1,403 @@
+package com.example.indoorpositioning;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compact, read-only radio map of a single building.
+ *
+ * The snapshot stores every access point once in a dictionary (SSID, BSSID and
+ * whether it is a friendly wifi), followed by the position names and one row of
+ * readings per position. Rows are sorted by access point index and written as
+ * varint index deltas and zigzag varint RSSI deltas, so a typical reading takes
+ * two bytes instead of repeating the SSID and MAC string as the sync JSON does.
+ *
+ * Layout (big endian):
+ * <pre>
+ *   int     magic "WPSM"
+ *   byte    version
+ *   varint  access point count, then per access point:
+ *             byte flags, string SSID, BSSID as 6 bytes (FLAG_MAC) or string
+ *   varint  position count, then per position: string name
+ *   rows    per position: varint reading count, then per reading:
+ *             varint index delta shifted left by one, the low bit set if
+ *             statistics follow, zigzag varint RSSI delta, and the statistics
+ *             as float deviation and float visibility (NaN if missing)
+ * </pre>
+ * Strings are a varint byte length followed by UTF-8. The whole file may be
+ * gzip-framed; plain files are memory-mapped so locating does not touch SQLite.
+ *
+ * Every reading is kept, so a snapshot converts back to the readings it was
+ * written from. Readings that are not {@link PositionData#isStable stable} are
+ * skipped when matching. Version 1 snapshots dropped them and are not read.
+ */
+public class RadioMap {
+
+    public static final int MAGIC = 0x5750534d;
+    public static final int VERSION = 2;
+
+    private static final int FLAG_FRIENDLY = 1;
+    private static final int FLAG_MAC = 2;
+
+    private final ByteBuffer buffer;
+    private final Router[] routers;
+    private final boolean[] friendly;
+    private final String[] names;
+    private final int[] rowOffsets;
+
+    private RadioMap(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        ByteBuffer in = buffer.duplicate();
+        if (in.getInt() != MAGIC)
+            throw new IOException("Not a radio map snapshot");
+        int version = in.get();
+        if (version != VERSION)
+            throw new IOException("Unsupported radio map version " + version);
+
+        int apCount = readVarint(in);
+        routers = new Router[apCount];
+        friendly = new boolean[apCount];
+        for (int i = 0; i < apCount; i++) {
+            int flags = in.get();
+            String ssid = readString(in);
+            String bssid;
+            if ((flags & FLAG_MAC) != 0) {
+                byte[] mac = new byte[6];
+                in.get(mac);
+                bssid = formatMac(mac);
+            } else {
+                bssid = readString(in);
+            }
+            routers[i] = new Router(ssid, bssid);
+            friendly[i] = (flags & FLAG_FRIENDLY) != 0;
+        }
+
+        int positionCount = readVarint(in);
+        names = new String[positionCount];
+        for (int i = 0; i < positionCount; i++)
+            names[i] = readString(in);
+
+        // Index the rows once so a lookup can jump straight to a position.
+        rowOffsets = new int[positionCount];
+        for (int i = 0; i < positionCount; i++) {
+            rowOffsets[i] = in.position();
+            int count = readVarint(in);
+            for (int j = 0; j < count; j++) {
+                int index = readVarint(in);
+                readVarint(in);
+                if ((index & 1) != 0)
+                    in.position(in.position() + 8);
+            }
+        }
+    }
+
+    /**
+     * Opens a snapshot file. Plain snapshots are memory-mapped read-only,
+     * gzip-framed ones are inflated into memory.
+     */
+    public static RadioMap open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.remaining() >= 2 && (mapped.get(0) & 0xff) == 0x1f && (mapped.get(1) & 0xff) == 0x8b) {
+                InputStream in = new FileInputStream(file);
+                try {
+                    return read(in);
+                } finally {
+                    in.close();
+                }
+            }
+            return new RadioMap(mapped);
+        } finally {
+            // The mapping stays valid after the channel is closed.
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a snapshot from a stream, transparently handling gzip framing.
+     */
+    public static RadioMap read(InputStream in) throws IOException {
+        byte[] data = readFully(in);
+        if (data.length >= 2 && (data[0] & 0xff) == 0x1f && (data[1] & 0xff) == 0x8b)
+            data = readFully(new GZIPInputStream(new ByteArrayInputStream(data)));
+        return new RadioMap(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Writes the readings and friendly wifis of a building as a snapshot.
+     */
+    public static void write(OutputStream out, List<PositionData> readings, List<Router> friendlyWifis,
+                             boolean gzip) throws IOException {
+        LinkedHashMap<String, Integer> index = new LinkedHashMap<String, Integer>();
+        ArrayList<Router> dictionary = new ArrayList<Router>();
+        HashMap<String, Boolean> isFriendly = new HashMap<String, Boolean>();
+        for (Router router : friendlyWifis) {
+            if (!index.containsKey(router.getBSSID())) {
+                index.put(router.getBSSID(), dictionary.size());
+                dictionary.add(router);
+            }
+            isFriendly.put(router.getBSSID(), true);
+        }
+        for (PositionData position : readings) {
+            for (String bssid : position.values.keySet()) {
+                if (!index.containsKey(bssid)) {
+                    index.put(bssid, dictionary.size());
+                    dictionary.add(new Router(position.routers.get(bssid), bssid));
+                }
+            }
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeInt(body, MAGIC);
+        body.write(VERSION);
+
+        writeVarint(body, dictionary.size());
+        for (Router router : dictionary) {
+            byte[] mac = parseMac(router.getBSSID());
+            int flags = (isFriendly.containsKey(router.getBSSID()) ? FLAG_FRIENDLY : 0) | (mac != null ? FLAG_MAC : 0);
+            body.write(flags);
+            writeString(body, router.getSSID());
+            if (mac != null)
+                body.write(mac);
+            else
+                writeString(body, router.getBSSID());
+        }
+
+        writeVarint(body, readings.size());
+        for (PositionData position : readings)
+            writeString(body, position.getName());
+
+        for (PositionData position : readings) {
+            int[] row = new int[position.values.size()];
+            int n = 0;
+            for (String bssid : position.values.keySet())
+                row[n++] = index.get(bssid);
+            Arrays.sort(row);
+
+            writeVarint(body, row.length);
+            int previousIndex = 0;
+            int previousRssi = 0;
+            for (int ap : row) {
+                String bssid = dictionary.get(ap).getBSSID();
+                int rssi = position.values.get(bssid);
+                Float deviation = position.getDeviation(bssid);
+                Float visibility = position.getVisibility(bssid);
+                boolean statistics = deviation != null || visibility != null;
+                writeVarint(body, (ap - previousIndex) << 1 | (statistics ? 1 : 0));
+                writeVarint(body, (rssi - previousRssi) << 1 ^ (rssi - previousRssi) >> 31);
+                if (statistics) {
+                    writeInt(body, Float.floatToIntBits(deviation != null ? deviation : Float.NaN));
+                    writeInt(body, Float.floatToIntBits(visibility != null ? visibility : Float.NaN));
+                }
+                previousIndex = ap;
+                previousRssi = rssi;
+            }
+        }
+
+        if (gzip) {
+            GZIPOutputStream gz = new GZIPOutputStream(out);
+            body.writeTo(gz);
+            gz.finish();
+        } else {
+            body.writeTo(out);
+        }
+        out.flush();
+    }
+
+    public int getPositionCount() {
+        return names.length;
+    }
+
+    public String getName(int position) {
+        return names[position];
+    }
+
+    /**
+     * Decodes the snapshot back into the {@link PositionData} model.
+     */
+    public ArrayList<PositionData> getReadings() {
+        ArrayList<PositionData> result = new ArrayList<PositionData>();
+        ByteBuffer in = buffer.duplicate();
+        for (int i = 0; i < names.length; i++) {
+            PositionData positionData = new PositionData(names[i]);
+            in.position(rowOffsets[i]);
+            int count = readVarint(in);
+            int ap = 0;
+            int rssi = 0;
+            for (int j = 0; j < count; j++) {
+                int index = readVarint(in);
+                ap += index >>> 1;
+                int zigzag = readVarint(in);
+                rssi += (zigzag >>> 1) ^ -(zigzag & 1);
+                positionData.addValue(routers[ap], rssi);
+                if ((index & 1) != 0) {
+                    float deviation = in.getFloat();
+                    float visibility = in.getFloat();
+                    if (!Float.isNaN(deviation))
+                        positionData.deviations.put(routers[ap].getBSSID(), deviation);
+                    if (!Float.isNaN(visibility))
+                        positionData.visibility.put(routers[ap].getBSSID(), visibility);
+                }
+            }
+            result.add(positionData);
+        }
+        return result;
+    }
+
+    public ArrayList<Router> getFriendlyWifis() {
+        ArrayList<Router> result = new ArrayList<Router>();
+        for (int i = 0; i < routers.length; i++) {
+            if (friendly[i])
+                result.add(routers[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Same metric as {@link PositionData#uDistance}, evaluated directly on the
+     * mapped row of a reference position. Unstable readings are skipped.
+     */
+    public int distance(int position, PositionData scan) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(rowOffsets[position]);
+        int count = readVarint(in);
+        int ap = 0;
+        int rssi = 0;
+        int sum = 0;
+        int common = 0;
+        for (int j = 0; j < count; j++) {
+            int index = readVarint(in);
+            ap += index >>> 1;
+            int zigzag = readVarint(in);
+            rssi += (zigzag >>> 1) ^ -(zigzag & 1);
+            boolean stable = true;
+            if ((index & 1) != 0)
+                stable = isStable(in.getFloat(), in.getFloat());
+            if (stable && friendly[ap]) {
+                Integer v = scan.values.get(routers[ap].getBSSID());
+                if (v != null) {
+                    sum += (v - rssi) * (v - rssi);
+                    common++;
+                }
+            }
+        }
+        if (common < PositionData.MINIMUM_COMMON_ROUTERS)
+            return PositionData.MAX_DISTANCE;
+        return sum;
+    }
+
+    /**
+     * Returns the index of the closest reference position, or -1 if the scan
+     * is out of range of every position.
+     */
+    public int nearest(PositionData scan) {
+        int best = -1;
+        int minDistance = PositionData.MAX_DISTANCE;
+        for (int i = 0; i < names.length; i++) {
+            int distance = distance(i, scan);
+            if (distance < minDistance) {
+                minDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The limits of {@link PositionData#isStable}, a NaN statistic is missing.
+     */
+    private static boolean isStable(float deviation, float visibility) {
+        return !(visibility < PositionData.MINIMUM_VISIBILITY) && !(deviation > PositionData.MAXIMUM_DEVIATION);
+    }
+
+    private static byte[] parseMac(String bssid) {
+        if (bssid == null || bssid.length() != 17)
+            return null;
+        byte[] mac = new byte[6];
+        for (int i = 0; i < 6; i++) {
+            int hi = Character.digit(bssid.charAt(i * 3), 16);
+            int lo = Character.digit(bssid.charAt(i * 3 + 1), 16);
+            if (hi < 0 || lo < 0 || (i < 5 && bssid.charAt(i * 3 + 2) != ':'))
+                return null;
+            mac[i] = (byte) (hi << 4 | lo);
+        }
+        // Only pack MACs that format back to the exact same string.
+        return formatMac(mac).equals(bssid) ? mac : null;
+    }
+
+    private static String formatMac(byte[] mac) {
+        char[] hex = "0123456789abcdef".toCharArray();
+        char[] out = new char[17];
+        for (int i = 0; i < 6; i++) {
+            out[i * 3] = hex[(mac[i] >> 4) & 0xf];
+            out[i * 3 + 1] = hex[mac[i] & 0xf];
+            if (i < 5)
+                out[i * 3 + 2] = ':';
+        }
+        return new String(out);
+    }
+
+    private static void writeInt(OutputStream out, int v) throws IOException {
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+
+    private static void writeVarint(OutputStream out, int v) throws IOException {
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.get();
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    private static void writeString(OutputStream out, String s) throws IOException {
+        byte[] bytes = (s == null ? "" : s).getBytes("UTF-8");
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[readVarint(in)];
+        in.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int n;
+        while ((n = in.read(chunk)) != -1)
+            out.write(chunk, 0, n);
+        return out.toByteArray();
+    }
+}
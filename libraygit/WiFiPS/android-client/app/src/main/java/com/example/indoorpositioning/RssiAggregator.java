@@ -0,0 +1,138 @@
+package com.example.indoorpositioning;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Aggregates RSSI samples of many scans into a fingerprint.
+ *
+ * Samples are quantized to whole dBm and kept in a primitive ring buffer per
+ * access point, so long sessions use constant memory. The fingerprint value
+ * of an access point is a trimmed mean, which ignores the occasional deep fade
+ * or reflection, and comes with the standard deviation and the visibility
+ * ratio (the share of scans the access point appeared in). The matcher uses
+ * these to skip flaky access points, see {@link PositionData#isStable}.
+ */
+public class RssiAggregator {
+
+    public static final int DEFAULT_CAPACITY = 32;
+    // Share of samples dropped from each end before averaging.
+    public static final float TRIM = 0.2f;
+
+    private static class Samples {
+        final Router router;
+        final byte[] ring;
+        int head;
+        int size;
+        int seen;
+
+        Samples(Router router, int capacity) {
+            this.router = router;
+            this.ring = new byte[capacity];
+        }
+
+        void add(int rssi) {
+            ring[head] = (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, rssi));
+            head = (head + 1) % ring.length;
+            if (size < ring.length)
+                size++;
+            seen++;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (int i = 0; i < size; i++)
+                sum += ring[i];
+            return sum / size;
+        }
+
+        double standardDeviation() {
+            if (size < 2)
+                return 0;
+            double mean = mean();
+            double sum = 0;
+            for (int i = 0; i < size; i++)
+                sum += (ring[i] - mean) * (ring[i] - mean);
+            return Math.sqrt(sum / (size - 1));
+        }
+    }
+
+    private final int capacity;
+    private final HashMap<String, Samples> samples = new HashMap<String, Samples>();
+    private final int[] scratch;
+    private int scans;
+
+    public RssiAggregator() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RssiAggregator(int capacity) {
+        this.capacity = capacity;
+        this.scratch = new int[capacity];
+    }
+
+    /**
+     * Marks the start of a new scan, which the visibility ratio is based on.
+     */
+    public void beginScan() {
+        scans++;
+    }
+
+    public void add(String ssid, String bssid, int rssi) {
+        Samples ap = samples.get(bssid);
+        if (ap == null) {
+            ap = new Samples(new Router(ssid, bssid), capacity);
+            samples.put(bssid, ap);
+        }
+        ap.add(rssi);
+    }
+
+    public int getScanCount() {
+        return scans;
+    }
+
+    public int getAccessPointCount() {
+        return samples.size();
+    }
+
+    public void clear() {
+        samples.clear();
+        scans = 0;
+    }
+
+    /**
+     * Returns true once every access point seen at least twice has a standard
+     * error of the mean of at most maxError dBm.
+     */
+    public boolean isConverged(double maxError) {
+        for (Samples ap : samples.values()) {
+            if (ap.size >= 2 && ap.standardDeviation() / Math.sqrt(ap.size) > maxError)
+                return false;
+        }
+        return true;
+    }
+
+    public PositionData toPositionData(String name) {
+        PositionData positionData = new PositionData(name);
+        for (Map.Entry<String, Samples> e : samples.entrySet()) {
+            Samples ap = e.getValue();
+            float visibility = scans == 0 ? 1 : Math.min(1f, (float) ap.seen / scans);
+            positionData.addValue(ap.router, (int) Math.round(trimmedMean(ap)),
+                    (float) ap.standardDeviation(), visibility);
+        }
+        return positionData;
+    }
+
+    private double trimmedMean(Samples ap) {
+        int n = ap.size;
+        for (int i = 0; i < n; i++)
+            scratch[i] = ap.ring[i];
+        Arrays.sort(scratch, 0, n);
+        int trim = (int) (n * TRIM);
+        double sum = 0;
+        for (int i = trim; i < n - trim; i++)
+            sum += scratch[i];
+        return sum / (n - 2 * trim);
+    }
+}
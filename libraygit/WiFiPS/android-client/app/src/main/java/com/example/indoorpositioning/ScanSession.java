@@ -0,0 +1,176 @@
+package com.example.indoorpositioning;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.List;
+
+/**
+ * Collects a fingerprint from real wifi scans.
+ *
+ * Instead of polling getScanResults() on a timer, the session waits for
+ * SCAN_RESULTS_AVAILABLE_ACTION and only aggregates results whose scan
+ * timestamp is newer than the previous scan, so cached entries are never
+ * counted twice. Samples are aggregated per BSSID by a {@link RssiAggregator}
+ * and the session stops as soon as the mean of every access point has
+ * converged, or when the time limit is reached.
+ *
+ * All callbacks are delivered on the main thread.
+ */
+public class ScanSession {
+
+    public interface Listener {
+        void onScan(ScanSession session);
+
+        void onFinished(PositionData positionData);
+    }
+
+    public static final int MIN_SCANS = 4;
+    public static final long MAX_DURATION_MS = 30000;
+    // Standard error of the mean (dBm) below which an access point is stable.
+    public static final double CONVERGED_ERROR = 1.0;
+    // Scan requests can be dropped silently or throttled, so ask again if nothing fresh arrives.
+    private static final long RESCAN_DELAY_MS = 5000;
+
+    private final Context context;
+    private final WifiManager wifi;
+    private final String positionName;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final RssiAggregator aggregator = new RssiAggregator();
+
+    private long startTime;
+    private long lastScanTimestamp;
+    private int scanCount;
+    private boolean running;
+
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (!running)
+                return;
+            if (Build.VERSION.SDK_INT >= 23
+                    && !intent.getBooleanExtra(WifiManager.EXTRA_RESULTS_UPDATED, true)) {
+                // The scan failed and only stale results are available. Asking again at once would fail
+                // again under scan throttling, the rescan posted with the request retries later.
+                return;
+            }
+            onScanResults(wifi.getScanResults());
+        }
+    };
+
+    private final Runnable rescan = new Runnable() {
+        @Override
+        public void run() {
+            requestScan();
+        }
+    };
+
+    private final Runnable timeout = new Runnable() {
+        @Override
+        public void run() {
+            finish();
+        }
+    };
+
+    public ScanSession(Context context, String positionName, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.wifi = (WifiManager) this.context.getSystemService(Context.WIFI_SERVICE);
+        this.positionName = positionName;
+        this.listener = listener;
+    }
+
+    public void start() {
+        if (running)
+            return;
+        running = true;
+        aggregator.clear();
+        scanCount = 0;
+        lastScanTimestamp = 0;
+        startTime = SystemClock.elapsedRealtime();
+        context.registerReceiver(receiver, new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+        handler.postDelayed(timeout, MAX_DURATION_MS);
+        requestScan();
+    }
+
+    /**
+     * Stops the session without delivering a result.
+     */
+    public void cancel() {
+        if (!running)
+            return;
+        running = false;
+        handler.removeCallbacks(rescan);
+        handler.removeCallbacks(timeout);
+        context.unregisterReceiver(receiver);
+    }
+
+    public int getScanCount() {
+        return scanCount;
+    }
+
+    public int getAccessPointCount() {
+        return aggregator.getAccessPointCount();
+    }
+
+    public long getRemainingMillis() {
+        return Math.max(0, MAX_DURATION_MS - (SystemClock.elapsedRealtime() - startTime));
+    }
+
+    private void requestScan() {
+        handler.removeCallbacks(rescan);
+        wifi.startScan();
+        handler.postDelayed(rescan, RESCAN_DELAY_MS);
+    }
+
+    private void onScanResults(List<ScanResult> results) {
+        long newest = lastScanTimestamp;
+        boolean fresh = false;
+        for (int i = 0; i < results.size(); i++) {
+            ScanResult result = results.get(i);
+            if (Build.VERSION.SDK_INT >= 17) {
+                // Skip entries cached from an earlier scan.
+                if (result.timestamp <= lastScanTimestamp)
+                    continue;
+                newest = Math.max(newest, result.timestamp);
+            }
+            if (!fresh)
+                aggregator.beginScan();
+            aggregator.add(result.SSID, result.BSSID, result.level);
+            fresh = true;
+        }
+        lastScanTimestamp = newest;
+
+        if (!fresh) {
+            // Another app's scan or a cached result, wait for our own or for the pending rescan.
+            return;
+        }
+
+        scanCount++;
+        listener.onScan(this);
+        if (isConverged())
+            finish();
+        else
+            requestScan();
+    }
+
+    private boolean isConverged() {
+        // Access points seen only once are too flaky to wait for.
+        return scanCount >= MIN_SCANS && aggregator.isConverged(CONVERGED_ERROR);
+    }
+
+    private void finish() {
+        if (!running)
+            return;
+        cancel();
+        listener.onFinished(aggregator.toPositionData(positionName));
+    }
+}
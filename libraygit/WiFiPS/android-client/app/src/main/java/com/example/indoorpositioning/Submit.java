@@ -8,21 +8,16 @@ import android.os.AsyncTask;
 import android.util.Log;
 import android.widget.Toast;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.util.EntityUtils;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.List;
 
 public class Submit extends AsyncTask<String, Integer, JSONObject> {
 
@@ -36,7 +31,8 @@ public class Submit extends AsyncTask<String, Integer, JSONObject> {
         protected JSONObject doInBackground(String... params) {
             // TODO Auto-generated method stub
             try {
-                return postData(params[0]);
+                DatabaseHelper db = new DatabaseHelper(context);
+                return postData(params[0], db.getReadings(params[0]), db.getFriendlyWifis(params[0]));
             } catch (IOException e) {
                 return null;
             }
@@ -78,46 +74,37 @@ public class Submit extends AsyncTask<String, Integer, JSONObject> {
 
         }
 
-        public JSONObject postData(String jsonData) throws IOException {
-            // Create a new HttpClient and Post Header
-            HttpClient httpclient = new DefaultHttpClient();
-            HttpPost httppost = new HttpPost(baseUrl + "submit");
-
-            try {
-                // Add your data
-                List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>();
-
-                WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
-                WifiInfo info = wifiManager.getConnectionInfo();
-
-                String mac = info.getMacAddress();
-                Log.d("Data Sent", jsonData);
-                nameValuePairs.add(new BasicNameValuePair("mac", mac));
-                nameValuePairs.add(new BasicNameValuePair("data",jsonData));
-                httppost.setEntity(new UrlEncodedFormEntity(nameValuePairs,"UTF-8"));
-
-                // Execute HTTP Post Request
-                HttpResponse response = httpclient.execute(httppost);
-                JSONObject json = null;
-                if (response == null)
-                    return null;
-                else {
-                    try {
-                        json = new JSONObject(EntityUtils.toString(response.getEntity()));
-                    } catch (JSONException e) {
-
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+        public JSONObject postData(final String building, final ArrayList<PositionData> readings,
+                                   final ArrayList<Router> friendlyWifis) throws IOException {
+            WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+            WifiInfo info = wifiManager.getConnectionInfo();
+            final String mac = info.getMacAddress();
+            final Gson gson = new Gson();
+
+            // The readings are serialized straight into the request body.
+            String response = HttpTransport.getInstance().post(baseUrl + "submit", new HttpTransport.FormBody() {
+                @Override
+                public void writeTo(HttpTransport.FormWriter form) throws IOException {
+                    form.field("mac", mac);
+                    Writer data = form.field("data");
+                    JsonWriter json = new JsonWriter(data);
+                    json.beginObject();
+                    json.name("building_id").value(building);
+                    json.name("readings");
+                    gson.toJson(readings, new TypeToken<ArrayList<PositionData>>() {
+                    }.getType(), json);
+                    json.name("friendly_wifis");
+                    gson.toJson(friendlyWifis, new TypeToken<ArrayList<Router>>() {
+                    }.getType(), json);
+                    json.endObject();
+                    json.flush();
                 }
+            });
+            Log.d("Data Sent", building);
 
-                return json;
-
-            } catch (ClientProtocolException e) {
-                // TODO Auto-generated catch block
-                return null;
-            } catch (IOException e) {
-                // TODO Auto-generated catch block
+            try {
+                return new JSONObject(response);
+            } catch (JSONException e) {
                 return null;
             }
         }
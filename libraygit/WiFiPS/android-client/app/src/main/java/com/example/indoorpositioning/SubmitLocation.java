@@ -6,21 +6,10 @@ import android.net.wifi.WifiManager;
 import android.os.AsyncTask;
 import android.widget.Toast;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.util.EntityUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 public class SubmitLocation extends AsyncTask<String, Integer, JSONObject> {
         private String baseUrl = Config.BASE_URL;
@@ -75,45 +64,22 @@ public class SubmitLocation extends AsyncTask<String, Integer, JSONObject> {
 
         }
 
-        public JSONObject postData(String location) throws IOException {
-            // Create a new HttpClient and Post Header
-            HttpClient httpclient = new DefaultHttpClient();
-            HttpPost httppost = new HttpPost(baseUrl + "submit");
+        public JSONObject postData(final String location) throws IOException {
+            WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+            WifiInfo info = wifiManager.getConnectionInfo();
+            final String mac = info.getMacAddress();
 
-            try {
-                // Add your data
-                List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>();
-
-                WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
-                WifiInfo info = wifiManager.getConnectionInfo();
-
-                String mac = info.getMacAddress();
-                nameValuePairs.add(new BasicNameValuePair("mac", mac));
-                nameValuePairs.add(new BasicNameValuePair("building_id",location));
-                httppost.setEntity(new UrlEncodedFormEntity(nameValuePairs,"UTF-8"));
-
-                // Execute HTTP Post Request
-                HttpResponse response = httpclient.execute(httppost);
-                JSONObject json = null;
-                if (response == null)
-                    return null;
-                else {
-                    try {
-                        json = new JSONObject(EntityUtils.toString(response.getEntity()));
-                    } catch (JSONException e) {
-
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+            String response = HttpTransport.getInstance().post(baseUrl + "submit", new HttpTransport.FormBody() {
+                @Override
+                public void writeTo(HttpTransport.FormWriter form) throws IOException {
+                    form.field("mac", mac);
+                    form.field("building_id", location);
                 }
+            });
 
-                return json;
-
-            } catch (ClientProtocolException e) {
-                // TODO Auto-generated catch block
-                return null;
-            } catch (IOException e) {
-                // TODO Auto-generated catch block
+            try {
+                return new JSONObject(response);
+            } catch (JSONException e) {
                 return null;
             }
         }
@@ -0,0 +1,72 @@
+package com.example.indoorpositioning;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DatabaseHelperTest {
+
+    private static final String STABLE = "00:11:22:33:44:55";
+    private static final String FLAKY = "66:77:88:99:aa:bb";
+    private static final String OLD = "cc:dd:ee:ff:00:11";
+
+    @Test
+    public void statisticsSurviveTheSync() throws Exception {
+        PositionData desk = new PositionData("desk");
+        desk.addValue(new Router("lab", STABLE), -50, 2.5f, 1f);
+        desk.addValue(new Router("hall", FLAKY), -80, 3f, 0.2f);
+        desk.addValue(new Router("old", OLD), -60);
+        ArrayList<PositionData> readings = new ArrayList<PositionData>();
+        readings.add(desk);
+
+        // The readings field of the body Submit posts, as index.php reads it.
+        JSONArray submitted = new JSONArray(new Gson().toJson(readings,
+                new TypeToken<ArrayList<PositionData>>() {
+                }.getType()));
+        JSONObject reading = submitted.getJSONObject(0);
+        assertEquals(2.5, reading.getJSONObject("deviations").getDouble(STABLE), 1e-6);
+        assertEquals(0.2, reading.getJSONObject("visibility").getDouble(FLAKY), 1e-6);
+        assertFalse(reading.getJSONObject("deviations").has(OLD));
+
+        // What GET / sends back for those rows: rssi comes out of MySQL as strings.
+        JSONObject building = new JSONObject("{\"building_id\":\"lab\",\"readings\":[{\"name\":\"desk\","
+                + "\"routers\":{\"" + STABLE + "\":\"lab\",\"" + FLAKY + "\":\"hall\",\"" + OLD + "\":\"old\"},"
+                + "\"values\":{\"" + STABLE + "\":\"-50\",\"" + FLAKY + "\":\"-80\",\"" + OLD + "\":\"-60\"},"
+                + "\"deviations\":{\"" + STABLE + "\":2.5,\"" + FLAKY + "\":3},"
+                + "\"visibility\":{\"" + STABLE + "\":1,\"" + FLAKY + "\":0.2}}],"
+                + "\"friendly_wifis\":[]}");
+        PositionData synced = DatabaseHelper.parseReadings(building).get(0);
+
+        assertEquals("desk", synced.getName());
+        assertEquals(-50, (int) synced.values.get(STABLE));
+        assertEquals(2.5f, synced.getDeviation(STABLE), 1e-6f);
+        assertEquals(0.2f, synced.getVisibility(FLAKY), 1e-6f);
+        assertTrue(synced.isStable(STABLE));
+        assertFalse(synced.isStable(FLAKY));
+        assertNull(synced.getDeviation(OLD));
+        assertTrue(synced.isStable(OLD));
+    }
+
+    @Test
+    public void readingsWithoutStatisticsAreStable() throws Exception {
+        // A position uploaded by an older client has empty statistics objects.
+        JSONObject building = new JSONObject("{\"building_id\":\"lab\",\"readings\":[{\"name\":\"door\","
+                + "\"routers\":{\"" + STABLE + "\":\"lab\"},\"values\":{\"" + STABLE + "\":\"-70\"},"
+                + "\"deviations\":{},\"visibility\":{}}],\"friendly_wifis\":[]}");
+        PositionData synced = DatabaseHelper.parseReadings(building).get(0);
+
+        assertEquals(-70, (int) synced.values.get(STABLE));
+        assertNull(synced.getVisibility(STABLE));
+        assertTrue(synced.isStable(STABLE));
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.indoorpositioning;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the transport against a local stub server.
+ */
+public class HttpTransportTest {
+
+    private static final long BACKOFF_MS = 100;
+
+    private HttpServer server;
+    private String base;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void serverErrorsAreRetriedWithBackoff() throws IOException {
+        server.createContext("/flaky", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                readBody(exchange);
+                if (calls.incrementAndGet() <= 2)
+                    respond(exchange, 503, null);
+                else
+                    respond(exchange, 200, "ok");
+            }
+        });
+
+        long start = System.nanoTime();
+        String response = transport().get(base + "flaky");
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        assertEquals("ok", response);
+        assertEquals(3, calls.get());
+        // At least half of each backoff, which doubles: 50 ms and 100 ms.
+        assertTrue("Retried after " + elapsed + " ms", elapsed >= BACKOFF_MS / 2 + BACKOFF_MS);
+    }
+
+    @Test
+    public void retriesAreBounded() throws IOException {
+        server.createContext("/down", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                calls.incrementAndGet();
+                respond(exchange, 500, null);
+            }
+        });
+
+        try {
+            transport().get(base + "down");
+            fail();
+        } catch (HttpTransport.HttpStatusException e) {
+            assertEquals(500, e.status);
+        }
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() throws IOException {
+        server.createContext("/missing", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                readBody(exchange);
+                calls.incrementAndGet();
+                respond(exchange, 404, null);
+            }
+        });
+
+        try {
+            transport().post(base + "missing", new HttpTransport.FormBody() {
+                @Override
+                public void writeTo(HttpTransport.FormWriter form) throws IOException {
+                    form.field("x", "y");
+                }
+            });
+            fail();
+        } catch (HttpTransport.HttpStatusException e) {
+            assertEquals(404, e.status);
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void gzipBodiesRoundTrip() throws IOException {
+        final String[] received = new String[2];
+        server.createContext("/submit", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                received[0] = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                byte[] body = readBody(exchange);
+                if ("gzip".equals(received[0]))
+                    body = readFully(new GZIPInputStream(new ByteArrayInputStream(body)));
+                received[1] = new String(body, "UTF-8");
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+                gzip.write("{\"result\":\"success\"}".getBytes("UTF-8"));
+                gzip.close();
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, bytes.size());
+                exchange.getResponseBody().write(bytes.toByteArray());
+                exchange.close();
+            }
+        });
+
+        // Characters that need percent-encoding, including a surrogate pair written one char at a time.
+        final String data = "{\"name\":\"Zimmer \u00fc \ud83d\ude00 a&b=c\"}";
+        String response = transport().post(base + "submit", new HttpTransport.FormBody() {
+            @Override
+            public void writeTo(HttpTransport.FormWriter form) throws IOException {
+                form.field("mac", "02:00:00:00:00:00");
+                Writer writer = form.field("data");
+                for (int i = 0; i < data.length(); i++)
+                    writer.write(data.charAt(i));
+            }
+        });
+
+        assertEquals("{\"result\":\"success\"}", response);
+        assertEquals("gzip", received[0]);
+        assertEquals("mac=" + URLEncoder.encode("02:00:00:00:00:00", "UTF-8")
+                + "&data=" + URLEncoder.encode(data, "UTF-8"), received[1]);
+    }
+
+    private static HttpTransport transport() {
+        return new HttpTransport(HttpTransport.MAX_ATTEMPTS, BACKOFF_MS);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            byte[] bytes = body.getBytes("UTF-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+        exchange.close();
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        return readFully(exchange.getRequestBody());
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int n;
+        while ((n = in.read(chunk)) != -1)
+            out.write(chunk, 0, n);
+        return out.toByteArray();
+    }
+}
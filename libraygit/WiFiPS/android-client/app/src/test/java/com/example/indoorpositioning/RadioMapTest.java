@@ -0,0 +1,130 @@
+package com.example.indoorpositioning;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RadioMapTest {
+
+    private static final Router LAB = new Router("lab", "00:11:22:33:44:55");
+    private static final Router HALL = new Router("hall", "66:77:88:99:aa:bb");
+    // Not a MAC, stored as a string.
+    private static final Router ODD = new Router("odd", "AA-BB-CC");
+    private static final Router CAFE = new Router("cafe", "de:ad:be:ef:00:01");
+
+    @Test
+    public void plainSnapshotRoundTrips() throws IOException {
+        assertRoundTrips(RadioMap.read(new ByteArrayInputStream(write(false))));
+    }
+
+    @Test
+    public void gzipSnapshotRoundTrips() throws IOException {
+        assertRoundTrips(RadioMap.read(new ByteArrayInputStream(write(true))));
+    }
+
+    @Test
+    public void mappedSnapshotRoundTrips() throws IOException {
+        File file = File.createTempFile("radiomap", ".wpsm");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(write(false));
+            } finally {
+                out.close();
+            }
+            assertRoundTrips(RadioMap.open(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void distanceSkipsUnstableReadings() throws IOException {
+        RadioMap radioMap = RadioMap.read(new ByteArrayInputStream(write(false)));
+        ArrayList<Router> friendly = new ArrayList<Router>(friendlyWifis());
+
+        PositionData scan = new PositionData(null);
+        scan.addValue(LAB, -45);
+        scan.addValue(HALL, -60);
+        scan.addValue(CAFE, -80);
+
+        List<PositionData> readings = readings();
+        for (int i = 0; i < readings.size(); i++)
+            assertEquals(scan.uDistance(readings.get(i), friendly), radioMap.distance(i, scan));
+
+        // In the office the flaky hall reading is skipped, only the lab is in common.
+        assertEquals((-45 + 50) * (-45 + 50), radioMap.distance(0, scan));
+        assertEquals(PositionData.MAX_DISTANCE, radioMap.distance(0, withOnly(HALL, -60)));
+        // At the door the hall reading has no statistics and matches exactly.
+        assertEquals(2, radioMap.nearest(scan));
+    }
+
+    private static void assertRoundTrips(RadioMap radioMap) {
+        List<PositionData> expected = readings();
+        ArrayList<PositionData> actual = radioMap.getReadings();
+
+        assertEquals(expected.size(), radioMap.getPositionCount());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getName(), radioMap.getName(i));
+            assertEquals(expected.get(i).getName(), actual.get(i).getName());
+            assertEquals(expected.get(i).values, actual.get(i).values);
+            assertEquals(expected.get(i).routers, actual.get(i).routers);
+            assertEquals(expected.get(i).deviations, actual.get(i).deviations);
+            assertEquals(expected.get(i).visibility, actual.get(i).visibility);
+        }
+
+        ArrayList<Router> friendly = radioMap.getFriendlyWifis();
+        assertEquals(friendlyWifis(), friendly);
+        for (int i = 0; i < friendly.size(); i++)
+            assertEquals(friendlyWifis().get(i).getSSID(), friendly.get(i).getSSID());
+    }
+
+    private static byte[] write(boolean gzip) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RadioMap.write(out, readings(), friendlyWifis(), gzip);
+        byte[] bytes = out.toByteArray();
+        assertTrue(gzip == ((bytes[0] & 0xff) == 0x1f));
+        return bytes;
+    }
+
+    private static List<PositionData> readings() {
+        PositionData office = new PositionData("office");
+        office.addValue(LAB, -50, 2.5f, 1f);
+        // Too flaky to match against, but kept.
+        office.addValue(HALL, -71, 12f, 0.3f);
+        office.addValue(ODD, -88, 1f, 0.9f);
+
+        // Synced from an older client, without statistics.
+        PositionData door = new PositionData("door");
+        door.addValue(HALL, -60);
+        door.addValue(CAFE, -30);
+
+        PositionData empty = new PositionData("empty");
+        // Deviates too much.
+        PositionData corner = new PositionData("corner");
+        corner.addValue(HALL, -61, 9f, 1f);
+
+        return Arrays.asList(office, corner, door, empty);
+    }
+
+    private static List<Router> friendlyWifis() {
+        return Arrays.asList(LAB, HALL, ODD);
+    }
+
+    private static PositionData withOnly(Router router, int rssi) {
+        PositionData positionData = new PositionData(null);
+        positionData.addValue(router, rssi);
+        return positionData;
+    }
+}
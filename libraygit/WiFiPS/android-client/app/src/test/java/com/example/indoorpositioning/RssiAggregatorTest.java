@@ -0,0 +1,108 @@
+package com.example.indoorpositioning;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RssiAggregatorTest {
+
+    private static final String AP = "00:11:22:33:44:55";
+
+    @Test
+    public void trimmedMeanIgnoresOutliers() {
+        RssiAggregator aggregator = new RssiAggregator();
+        int[] samples = {-50, -52, -48, -50, -51, -49, -50, -50, -90, -10};
+        for (int rssi : samples) {
+            aggregator.beginScan();
+            aggregator.add("lab", AP, rssi);
+        }
+
+        PositionData positionData = aggregator.toPositionData("desk");
+        // 20% of 10 samples, two from each end, leaves -52..-49 around -50.
+        assertEquals(-50, (int) positionData.values.get(AP));
+        assertEquals("lab", positionData.routers.get(AP));
+        assertEquals("desk", positionData.getName());
+    }
+
+    @Test
+    public void deviationIsTheSampleStandardDeviation() {
+        RssiAggregator aggregator = new RssiAggregator();
+        int[] samples = {-40, -44, -48, -52};
+        for (int rssi : samples) {
+            aggregator.beginScan();
+            aggregator.add("lab", AP, rssi);
+        }
+
+        // Mean -46, squared deviations 36 + 4 + 4 + 36 over n - 1.
+        assertEquals(Math.sqrt(80 / 3.0), aggregator.toPositionData("desk").getDeviation(AP), 1e-5);
+    }
+
+    @Test
+    public void visibilityIsTheShareOfScans() {
+        RssiAggregator aggregator = new RssiAggregator();
+        for (int scan = 0; scan < 4; scan++) {
+            aggregator.beginScan();
+            aggregator.add("lab", AP, -50);
+            if (scan % 2 == 0)
+                aggregator.add("hall", "66:77:88:99:aa:bb", -70);
+        }
+
+        PositionData positionData = aggregator.toPositionData("desk");
+        assertEquals(1f, positionData.getVisibility(AP), 0);
+        assertEquals(0.5f, positionData.getVisibility("66:77:88:99:aa:bb"), 0);
+        assertTrue(positionData.isStable(AP));
+        assertTrue(positionData.isStable("66:77:88:99:aa:bb"));
+        assertEquals(2, aggregator.getAccessPointCount());
+        assertEquals(4, aggregator.getScanCount());
+    }
+
+    @Test
+    public void flakyReadingsAreUnstable() {
+        RssiAggregator aggregator = new RssiAggregator();
+        for (int scan = 0; scan < 10; scan++) {
+            aggregator.beginScan();
+            aggregator.add("lab", AP, scan % 2 == 0 ? -40 : -70);
+            if (scan < 3)
+                aggregator.add("hall", "66:77:88:99:aa:bb", -70);
+        }
+
+        PositionData positionData = aggregator.toPositionData("desk");
+        // A deviation of about 15.8 dBm, and seen in 3 of 10 scans.
+        assertFalse(positionData.isStable(AP));
+        assertFalse(positionData.isStable("66:77:88:99:aa:bb"));
+    }
+
+    @Test
+    public void onlyTheLatestSamplesAreKept() {
+        RssiAggregator aggregator = new RssiAggregator(4);
+        int[] samples = {-90, -90, -60, -60, -60, -60};
+        for (int rssi : samples) {
+            aggregator.beginScan();
+            aggregator.add("lab", AP, rssi);
+        }
+
+        PositionData positionData = aggregator.toPositionData("desk");
+        assertEquals(-60, (int) positionData.values.get(AP));
+        assertEquals(0f, positionData.getDeviation(AP), 0);
+        assertTrue(aggregator.isConverged(ScanSession.CONVERGED_ERROR));
+    }
+
+    @Test
+    public void convergesOnceTheStandardErrorIsSmall() {
+        RssiAggregator aggregator = new RssiAggregator();
+        aggregator.beginScan();
+        aggregator.add("lab", AP, -40);
+        aggregator.beginScan();
+        aggregator.add("lab", AP, -60);
+        // A deviation of 14.1 dBm over 2 samples.
+        assertFalse(aggregator.isConverged(1.0));
+
+        for (int i = 0; i < 30; i++) {
+            aggregator.beginScan();
+            aggregator.add("lab", AP, -50);
+        }
+        assertTrue(aggregator.isConverged(1.0));
+    }
+}
@@ -1,6 +1,15 @@
 <?php
 require 'vendor/autoload.php';
 
+// Compress responses for clients that send Accept-Encoding: gzip.
+ob_start('ob_gzhandler');
+
+// The android client streams its form bodies gzip-compressed.
+if (isset($_SERVER['HTTP_CONTENT_ENCODING']) && $_SERVER['HTTP_CONTENT_ENCODING'] == 'gzip') {
+	parse_str(gzdecode(file_get_contents('php://input')), $_POST);
+	$_REQUEST = array_merge($_REQUEST, $_POST);
+}
+
 $app = new \Slim\Slim();
 
 $app->response->headers->set('Content-Type', 'application/json');
@@ -23,6 +32,9 @@ $app->post('/submit/?', function () {
 				$new_reading->ssid = $reading->routers->$mac;
 				$new_reading->mac_id = $mac;
 				$new_reading->rssi = $rssi;
+				// Statistics of calibrated readings, absent for older clients.
+				$new_reading->stddev = isset($reading->deviations->$mac) ? $reading->deviations->$mac : null;
+				$new_reading->visibility = isset($reading->visibility->$mac) ? $reading->visibility->$mac : null;
 				$new_reading->save();
 			}
 		}
@@ -54,12 +66,18 @@ $app->get('/?', function () {
 		$readings = Reading::where('building_id','=',$building_id)->get();
 		$access_points = AccessPoint::where('building_id','=',$building_id)->get();
 
-		
-		
+		$positions = array();
 		foreach($readings as $reading){
 			$positions[$reading->position_id]['values'][$reading->mac_id]=$reading->rssi;
-			$positions[$reading->position_id]['routers'][$reading->mac_id]=$reading->ssid;		
-			
+			$positions[$reading->position_id]['routers'][$reading->mac_id]=$reading->ssid;
+			if (!isset($positions[$reading->position_id]['deviations'])) {
+				$positions[$reading->position_id]['deviations'] = array();
+				$positions[$reading->position_id]['visibility'] = array();
+			}
+			if ($reading->stddev !== null && $reading->visibility !== null) {
+				$positions[$reading->position_id]['deviations'][$reading->mac_id]=(float)$reading->stddev;
+				$positions[$reading->position_id]['visibility'][$reading->mac_id]=(float)$reading->visibility;
+			}
 		}
 
 		$positions_list= array();
@@ -68,7 +86,9 @@ $app->get('/?', function () {
 				'name'=>(string)$name,
 				'routers'=>$data['routers'],
 				'values'=>$data['values'],
-				
+				// Objects keyed by BSSID like values, even when empty.
+				'deviations'=>(object)$data['deviations'],
+				'visibility'=>(object)$data['visibility'],
 				);
 
 		 array_push($positions_list,$new_position);
@@ -43,9 +43,16 @@ CREATE TABLE IF NOT EXISTS `readings` (
   `position_id` char(50) NOT NULL,
   `mac_id` char(50) NOT NULL,
   `ssid` char(50) NOT NULL,
-  `rssi` float NOT NULL
+  `rssi` float NOT NULL,
+  `stddev` float DEFAULT NULL,
+  `visibility` float DEFAULT NULL
 ) ENGINE=InnoDB DEFAULT CHARSET=latin1;
 
+--
+-- Databases created before the statistics were added:
+-- ALTER TABLE `readings` ADD `stddev` float DEFAULT NULL, ADD `visibility` float DEFAULT NULL;
+--
+
 /*!40101 SET CHARACTER_SET_CLIENT=@OLD_CHARACTER_SET_CLIENT */;
 /*!40101 SET CHARACTER_SET_RESULTS=@OLD_CHARACTER_SET_RESULTS */;
 /*!40101 SET COLLATION_CONNECTION=@OLD_COLLATION_CONNECTION */;
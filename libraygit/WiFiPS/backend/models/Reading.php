@@ -1,6 +1,15 @@
 <?php
 require_once "eloquent_db.php";
 
+/**
+ * @property string $building_id
+ * @property string $position_id
+ * @property string $mac_id
+ * @property string $ssid
+ * @property float $rssi
+ * @property float|null $stddev     null for readings uploaded without statistics
+ * @property float|null $visibility null for readings uploaded without statistics
+ */
 class Reading extends \Illuminate\Database\Eloquent\Model
 {
 	protected $table = 'readings';